@@ -0,0 +1,23 @@
+@echo off
+echo [CFA Bench] Compiling agent and bench sources...
+mkdir out 2>nul
+mkdir bench-out 2>nul
+
+javac -encoding UTF-8 -d out src\main\java\com\cfa\*.java
+if %ERRORLEVEL% NEQ 0 (
+    echo [CFA Bench] COMPILATION FAILED
+    exit /b 1
+)
+javac -encoding UTF-8 -cp out -d bench-out src\bench\java\com\cfa\*.java
+if %ERRORLEVEL% NEQ 0 (
+    echo [CFA Bench] COMPILATION FAILED
+    exit /b 1
+)
+
+if "%1"=="" (
+    echo [CFA Bench] Run with: bench.bat ^<Harness^> [args], e.g. bench.bat HttpLoadTest or bench.bat SoakTest duration=1h clients=64
+    exit /b 0
+)
+set MAIN=%1
+shift
+java -cp out;bench-out com.cfa.%MAIN% %1 %2 %3 %4 %5 %6 %7 %8 %9
@@ -0,0 +1,10 @@
+@echo off
+echo [CFA JMH] Building jmh\target\benchmarks.jar...
+call mvn -B -q -f jmh\pom.xml package
+if %ERRORLEVEL% NEQ 0 (
+    echo [CFA JMH] BUILD FAILED
+    exit /b 1
+)
+
+rem Any JMH options pass through, e.g. jmh.bat Engine -f 1 -wi 2; -prof gc is on unless another -prof is given
+java -jar jmh\target\benchmarks.jar %*
@@ -0,0 +1,64 @@
+package com.cfa;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic inputs shared by the benchmarks: a seeded random walk of
+ * telemetry snapshots (with the occasional spike, so detectors take their
+ * event paths too), their CSI results and the rows AgentMain would store.
+ */
+final class BenchData {
+
+    static final int SIZE = 1024;                 // power of two, indexed with & MASK
+    static final int MASK = SIZE - 1;
+    static final long CYCLE_MS = 3000;
+
+    final TelemetryCollector.TelemetrySnapshot[] snaps = new TelemetryCollector.TelemetrySnapshot[SIZE];
+    final CSICalculator.CSIResult[] results = new CSICalculator.CSIResult[SIZE];
+    final String[] rows = new String[SIZE];
+
+    BenchData(long startTs) {
+        Random r = new Random(42);
+        CSICalculator calc = new CSICalculator();
+        double rssi = -60, latency = 25, cpu = 20, mem = 50;
+        for (int i = 0; i < SIZE; i++) {
+            rssi    = clamp(rssi + r.nextGaussian() * 1.5, -95, -35);
+            latency = clamp(latency + r.nextGaussian() * 3, 2, 400);
+            cpu     = clamp(cpu + r.nextGaussian() * 4, 1, 100);
+            mem     = clamp(mem + r.nextGaussian(), 10, 95);
+            TelemetryCollector.TelemetrySnapshot s = new TelemetryCollector.TelemetrySnapshot();
+            s.timestamp = startTs + i * CYCLE_MS;
+            s.wifiRssi = i % 97 == 0 ? -92 : rssi;
+            s.latencyMs = i % 89 == 0 ? latency * 8 : latency;
+            s.packetLossRatio = r.nextDouble() < 0.05 ? r.nextDouble() * 0.2 : 0.0;
+            s.throughputMbps = 10 + r.nextDouble() * 40;
+            s.cpuPercent = cpu;
+            s.memPercent = mem;
+            s.btDeviceCount = r.nextInt(4);
+            s.btSignalStrength = -55 - r.nextDouble() * 20;
+            snaps[i] = s;
+            results[i] = calc.compute(s);
+            results[i].timestamp = s.timestamp;
+            rows[i] = AgentMain.buildSnapshotJson(s, results[i]);
+        }
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+
+    static Path tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("cfa-jmh-" + prefix);
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
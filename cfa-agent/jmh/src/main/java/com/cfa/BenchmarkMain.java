@@ -0,0 +1,25 @@
+package com.cfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: the standard JMH command line, with the GC
+ * profiler switched on unless another -prof is given, so every run reports
+ * gc.alloc.rate (MB/s) and gc.alloc.rate.norm (bytes per operation) next to
+ * the timings.
+ *
+ * Usage: java -jar jmh/target/benchmarks.jar [JMH options] [benchmark regex]
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> a = new ArrayList<>(Arrays.asList(args));
+        if (!a.contains("-prof")) {
+            a.add(0, "gc");
+            a.add(0, "-prof");
+        }
+        org.openjdk.jmh.Main.main(a.toArray(new String[0]));
+    }
+}
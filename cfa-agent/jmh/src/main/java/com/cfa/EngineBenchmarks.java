@@ -0,0 +1,62 @@
+package com.cfa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The per-cycle analytics: CSI computation, anomaly analysis and the
+ * forecast, each fed from a stream of varied snapshots rather than one
+ * repeated input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmarks {
+
+    private BenchData data;
+    private CSICalculator calculator;
+    private AnomalyDetector detector;
+    private PredictiveEngine predictor;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new BenchData(System.currentTimeMillis());
+        calculator = new CSICalculator();
+        detector = new AnomalyDetector();
+        predictor = new PredictiveEngine(BenchData.CYCLE_MS);
+        // Full histories, as after the agent has been up for a while
+        for (int k = 0; k < BenchData.SIZE; k++) {
+            detector.analyze(data.results[k], data.snaps[k]);
+            predictor.addSample(data.results[k].gcs);
+        }
+    }
+
+    @Benchmark
+    public CSICalculator.CSIResult compute() {
+        return calculator.compute(data.snaps[i++ & BenchData.MASK]);
+    }
+
+    @Benchmark
+    public double analyze() {
+        int k = i++ & BenchData.MASK;
+        detector.analyze(data.results[k], data.snaps[k]);
+        return detector.getBayesianConfidence();
+    }
+
+    @Benchmark
+    public PredictiveEngine.Forecast forecast() {
+        return predictor.forecast();
+    }
+
+    /** What the compute loop does each cycle: one new sample, then a forecast */
+    @Benchmark
+    public PredictiveEngine.Forecast addSampleAndForecast() {
+        predictor.addSample(data.results[i++ & BenchData.MASK].gcs);
+        return predictor.forecast();
+    }
+}
@@ -0,0 +1,171 @@
+package com.cfa;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The authenticated API endpoints end to end over loopback: a wired-up
+ * HttpApiServer on an ephemeral port with history, anomalies, stats and an
+ * enrolled key, and a keep-alive HTTP/1.1 client per benchmark thread.
+ *
+ * Times and the gc profiler's allocation figures cover client and server
+ * together, so compare them run against run rather than with the in-process
+ * benchmarks. Rate limits are off; use -t to add concurrent clients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpHandlerBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        HttpApiServer server;
+        String base, token;
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = BenchData.tempDir("http");
+            HttpApiServer.Config cfg = new HttpApiServer.Config();
+            cfg.apiPerSecond = 0;
+            cfg.enrollPerMinute = 0;
+            cfg.maxConcurrent = 256;
+
+            DatabaseManager db = new DatabaseManager(dir.resolve("db"));
+            SecurityEngine security = new SecurityEngine("jmh-secret");
+            LocalDataStore store = new LocalDataStore(dir.resolve("store").toString(), 5000);
+            AnomalyDetector detector = new AnomalyDetector();
+            PredictiveEngine predictor = new PredictiveEngine(BenchData.CYCLE_MS);
+            StatsEngine stats = new StatsEngine();
+
+            server = new HttpApiServer(0, cfg);
+            server.databaseManager = db;
+            server.securityEngine = security;
+            server.tokenCache = new TokenCache(db, security, 1024);
+            server.anomalyDetector = detector;
+            server.dataStore = store;
+            server.csiCalculator = new CSICalculator();
+            server.historyBackfill = new HistoryBackfill(store);
+            server.statsEngine = stats;
+            server.cycleMs = BenchData.CYCLE_MS;
+            server.start();
+
+            // A few hours of cycles, fed through the same steps as the compute loop
+            BenchData data = new BenchData(System.currentTimeMillis() - 5000 * BenchData.CYCLE_MS);
+            for (int k = 0; k < 5000; k++) {
+                int j = k & BenchData.MASK;
+                TelemetryCollector.TelemetrySnapshot snap = data.snaps[j];
+                CSICalculator.CSIResult csi = data.results[j];
+                stats.record(snap, csi);
+                detector.analyze(csi, snap);
+                predictor.addSample(csi.gcs);
+                store.append(data.rows[j]);
+                if (k >= 4990) {
+                    server.publishCycle(new CycleState(k + 1, snap, csi,
+                        detector.getBayesianConfidence(), predictor.forecast(), data.rows[j]));
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            token = security.generateApiKey("jmh-device", now);
+            db.saveKey("jmh-device", security.hashKey(token), now + 86_400_000L);
+            base = "http://127.0.0.1:" + server.boundPort();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            server.stop();
+            BenchData.delete(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        HttpClient http;
+        HttpRequest health, status, statusCached, metrics, metricsFiltered, anomalies, anomaliesFiltered,
+            prediction, stats;
+
+        @Setup(Level.Trial)
+        public void setup(Server s) throws Exception {
+            http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            health            = get(s, "/api/health");
+            status            = get(s, "/api/status");
+            metrics           = get(s, "/api/metrics");
+            metricsFiltered   = get(s, "/api/metrics?limit=200&min.gcs=40&max.netCSI=90");
+            anomalies         = get(s, "/api/anomalies");
+            anomaliesFiltered = get(s, "/api/anomalies?limit=50&severity=HIGH,MEDIUM");
+            prediction        = get(s, "/api/prediction");
+            stats             = get(s, "/api/stats?signal=latency&horizon=1h");
+            String etag = http.send(status, HttpResponse.BodyHandlers.discarding()).headers()
+                .firstValue("ETag").orElseThrow();
+            statusCached = HttpRequest.newBuilder(URI.create(s.base + "/api/status"))
+                .header("Authorization", "Bearer " + s.token).header("If-None-Match", etag).build();
+        }
+
+        private static HttpRequest get(Server s, String path) {
+            return HttpRequest.newBuilder(URI.create(s.base + path))
+                .header("Authorization", "Bearer " + s.token).build();
+        }
+
+        byte[] send(HttpRequest req, int expect) throws Exception {
+            HttpResponse<byte[]> r = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+            if (r.statusCode() != expect) throw new IllegalStateException(req.uri() + " answered " + r.statusCode());
+            return r.body();
+        }
+    }
+
+    @Benchmark
+    public byte[] health(Client c) throws Exception {
+        return c.send(c.health, 200);
+    }
+
+    @Benchmark
+    public byte[] status(Client c) throws Exception {
+        return c.send(c.status, 200);
+    }
+
+    /** Revalidation with a current ETag: auth plus a 304 */
+    @Benchmark
+    public byte[] statusNotModified(Client c) throws Exception {
+        return c.send(c.statusCached, 304);
+    }
+
+    @Benchmark
+    public byte[] metrics(Client c) throws Exception {
+        return c.send(c.metrics, 200);
+    }
+
+    @Benchmark
+    public byte[] metricsFiltered(Client c) throws Exception {
+        return c.send(c.metricsFiltered, 200);
+    }
+
+    @Benchmark
+    public byte[] anomalies(Client c) throws Exception {
+        return c.send(c.anomalies, 200);
+    }
+
+    @Benchmark
+    public byte[] anomaliesFiltered(Client c) throws Exception {
+        return c.send(c.anomaliesFiltered, 200);
+    }
+
+    @Benchmark
+    public byte[] prediction(Client c) throws Exception {
+        return c.send(c.prediction, 200);
+    }
+
+    @Benchmark
+    public byte[] stats(Client c) throws Exception {
+        return c.send(c.stats, 200);
+    }
+}
@@ -0,0 +1,43 @@
+package com.cfa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Key issue and key hashing, which every enrollment and every uncached auth check pays */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityBenchmarks {
+
+    private SecurityEngine security;
+    private String[] deviceIds;
+    private String[] keys;
+    private long timestamp;
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        security = new SecurityEngine("jmh-secret");
+        timestamp = System.currentTimeMillis();
+        deviceIds = new String[64];
+        keys = new String[64];
+        for (int k = 0; k < deviceIds.length; k++) {
+            deviceIds[k] = String.format("%016x", 0x3f9a0c1d5e7b0000L + k);
+            keys[k] = security.generateApiKey(deviceIds[k], timestamp);
+        }
+    }
+
+    @Benchmark
+    public String generateApiKey() {
+        return security.generateApiKey(deviceIds[i++ & 63], timestamp);
+    }
+
+    @Benchmark
+    public String hashKey() {
+        return security.hashKey(keys[i++ & 63]);
+    }
+}
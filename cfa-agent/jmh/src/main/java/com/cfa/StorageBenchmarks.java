@@ -0,0 +1,105 @@
+package com.cfa;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * File-backed paths: metric rows in LocalDataStore and the key lookup in
+ * DatabaseManager. Each trial works in its own temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({ "1000", "10000" })
+        public int maxRows;
+
+        BenchData data;
+        LocalDataStore store;
+        Path dir;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = BenchData.tempDir("store");
+            store = new LocalDataStore(dir.toString(), maxRows);
+            data = new BenchData(System.currentTimeMillis() - maxRows * BenchData.CYCLE_MS);
+            for (int k = 0; k < maxRows; k++) store.append(data.rows[k & BenchData.MASK]);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchData.delete(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Window {
+        @Param({ "60", "1000" })
+        public int rows;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Keys {
+        @Param({ "1000", "10000" })
+        public int keys;
+
+        DatabaseManager db;
+        SecurityEngine security;
+        String known, unknown;
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = BenchData.tempDir("keys");
+            db = new DatabaseManager(dir);
+            security = new SecurityEngine("jmh-secret");
+            long now = System.currentTimeMillis();
+            List<DatabaseManager.Enrollment> batch = new ArrayList<>(keys);
+            for (int k = 0; k < keys; k++) {
+                String id = String.format("%016x", k);
+                String hashed = security.hashKey(security.generateApiKey(id, now));
+                batch.add(new DatabaseManager.Enrollment(id, "fp-" + id, "dcs-" + id, "jmh", hashed, now + 86_400_000L));
+                if (k == keys / 2) known = hashed;
+            }
+            db.saveEnrollments(batch);
+            unknown = security.hashKey("not-an-issued-key");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchData.delete(dir);
+        }
+    }
+
+    /** Trims in bulk once the file passes maxRows by a quarter, so the trim cost is amortized in */
+    @Benchmark
+    public void append(Store s) {
+        s.store.append(s.data.rows[s.i++ & BenchData.MASK]);
+    }
+
+    @Benchmark
+    public List<String> readLast(Store s, Window w) {
+        return s.store.readLast(w.rows);
+    }
+
+    @Benchmark
+    public boolean isValidKeyKnown(Keys k) {
+        return k.db.isValidKey(k.known);
+    }
+
+    @Benchmark
+    public boolean isValidKeyUnknown(Keys k) {
+        return k.db.isValidKey(k.unknown);
+    }
+}
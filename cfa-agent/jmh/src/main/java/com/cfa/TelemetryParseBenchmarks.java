@@ -0,0 +1,103 @@
+package com.cfa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * TelemetryCollector's parsing of command output, on captured samples of
+ * each tool. Spawning the commands is left out: it costs milliseconds and
+ * depends on the host, while the parsing runs on every poll regardless.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetryParseBenchmarks {
+
+    static final String NETSH =
+        "\nThere is 1 interface on the system:\n\n" +
+        "    Name                   : Wi-Fi\n" +
+        "    Description            : Intel(R) Wi-Fi 6 AX201 160MHz\n" +
+        "    GUID                   : 5c1b7d2e-9a3f-4f0e-8d1c-2b6a7e9f0c3d\n" +
+        "    Physical address       : 3c:a9:f4:12:34:56\n" +
+        "    State                  : connected\n" +
+        "    SSID                   : Office-5G\n" +
+        "    BSSID                  : 9c:1c:12:ab:cd:ef\n" +
+        "    Network type           : Infrastructure\n" +
+        "    Radio type             : 802.11ax\n" +
+        "    Authentication         : WPA2-Personal\n" +
+        "    Cipher                 : CCMP\n" +
+        "    Connection mode        : Auto Connect\n" +
+        "    Channel                : 44\n" +
+        "    Receive rate (Mbps)    : 864.8\n" +
+        "    Transmit rate (Mbps)   : 720.6\n" +
+        "    Signal                 : 82%\n" +
+        "    Profile                : Office-5G\n\n" +
+        "    Hosted network status  : Not available\n";
+
+    static final String IWCONFIG =
+        "wlan0     IEEE 802.11  ESSID:\"Office-5G\"\n" +
+        "          Mode:Managed  Frequency:5.22 GHz  Access Point: 9C:1C:12:AB:CD:EF\n" +
+        "          Bit Rate=866.7 Mb/s   Tx-Power=22 dBm\n" +
+        "          Retry short limit:7   RTS thr:off   Fragment thr:off\n" +
+        "          Power Management:on\n" +
+        "          Link Quality=58/70  Signal level=-52 dBm\n" +
+        "          Rx invalid nwid:0  Rx invalid crypt:0  Rx invalid frag:0\n" +
+        "          Tx excessive retries:0  Invalid misc:41   Missed beacon:0\n";
+
+    static final String PING_WINDOWS =
+        "\nPinging 8.8.8.8 with 32 bytes of data:\n" +
+        "Reply from 8.8.8.8: bytes=32 time=14ms TTL=117\n" +
+        "Reply from 8.8.8.8: bytes=32 time=15ms TTL=117\n" +
+        "Reply from 8.8.8.8: bytes=32 time=13ms TTL=117\n\n" +
+        "Ping statistics for 8.8.8.8:\n" +
+        "    Packets: Sent = 3, Received = 3, Lost = 0 (0% loss),\n" +
+        "Approximate round trip times in milli-seconds:\n" +
+        "    Minimum = 13ms, Maximum = 15ms, Average = 14ms\n";
+
+    static final String PING_LINUX =
+        "PING 8.8.8.8 (8.8.8.8) 56(84) bytes of data.\n" +
+        "64 bytes from 8.8.8.8: icmp_seq=1 ttl=117 time=14.2 ms\n" +
+        "64 bytes from 8.8.8.8: icmp_seq=2 ttl=117 time=13.9 ms\n" +
+        "64 bytes from 8.8.8.8: icmp_seq=3 ttl=117 time=15.1 ms\n\n" +
+        "--- 8.8.8.8 ping statistics ---\n" +
+        "3 packets transmitted, 3 received, 0% packet loss, time 2003ms\n" +
+        "rtt min/avg/max/mdev = 13.912/14.403/15.108/0.512 ms\n";
+
+    static final String CIM_LOAD = "\r\n17\r\n\r\n";
+
+    private final TelemetryCollector.TelemetrySnapshot snap = new TelemetryCollector.TelemetrySnapshot();
+
+    @Benchmark
+    public TelemetryCollector.TelemetrySnapshot netsh() {
+        TelemetryCollector.parseNetsh(NETSH, snap);
+        return snap;
+    }
+
+    @Benchmark
+    public TelemetryCollector.TelemetrySnapshot iwconfig() {
+        TelemetryCollector.parseIwconfig(IWCONFIG, snap);
+        return snap;
+    }
+
+    @Benchmark
+    public TelemetryCollector.TelemetrySnapshot pingWindows() {
+        TelemetryCollector.parsePing(PING_WINDOWS, true, snap);
+        return snap;
+    }
+
+    @Benchmark
+    public TelemetryCollector.TelemetrySnapshot pingLinux() {
+        TelemetryCollector.parsePing(PING_LINUX, false, snap);
+        return snap;
+    }
+
+    /** The PowerShell Get-CimInstance outputs (CPU load, memory) */
+    @Benchmark
+    public double cimNumber() {
+        return TelemetryCollector.parseFirstNumber(CIM_LOAD);
+    }
+}
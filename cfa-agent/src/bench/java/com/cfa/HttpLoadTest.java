@@ -0,0 +1,110 @@
+package com.cfa;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Load test for the HTTP runtime: fixed pool of 4 vs virtual threads.
+ *
+ * Each run starts a server on an ephemeral port with a deliberately slow
+ * endpoint (standing in for /api/raw-telemetry spawning PowerShell). A few
+ * clients keep that endpoint busy while the rest hammer /api/health; the
+ * report shows /api/health throughput and latency percentiles per mode.
+ *
+ * Usage: java -cp out;bench-out com.cfa.HttpLoadTest [fastClients] [slowClients] [seconds] [slowMs]
+ */
+public class HttpLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int fast    = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int slow    = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        long slowMs = args.length > 3 ? Long.parseLong(args[3]) : 2000;
+
+        System.out.printf("[LoadTest] %d fast clients on /api/health, %d slow clients (%d ms), %d s per run%n",
+            fast, slow, slowMs, seconds);
+        System.out.println("mode      requests   req/s      p50 ms   p99 ms   max ms   503s   errors");
+        for (String mode : new String[] { "fixed", "virtual" }) {
+            if (mode.equals("virtual") && !HttpApiServer.virtualThreadsAvailable()) {
+                // The server would fall back to the fixed pool; that is not a virtual-thread figure
+                System.out.println("virtual   skipped: this JVM has no virtual threads (Java 21+)");
+                continue;
+            }
+            HttpApiServer.Config cfg = new HttpApiServer.Config();
+            cfg.executor = mode;
+            cfg.threads = 4;
+            cfg.maxConcurrent = fast + slow + 16;
+            run(mode, cfg, fast, slow, seconds, slowMs);
+        }
+    }
+
+    private static void run(String mode, HttpApiServer.Config cfg, int fast, int slow,
+                            int seconds, long slowMs) throws Exception {
+        HttpApiServer server = new HttpApiServer(0, cfg);
+        server.start();
+        server.addContext("/bench/slow", ex -> {
+            try { Thread.sleep(slowMs); } catch (InterruptedException ignored) {}
+            byte[] b = "{}".getBytes();
+            ex.sendResponseHeaders(200, b.length);
+            ex.getResponseBody().write(b);
+            ex.close();
+        });
+        int port = server.boundPort();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<long[]> samples = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong busy = new AtomicLong(), errors = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < slow; i++) {
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline) request(port, "/bench/slow", busy, errors);
+            }, "slow-" + i));
+        }
+        for (int i = 0; i < fast; i++) {
+            threads.add(new Thread(() -> {
+                long[] lat = new long[1 << 16];
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    long t0 = System.nanoTime();
+                    if (request(port, "/api/health", busy, errors) && n < lat.length) lat[n++] = System.nanoTime() - t0;
+                }
+                samples.add(Arrays.copyOf(lat, n));
+            }, "fast-" + i));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        server.stop();
+
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf(Locale.ROOT, "%-8s  %8d  %8.0f  %8.1f %8.1f %8.1f  %5d  %7d%n",
+            mode, all.length, all.length / (double) seconds,
+            pct(all, 0.50), pct(all, 0.99), all.length > 0 ? all[all.length - 1] / 1e6 : 0.0,
+            busy.get(), errors.get());
+    }
+
+    private static boolean request(int port, String path, AtomicLong busy, AtomicLong errors) {
+        HttpURLConnection c = null;
+        try {
+            c = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+            c.setConnectTimeout(5000);
+            c.setReadTimeout(30000);
+            int code = c.getResponseCode();
+            InputStream in = code < 400 ? c.getInputStream() : c.getErrorStream();
+            if (in != null) { in.readAllBytes(); in.close(); }
+            if (code == 503) { busy.incrementAndGet(); return false; }
+            return code == 200;
+        } catch (IOException e) {
+            errors.incrementAndGet();
+            return false;
+        }
+    }
+
+    private static double pct(long[] sorted, double q) {
+        if (sorted.length == 0) return 0.0;
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))] / 1e6;
+    }
+}
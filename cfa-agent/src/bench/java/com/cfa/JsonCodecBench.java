@@ -0,0 +1,147 @@
+package com.cfa;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * JsonWriter / JsonReader against the String.format and per-key regex code
+ * they replaced. Each case reports ns/op and bytes allocated per op.
+ *
+ * Usage: java -cp out;bench-out com.cfa.JsonCodecBench [iterations]
+ */
+public class JsonCodecBench {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iters = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        TelemetryCollector.TelemetrySnapshot snap = new TelemetryCollector.TelemetrySnapshot();
+        snap.timestamp = System.currentTimeMillis();
+        snap.wifiRssi = -61.5; snap.latencyMs = 23.4; snap.packetLossRatio = 0.012;
+        snap.cpuPercent = 17.8; snap.memPercent = 54.2; snap.btDeviceCount = 3;
+        CSICalculator.CSIResult csi = new CSICalculator().compute(snap);
+
+        String enroll = "{\"deviceId\":\"3f9a0c1d5e7b2a4c\",\"dcs\":\"9b1f2e3d4c5b6a79887766554433221100ffeeddccbbaa99\"," +
+            "\"fingerprint\":\"a1b2c3d4e5f60718293a4b5c6d7e8f90\",\"entropy\":4.123456," +
+            "\"timestamp\":\"1760000000000\",\"meta\":\"win11-x64\"}";
+        byte[] enrollBytes = enroll.getBytes(StandardCharsets.UTF_8);
+
+        System.out.println("case                            ns/op   bytes/op");
+        run("snapshot row   String.format", iters, () -> sink = legacySnapshot(snap, csi));
+        run("snapshot row   JsonWriter",    iters, () -> sink = writerSnapshot(snap, csi).toBytes());
+        run("status body    String.format", iters, () -> sink = legacyStatus(csi, snap).getBytes(StandardCharsets.UTF_8));
+        run("status body    JsonWriter",    iters, () -> sink = writerStatus(csi, snap).toBytes());
+        run("enroll parse   regex",         iters, () -> sink = legacyParse(new String(enrollBytes, StandardCharsets.UTF_8)));
+        run("enroll parse   JsonReader",    iters, () -> sink = readerParse(enrollBytes));
+    }
+
+    private static void run(String name, int iters, Runnable op) {
+        for (int i = 0; i < iters; i++) op.run();     // warm-up
+        long tid = Thread.currentThread().getId();
+        long a0 = THREADS.getThreadAllocatedBytes(tid);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iters; i++) op.run();
+        long ns = System.nanoTime() - t0;
+        long bytes = THREADS.getThreadAllocatedBytes(tid) - a0;
+        System.out.printf(Locale.ROOT, "%-30s %7.0f %10.0f%n", name, (double) ns / iters, (double) bytes / iters);
+    }
+
+    // ── Previous implementations, kept here as the baseline ──────────────────
+
+    private static String legacySnapshot(TelemetryCollector.TelemetrySnapshot snap, CSICalculator.CSIResult csi) {
+        return String.format(
+            "{\"ts\":%d,\"gcs\":%.1f,\"wifiCSI\":%.1f,\"btCSI\":%.1f,\"netCSI\":%.1f,\"sysCSI\":%.1f," +
+            "\"rssi\":%.1f,\"latency\":%.1f,\"packetLoss\":%.3f,\"cpu\":%.1f,\"mem\":%.1f,\"btCount\":%d}",
+            snap.timestamp, csi.gcs, csi.wifiCSI, csi.btCSI, csi.netCSI, csi.sysCSI,
+            snap.wifiRssi, snap.latencyMs, snap.packetLossRatio,
+            snap.cpuPercent, snap.memPercent, snap.btDeviceCount);
+    }
+
+    private static String legacyStatus(CSICalculator.CSIResult r, TelemetryCollector.TelemetrySnapshot t) {
+        return String.format(
+            "{\"gcs\":%.1f,\"wifiCSI\":%.1f,\"btCSI\":%.1f,\"netCSI\":%.1f,\"sysCSI\":%.1f," +
+            "\"wifiRssi\":%.1f,\"btDeviceCount\":%d,\"latencyMs\":%.1f,\"cpuPercent\":%.1f,\"memPercent\":%.1f," +
+            "\"bayesian\":%.3f,\"weights\":{\"wifi\":%.3f,\"bt\":%.3f,\"net\":%.3f,\"sys\":%.3f}," +
+            "\"deviceId\":\"%s\",\"timestamp\":%d}",
+            r.gcs, r.wifiCSI, r.btCSI, r.netCSI, r.sysCSI,
+            t.wifiRssi, t.btDeviceCount, t.latencyMs, t.cpuPercent, t.memPercent,
+            0.5, 0.3, 0.15, 0.35, 0.2, "3f9a0c1d5e7b2a4c", r.timestamp);
+    }
+
+    private static Object[] legacyParse(String body) {
+        return new Object[] {
+            legacyString(body, "deviceId"), legacyString(body, "dcs"), legacyString(body, "fingerprint"),
+            legacyDouble(body, "entropy"), Long.parseLong(legacyString(body, "timestamp")), legacyString(body, "meta")
+        };
+    }
+
+    private static double legacyDouble(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\"\\s*:\\s*([0-9.eE+\\-]+)").matcher(json);
+        if (m.find()) return Double.parseDouble(m.group(1));
+        throw new NumberFormatException(key);
+    }
+
+    private static String legacyString(String json, String key) {
+        Matcher m = Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]*)\"").matcher(json);
+        if (m.find()) return m.group(1);
+        m = Pattern.compile("\"" + key + "\"\\s*:\\s*([0-9]+)").matcher(json);
+        if (m.find()) return m.group(1);
+        throw new RuntimeException(key);
+    }
+
+    // ── Current code paths ───────────────────────────────────────────────────
+
+    private static JsonWriter writerSnapshot(TelemetryCollector.TelemetrySnapshot snap, CSICalculator.CSIResult csi) {
+        return JsonWriter.local().beginObject()
+            .name("ts").value(snap.timestamp)
+            .name("gcs").value(csi.gcs, 1).name("wifiCSI").value(csi.wifiCSI, 1).name("btCSI").value(csi.btCSI, 1)
+            .name("netCSI").value(csi.netCSI, 1).name("sysCSI").value(csi.sysCSI, 1)
+            .name("rssi").value(snap.wifiRssi, 1).name("latency").value(snap.latencyMs, 1)
+            .name("packetLoss").value(snap.packetLossRatio, 3)
+            .name("cpu").value(snap.cpuPercent, 1).name("mem").value(snap.memPercent, 1)
+            .name("btCount").value(snap.btDeviceCount)
+            .endObject();
+    }
+
+    private static JsonWriter writerStatus(CSICalculator.CSIResult r, TelemetryCollector.TelemetrySnapshot t) {
+        return JsonWriter.local().beginObject()
+            .name("gcs").value(r.gcs, 1).name("wifiCSI").value(r.wifiCSI, 1).name("btCSI").value(r.btCSI, 1)
+            .name("netCSI").value(r.netCSI, 1).name("sysCSI").value(r.sysCSI, 1)
+            .name("wifiRssi").value(t.wifiRssi, 1).name("btDeviceCount").value(t.btDeviceCount)
+            .name("latencyMs").value(t.latencyMs, 1).name("cpuPercent").value(t.cpuPercent, 1)
+            .name("memPercent").value(t.memPercent, 1).name("bayesian").value(0.5, 3)
+            .name("weights").beginObject()
+                .name("wifi").value(0.3, 3).name("bt").value(0.15, 3).name("net").value(0.35, 3).name("sys").value(0.2, 3)
+            .endObject()
+            .name("deviceId").value("3f9a0c1d5e7b2a4c").name("timestamp").value(r.timestamp)
+            .endObject();
+    }
+
+    private static Object[] readerParse(byte[] body) {
+        String deviceId = null, dcs = null, fp = null, meta = null;
+        double entropy = Double.NaN;
+        long ts = 0;
+        JsonReader r = new JsonReader(body);
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "deviceId":    deviceId = r.nextString(); break;
+                case "dcs":         dcs      = r.nextString(); break;
+                case "fingerprint": fp       = r.nextString(); break;
+                case "entropy":     entropy  = r.nextDouble(); break;
+                case "timestamp":   ts       = r.nextLong();   break;
+                case "meta":        meta     = r.nextCompact(); break;
+                default:            r.skipValue();
+            }
+        }
+        r.endObject();
+        return new Object[] { deviceId, dcs, fp, entropy, ts, meta };
+    }
+}
@@ -0,0 +1,588 @@
+package com.cfa;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Soak and load test against the real agent.
+ *
+ * Starts AgentMain as a child JVM in a scratch directory, fed by a replayed
+ * telemetry file (synthetic unless replay= names a recorded metrics.jsonl)
+ * with the compute cycle shortened by cycle.ms, so hours of cycles pass in
+ * minutes. Keys for the clients are written to the agent's store before it
+ * starts. Each client is a dashboard on its own keep-alive connection,
+ * polling the API endpoints in turn (status revalidated by ETag) with a
+ * think time between requests.
+ *
+ * After the warm-up it measures throughput and p50/p99/p999 latency per
+ * endpoint, the agent's heap (sampled from /api/internal/metrics, plus the
+ * post-GC floor and pauses from its -Xlog:gc file) and the growth of every
+ * file under cfa-data. Each SLO is checked at the end; any failure makes the
+ * exit code 1.
+ *
+ * Usage: java -cp out;bench-out com.cfa.SoakTest [key=value ...]
+ *   duration=10m warmup=30s clients=32 think.ms=250 cycle.ms=50 heap=256m
+ *   replay=<metrics.jsonl> dir=<work dir, kept> sample=5s report=30s
+ *   agent.<key>=<value>        added to the agent's cfa.properties
+ *   slo.p50.ms=25 slo.p99.ms=250 slo.p999.ms=1000 slo.error.rate=0.001 slo.min.rps=0
+ *   slo.heap.growth.mb=32 slo.gc.pause.ms=200 slo.file.growth.mb=16
+ * Latency SLOs apply to every endpoint.
+ */
+public class SoakTest {
+
+    private static final String SECRET = "soak-test-secret";
+    private static final String[] ENDPOINTS = {
+        "/api/status", "/api/prediction", "/api/anomalies", "/api/metrics",
+        "/api/metrics?limit=200&min.gcs=40", "/api/stats?signal=latency&horizon=1h"
+    };
+
+    public static void main(String[] args) throws Exception {
+        // key=value; cmd.exe splits arguments at '=', so "key value" pairs are accepted too
+        Map<String, String> opt = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq > 0) {
+                opt.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+            } else if (i + 1 < args.length) {
+                opt.put(args[i], args[++i]);
+            } else {
+                throw new IllegalArgumentException("no value for " + args[i]);
+            }
+        }
+        new SoakTest(opt).run();
+    }
+
+    private final Map<String, String> opt;
+    private final long durationMs, warmupMs, sampleMs, reportMs, cycleMs;
+    private final int clients, thinkMs;
+    private final Path work, dataDir;
+    private final boolean keep;
+
+    private Process agent;
+    private long agentStartNanos;
+    private String base;
+    private final List<String> tokens = new ArrayList<>();
+    private final List<Sample> samples = Collections.synchronizedList(new ArrayList<>());
+    private final LongAdder measured = new LongAdder();
+    private final HttpClient scraper = HttpClient.newHttpClient();
+
+    SoakTest(Map<String, String> opt) throws IOException {
+        this.opt = opt;
+        durationMs = millis(opt.getOrDefault("duration", "10m"));
+        warmupMs   = millis(opt.getOrDefault("warmup", "30s"));
+        sampleMs   = millis(opt.getOrDefault("sample", "5s"));
+        reportMs   = millis(opt.getOrDefault("report", "30s"));
+        cycleMs    = Long.parseLong(opt.getOrDefault("cycle.ms", "50"));
+        clients    = Integer.parseInt(opt.getOrDefault("clients", "32"));
+        thinkMs    = Integer.parseInt(opt.getOrDefault("think.ms", "250"));
+        keep       = opt.containsKey("dir");
+        work       = keep ? Files.createDirectories(Path.of(opt.get("dir"))) : Files.createTempDirectory("cfa-soak");
+        dataDir    = work.resolve("cfa-data");
+    }
+
+    void run() throws Exception {
+        prepare();
+        startAgent();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopAgent));
+        System.out.printf("[Soak] Agent up at %s (%s); %d clients, %d ms think time, %d ms cycle, warm-up %d s, run %d s%n",
+            base, work, clients, thinkMs, cycleMs, warmupMs / 1000, durationMs / 1000);
+
+        Endpoint[] eps = new Endpoint[ENDPOINTS.length];
+        for (int i = 0; i < eps.length; i++) eps[i] = new Endpoint(ENDPOINTS[i]);
+        AtomicBoolean measuring = new AtomicBoolean(false), running = new AtomicBoolean(true);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            String token = tokens.get(c);
+            int first = c % eps.length;
+            threads.add(new Thread(() -> client(token, eps, first, measuring, running), "soak-client-" + c));
+        }
+        Thread sampler = new Thread(() -> sampleLoop(running), "soak-sampler");
+        for (Thread t : threads) t.start();
+        sampler.start();
+
+        Thread.sleep(warmupMs);
+        for (Endpoint e : eps) e.reset();
+        Sample start = sample();
+        samples.clear();
+        long t0 = System.nanoTime();
+        measuring.set(true);
+        long deadline = t0 + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        long nextReport = t0 + TimeUnit.MILLISECONDS.toNanos(reportMs);
+        while (System.nanoTime() < deadline && agent.isAlive()) {
+            Thread.sleep(Math.min(1000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            if (System.nanoTime() >= nextReport) {
+                progress(start, t0);
+                nextReport += TimeUnit.MILLISECONDS.toNanos(reportMs);
+            }
+        }
+        measuring.set(false);
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        Sample end = sample();
+        running.set(false);
+        for (Thread t : threads) t.join(10_000);
+        sampler.join(10_000);
+        boolean crashed = !agent.isAlive();
+        double measureFrom = (TimeUnit.NANOSECONDS.toMillis(t0 - agentStartNanos)) / 1000.0;
+        stopAgent();
+
+        boolean ok = report(eps, start, end, seconds, measureFrom, crashed);
+        if (!keep) delete(work);
+        System.exit(ok ? 0 : 1);
+    }
+
+    // ── Setup ────────────────────────────────────────────────────────────────
+
+    private void prepare() throws IOException {
+        Path feed = opt.containsKey("replay") ? Path.of(opt.get("replay")).toAbsolutePath() : writeFeed(work.resolve("feed.jsonl"));
+
+        // One key per client plus one for the sampler, enrolled before the agent starts
+        DatabaseManager db = new DatabaseManager(dataDir);
+        SecurityEngine security = new SecurityEngine(SECRET);
+        long now = System.currentTimeMillis();
+        List<DatabaseManager.Enrollment> batch = new ArrayList<>();
+        for (int i = 0; i <= clients; i++) {
+            String id = String.format("soak-%06d", i);
+            String token = security.generateApiKey(id, now);
+            batch.add(new DatabaseManager.Enrollment(id, "soak", "soak", "{\"source\":\"soak-test\"}", security.hashKey(token),
+                now + TimeUnit.DAYS.toMillis(30)));
+            tokens.add(token);
+        }
+        db.saveEnrollments(batch);
+
+        Properties p = new Properties();
+        p.setProperty("http.port", String.valueOf(freePort()));
+        p.setProperty("server.secret", SECRET);
+        p.setProperty("remote.url", "");
+        p.setProperty("cycle.ms", String.valueOf(cycleMs));
+        p.setProperty("poll.interval.ms", String.valueOf(cycleMs));
+        p.setProperty("telemetry.replay", feed.toString());
+        p.setProperty("rate.api.per.second", "0");
+        // The compressed cycle would trip the CPU budget and stretch the replay; agent.budget.cpu.percent= to test that
+        p.setProperty("budget.cpu.percent", "0");
+        p.setProperty("http.max.concurrent", String.valueOf(Math.max(64, clients * 2)));
+        for (Map.Entry<String, String> e : opt.entrySet()) {
+            if (e.getKey().startsWith("agent.")) p.setProperty(e.getKey().substring(6), e.getValue());
+        }
+        try (OutputStream out = Files.newOutputStream(work.resolve("cfa.properties"))) {
+            p.store(out, "SoakTest");
+        }
+        base = "http://127.0.0.1:" + p.getProperty("http.port");
+    }
+
+    /** A day of 30 s telemetry: random walks with a daily swing, spikes and short outages */
+    private static Path writeFeed(Path file) throws IOException {
+        Random r = new Random(7);
+        double rssi = -60, latency = 25, cpu = 20, mem = 50;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2880; i++) {
+            double day = Math.sin(2 * Math.PI * i / 2880.0);
+            rssi    = Math.max(-95, Math.min(-35, rssi + r.nextGaussian() * 1.5));
+            latency = Math.max(2, Math.min(400, latency + r.nextGaussian() * 3));
+            cpu     = Math.max(1, Math.min(100, cpu + r.nextGaussian() * 4));
+            mem     = Math.max(10, Math.min(95, mem + r.nextGaussian()));
+            boolean outage = i % 720 >= 700;
+            sb.append(JsonWriter.local().beginObject()
+                .name("rssi").value(outage ? -100 : rssi - 8 * day, 1)
+                .name("latency").value(outage ? 900 : latency * (1 + 0.5 * day) * (r.nextDouble() < 0.01 ? 6 : 1), 1)
+                .name("packetLoss").value(outage ? 0.6 : r.nextDouble() < 0.05 ? r.nextDouble() * 0.2 : 0.0, 3)
+                .name("cpu").value(Math.min(100, cpu + 15 * Math.max(0, day)), 1)
+                .name("mem").value(mem, 1)
+                .name("btCount").value(r.nextInt(4))
+                .endObject().toString()).append('\n');
+        }
+        Files.writeString(file, sb);
+        return file;
+    }
+
+    private void startAgent() throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> cmd = new ArrayList<>(List.of(java,
+            "-Xmx" + opt.getOrDefault("heap", "256m"),
+            // Relative path: an absolute Windows path's drive colon would end the -Xlog option
+            "-Xlog:gc:file=gc.log",
+            "-cp", absoluteClassPath(), "com.cfa.AgentMain"));
+        agent = new ProcessBuilder(cmd).directory(work.toFile())
+            .redirectErrorStream(true).redirectOutput(work.resolve("agent.log").toFile()).start();
+        agentStartNanos = System.nanoTime();
+
+        HttpClient http = HttpClient.newHttpClient();
+        HttpRequest ready = HttpRequest.newBuilder(URI.create(base + "/api/ready")).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            if (!agent.isAlive()) throw new IllegalStateException("agent exited early; see " + work.resolve("agent.log"));
+            try {
+                if (http.send(ready, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    System.out.printf("[Soak] Agent ready %d ms after launch%n",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - agentStartNanos));
+                    return;
+                }
+            } catch (IOException notYet) {
+                // port not open yet
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException("agent not ready (/api/ready) within 60 s");
+    }
+
+    private void stopAgent() {
+        Process p = agent;
+        if (p == null || !p.isAlive()) return;
+        p.destroy();
+        try {
+            if (!p.waitFor(15, TimeUnit.SECONDS)) p.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            p.destroyForcibly();
+        }
+    }
+
+    // ── Clients ──────────────────────────────────────────────────────────────
+
+    private void client(String token, Endpoint[] eps, int first, AtomicBoolean measuring, AtomicBoolean running) {
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Hist[] local = new Hist[eps.length];
+        for (int i = 0; i < local.length; i++) local[i] = new Hist();
+        String etag = null;
+        boolean was = false;
+        int i = first;
+        while (running.get()) {
+            boolean now = measuring.get();
+            if (now != was) {
+                // Warm-up samples are dropped; anything recorded since the switch goes in
+                if (was) flush(eps, local);
+                for (Hist h : local) h.clear();
+                was = now;
+            }
+            Endpoint ep = eps[i];
+            HttpRequest.Builder rb = HttpRequest.newBuilder(URI.create(base + ep.path))
+                .header("Authorization", "Bearer " + token).timeout(java.time.Duration.ofSeconds(30));
+            boolean status = ep.path.equals("/api/status");
+            if (status && etag != null) rb.header("If-None-Match", etag);
+            long t0 = System.nanoTime();
+            try {
+                HttpResponse<byte[]> r = http.send(rb.build(), HttpResponse.BodyHandlers.ofByteArray());
+                long us = (System.nanoTime() - t0) / 1000;
+                if (now) measured.increment();
+                int code = r.statusCode();
+                if (code == 200 || code == 304) {
+                    local[i].add(us);
+                    if (status) etag = r.headers().firstValue("ETag").orElse(null);
+                } else {
+                    local[i].errors++;
+                }
+            } catch (IOException e) {
+                local[i].errors++;
+            } catch (InterruptedException e) {
+                break;
+            }
+            i = (i + 1) % eps.length;
+            if (thinkMs > 0) {
+                try { Thread.sleep(thinkMs); } catch (InterruptedException e) { break; }
+            }
+        }
+        if (was) flush(eps, local);
+    }
+
+    private static void flush(Endpoint[] eps, Hist[] local) {
+        for (int i = 0; i < eps.length; i++) eps[i].merge(local[i]);
+    }
+
+    // ── Agent state ──────────────────────────────────────────────────────────
+
+    private static final class Sample {
+        long heapUsed, heapCommitted, gcCount, threads, dataBytes;
+        double gcSeconds;
+        final Map<String, Long> files = new TreeMap<>();
+    }
+
+    private void sampleLoop(AtomicBoolean running) {
+        while (running.get()) {
+            try {
+                Thread.sleep(sampleMs);
+                samples.add(sample());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // the agent may be going down; the final report notices
+            }
+        }
+    }
+
+    private static final Pattern METRIC = Pattern.compile("^(\\w+)(\\{[^}]*\\})? ([-+0-9.eE]+)$");
+
+    private Sample sample() throws IOException, InterruptedException {
+        Sample s = new Sample();
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/api/internal/metrics"))
+            .header("Authorization", "Bearer " + tokens.get(clients)).build();
+        String text = scraper.send(req, HttpResponse.BodyHandlers.ofString()).body();
+        for (String line : text.split("\n")) {
+            Matcher m = METRIC.matcher(line);
+            if (!m.matches()) continue;
+            String name = m.group(1), labels = m.group(2) == null ? "" : m.group(2);
+            double v = Double.parseDouble(m.group(3));
+            switch (name) {
+                case "jvm_memory_used_bytes":      if (labels.contains("heap\"") && !labels.contains("nonheap")) s.heapUsed = (long) v; break;
+                case "jvm_memory_committed_bytes": if (labels.contains("heap\"") && !labels.contains("nonheap")) s.heapCommitted = (long) v; break;
+                case "jvm_gc_collections_total":   s.gcCount += (long) v; break;
+                case "jvm_gc_collection_seconds_total": s.gcSeconds += v; break;
+                case "jvm_threads_live":           s.threads = (long) v; break;
+                default:
+            }
+        }
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                long size = Files.size(f);
+                s.files.put(dataDir.relativize(f).toString().replace('\\', '/'), size);
+                s.dataBytes += size;
+            }
+        }
+        return s;
+    }
+
+    /** One GC event from the agent's gc.log */
+    private static final class GcEvent {
+        final double uptime, pauseMs;
+        final long afterBytes;
+        GcEvent(double uptime, long afterBytes, double pauseMs) {
+            this.uptime = uptime; this.afterBytes = afterBytes; this.pauseMs = pauseMs;
+        }
+    }
+
+    // [12.345s][info][gc] GC(7) Pause Young (Normal) (G1 Evacuation Pause) 23M->4M(256M) 2.345ms
+    private static final Pattern GC_LINE =
+        Pattern.compile("^\\[(\\d+[.,]\\d+)s\\].*Pause.*?(\\d+)([KMG])->(\\d+)([KMG])\\(\\d+[KMG]\\) (\\d+[.,]\\d+)ms");
+
+    private List<GcEvent> gcEvents() throws IOException {
+        List<GcEvent> out = new ArrayList<>();
+        Path log = work.resolve("gc.log");
+        if (!Files.exists(log)) return out;
+        for (String line : Files.readAllLines(log)) {
+            Matcher m = GC_LINE.matcher(line);
+            if (!m.find()) continue;
+            out.add(new GcEvent(Double.parseDouble(m.group(1).replace(',', '.')),
+                Long.parseLong(m.group(4)) * unit(m.group(5)),
+                Double.parseDouble(m.group(6).replace(',', '.'))));
+        }
+        return out;
+    }
+
+    private static long unit(String u) {
+        return u.equals("G") ? 1L << 30 : u.equals("M") ? 1L << 20 : 1L << 10;
+    }
+
+    // ── Reporting ────────────────────────────────────────────────────────────
+
+    private void progress(Sample start, long t0) {
+        Sample last;
+        synchronized (samples) {
+            last = samples.isEmpty() ? start : samples.get(samples.size() - 1);
+        }
+        double s = (System.nanoTime() - t0) / 1e9;
+        System.out.printf(Locale.ROOT, "[Soak] %6.0f s  %8.1f req/s  heap %6.1f MB  threads %4d  cfa-data %8.1f KB  gc %d (%.2f s)%n",
+            s, measured.sum() / s, mb(last.heapUsed), last.threads, last.dataBytes / 1024.0, last.gcCount, last.gcSeconds);
+    }
+
+    private boolean report(Endpoint[] eps, Sample start, Sample end, double seconds, double measureFrom,
+                           boolean crashed) throws IOException {
+        double p50Slo = dbl("slo.p50.ms", 25), p99Slo = dbl("slo.p99.ms", 250), p999Slo = dbl("slo.p999.ms", 1000);
+        List<String> failures = new ArrayList<>();
+        if (crashed) failures.add("agent process exited during the run; see " + work.resolve("agent.log"));
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "[Soak] %.0f s measured, %d clients%n", seconds, clients);
+        System.out.println("endpoint                                  requests    req/s   p50 ms   p99 ms  p999 ms   max ms  errors");
+        long total = 0, errors = 0;
+        for (Endpoint e : eps) {
+            Hist h = e.hist;
+            total += h.count;
+            errors += h.errors;
+            double p50 = h.quantile(0.50) / 1000.0, p99 = h.quantile(0.99) / 1000.0, p999 = h.quantile(0.999) / 1000.0;
+            System.out.printf(Locale.ROOT, "%-40s %9d %8.1f %8.2f %8.2f %8.2f %8.2f %7d%n",
+                e.path, h.count, h.count / seconds, p50, p99, p999, h.max / 1000.0, h.errors);
+            if (h.count == 0) { failures.add(e.path + ": no successful requests"); continue; }
+            if (p50 > p50Slo)   failures.add(String.format(Locale.ROOT, "%s p50 %.2f ms > %.2f ms", e.path, p50, p50Slo));
+            if (p99 > p99Slo)   failures.add(String.format(Locale.ROOT, "%s p99 %.2f ms > %.2f ms", e.path, p99, p99Slo));
+            if (p999 > p999Slo) failures.add(String.format(Locale.ROOT, "%s p999 %.2f ms > %.2f ms", e.path, p999, p999Slo));
+        }
+        double rps = total / seconds;
+        double errorRate = total + errors == 0 ? 0 : errors / (double) (total + errors);
+        System.out.printf(Locale.ROOT, "%-40s %9d %8.1f   error rate %.4f%n", "all", total, rps, errorRate);
+        if (errorRate > dbl("slo.error.rate", 0.001)) failures.add(String.format(Locale.ROOT, "error rate %.4f > %s", errorRate, opt.getOrDefault("slo.error.rate", "0.001")));
+        if (rps < dbl("slo.min.rps", 0)) failures.add(String.format(Locale.ROOT, "throughput %.1f req/s < %s", rps, opt.get("slo.min.rps")));
+
+        // Heap: the post-GC floor of the first and last quarter of the run; a leak lifts it
+        List<GcEvent> gcs = new ArrayList<>();
+        for (GcEvent g : gcEvents()) if (g.uptime >= measureFrom) gcs.add(g);
+        double q = seconds / 4;
+        long firstFloor = Long.MAX_VALUE, lastFloor = Long.MAX_VALUE;
+        double maxPause = 0, pauseTotal = 0;
+        double[] pauses = new double[gcs.size()];
+        for (int i = 0; i < gcs.size(); i++) {
+            GcEvent g = gcs.get(i);
+            pauses[i] = g.pauseMs;
+            pauseTotal += g.pauseMs;
+            maxPause = Math.max(maxPause, g.pauseMs);
+            if (g.uptime < measureFrom + q) firstFloor = Math.min(firstFloor, g.afterBytes);
+            if (g.uptime >= measureFrom + 3 * q) lastFloor = Math.min(lastFloor, g.afterBytes);
+        }
+        Arrays.sort(pauses);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "heap used    start %.1f MB, end %.1f MB (committed %.1f MB)%n",
+            mb(start.heapUsed), mb(end.heapUsed), mb(end.heapCommitted));
+        double growthMb;
+        if (firstFloor != Long.MAX_VALUE && lastFloor != Long.MAX_VALUE) {
+            growthMb = mb(lastFloor - firstFloor);
+            System.out.printf(Locale.ROOT, "heap floor   first quarter %.1f MB, last quarter %.1f MB, growth %.1f MB%n",
+                mb(firstFloor), mb(lastFloor), growthMb);
+        } else {
+            // Too few collections to see a floor; fall back to the sampled heap
+            long first = Long.MAX_VALUE, last = Long.MAX_VALUE;
+            synchronized (samples) {
+                int n = samples.size();
+                for (int i = 0; i < n; i++) {
+                    if (i < n / 4) first = Math.min(first, samples.get(i).heapUsed);
+                    if (i >= n - n / 4) last = Math.min(last, samples.get(i).heapUsed);
+                }
+            }
+            growthMb = first == Long.MAX_VALUE || last == Long.MAX_VALUE ? mb(end.heapUsed - start.heapUsed) : mb(last - first);
+            System.out.printf(Locale.ROOT, "heap floor   too few collections; sampled minimum growth %.1f MB%n", growthMb);
+        }
+        System.out.printf(Locale.ROOT, "gc pauses    %d, total %.1f ms, p99 %.2f ms, max %.2f ms; threads %d -> %d%n",
+            pauses.length, pauseTotal, pauses.length == 0 ? 0 : pauses[Math.min(pauses.length - 1, (int) (0.99 * pauses.length))],
+            maxPause, start.threads, end.threads);
+        if (growthMb > dbl("slo.heap.growth.mb", 32)) failures.add(String.format(Locale.ROOT, "heap growth %.1f MB > %s MB", growthMb, opt.getOrDefault("slo.heap.growth.mb", "32")));
+        if (maxPause > dbl("slo.gc.pause.ms", 200)) failures.add(String.format(Locale.ROOT, "GC pause %.2f ms > %s ms", maxPause, opt.getOrDefault("slo.gc.pause.ms", "200")));
+
+        System.out.println();
+        System.out.println("file                                          start KB      end KB   growth KB   KB/hour");
+        Set<String> names = new TreeSet<>(start.files.keySet());
+        names.addAll(end.files.keySet());
+        for (String f : names) {
+            long a = start.files.getOrDefault(f, 0L), b = end.files.getOrDefault(f, 0L);
+            System.out.printf(Locale.ROOT, "%-42s %11.1f %11.1f %11.1f %9.1f%n",
+                f, a / 1024.0, b / 1024.0, (b - a) / 1024.0, (b - a) / 1024.0 * 3600 / seconds);
+        }
+        double fileGrowthMb = mb(end.dataBytes - start.dataBytes);
+        if (fileGrowthMb > dbl("slo.file.growth.mb", 16)) failures.add(String.format(Locale.ROOT, "cfa-data growth %.1f MB > %s MB", fileGrowthMb, opt.getOrDefault("slo.file.growth.mb", "16")));
+
+        System.out.println();
+        if (failures.isEmpty()) {
+            System.out.println("[Soak] PASS: all SLOs met");
+            return true;
+        }
+        for (String f : failures) System.out.println("[Soak] FAIL: " + f);
+        return false;
+    }
+
+    // ── Latency histogram ────────────────────────────────────────────────────
+
+    private static final class Endpoint {
+        final String path;
+        Hist hist = new Hist();
+        Endpoint(String path) { this.path = path; }
+        synchronized void merge(Hist h) { hist.merge(h); }
+        synchronized void reset() { hist = new Hist(); }
+    }
+
+    /** Log-linear microsecond histogram: 32 buckets per power of two, so quantiles are within about 3% */
+    static final class Hist {
+        private static final int SUB = 32;
+        final long[] counts = new long[SUB + 59 * SUB];
+        long count, errors, max;
+
+        void add(long us) {
+            us = Math.max(0, us);
+            counts[index(us)]++;
+            count++;
+            max = Math.max(max, us);
+        }
+
+        void merge(Hist o) {
+            for (int i = 0; i < counts.length; i++) counts[i] += o.counts[i];
+            count += o.count;
+            errors += o.errors;
+            max = Math.max(max, o.max);
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            count = errors = max = 0;
+        }
+
+        /** Upper edge of the bucket holding quantile q, in microseconds */
+        long quantile(double q) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(q * count), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(max, upper(i));
+            }
+            return max;
+        }
+
+        private static int index(long v) {
+            if (v < SUB) return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);           // >= 5
+            return SUB + (e - 5) * SUB + (int) ((v >>> (e - 5)) - SUB);
+        }
+
+        private static long upper(int i) {
+            if (i < SUB) return i;
+            int e = (i - SUB) / SUB + 5, m = (i - SUB) % SUB;
+            return ((long) (SUB + m + 1) << (e - 5)) - 1;
+        }
+    }
+
+    // ── Helpers ──────────────────────────────────────────────────────────────
+
+    private double dbl(String key, double def) {
+        String v = opt.get(key);
+        return v == null ? def : Double.parseDouble(v);
+    }
+
+    /** 90, 90s, 15m, 2h or 500ms */
+    static long millis(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        if (s.endsWith("ms")) return Long.parseLong(s.substring(0, s.length() - 2));
+        long mult = s.endsWith("h") ? 3_600_000 : s.endsWith("m") ? 60_000 : 1000;
+        if (Character.isLetter(s.charAt(s.length() - 1))) s = s.substring(0, s.length() - 1);
+        return Math.round(Double.parseDouble(s) * mult);
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    /** The child runs in the work directory, so relative entries (out;bench-out) are resolved here */
+    private static String absoluteClassPath() {
+        StringJoiner cp = new StringJoiner(File.pathSeparator);
+        for (String e : System.getProperty("java.class.path").split(Pattern.quote(File.pathSeparator))) {
+            if (!e.isEmpty()) cp.add(Path.of(e).toAbsolutePath().toString());
+        }
+        return cp.toString();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
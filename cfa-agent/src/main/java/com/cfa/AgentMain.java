@@ -11,103 +11,204 @@ public class AgentMain {
 
     private static final String DATA_DIR = "cfa-data";
     private static final String PROPS_FILE = "cfa.properties";
+    private static final long DEFAULT_CYCLE_MS = 3000;
 
     public static void main(String[] args) throws Exception {
+        // Build step for the class-data sharing archive: start up, touch the API, exit
+        boolean cdsTraining = java.util.Arrays.asList(args).contains("--cds-training");
+
         System.out.println("--------------------------------------------");
         System.out.println("  Cognitive Field Analyzer (CFA) v1.0     ");
-        System.out.println("  Device: " + DeviceIdentity.getDeviceId().substring(0, 16) + "...  ");
         System.out.println("--------------------------------------------");
 
         // ── Load config ──────────────────────────────────────────────────────
         Properties props = loadProperties();
         String remoteUrl = props.getProperty("remote.url", "");
-        String apiToken  = props.getProperty("api.token", DeviceIdentity.generateToken());
-        int httpPort     = Integer.parseInt(props.getProperty("http.port", "8765"));
+        int httpPort     = cdsTraining ? 0 : Integer.parseInt(props.getProperty("http.port", "8765"));
         int pollInterval = Integer.parseInt(props.getProperty("poll.interval.ms", "5000"));
+        long cycleMs     = Long.parseLong(props.getProperty("cycle.ms", String.valueOf(DEFAULT_CYCLE_MS)));
+        String replay    = props.getProperty("telemetry.replay", "").trim();
+        int streamClients = Integer.parseInt(props.getProperty("stream.max.clients", "256"));
+        int storeMaxRows = Integer.parseInt(props.getProperty("store.max.rows",
+            String.valueOf(LocalDataStore.DEFAULT_MAX_ROWS)));
+        int authCacheSize = Integer.parseInt(props.getProperty("auth.cache.size", "1024"));
+        int anomalyRetention = Integer.parseInt(props.getProperty("anomaly.retention",
+            String.valueOf(AnomalyDetector.DEFAULT_RETENTION)));
+        int startupThreads = Integer.parseInt(props.getProperty("startup.threads", "4"));
+        SelfMonitor.Config budget = SelfMonitor.Config.from(props);
+        FleetAggregator.Config fleet = FleetAggregator.Config.from(props);
 
         // ── Initialize subsystems ────────────────────────────────────────────
-        LocalDataStore dataStore         = new LocalDataStore(DATA_DIR);
-        DatabaseManager db               = new DatabaseManager();
-        SecurityEngine security          = new SecurityEngine(props.getProperty("server.secret", ""));
-        TelemetryCollector telemetry     = new TelemetryCollector();
-        CSICalculator csiCalc            = new CSICalculator();
-        AnomalyDetector anomalyDet       = new AnomalyDetector();
-        PredictiveEngine predictor       = new PredictiveEngine();
-        HttpApiServer apiServer          = new HttpApiServer(httpPort);
-        ApiSyncBridge syncBridge         = new ApiSyncBridge(remoteUrl, apiToken);
-
-        // Wire server state references
-        apiServer.databaseManager    = db;
-        apiServer.securityEngine     = security;
-        apiServer.anomalyDetector    = anomalyDet;
-        apiServer.telemetryCollector = telemetry;
-        apiServer.dataStore          = dataStore;
-        apiServer.csiCalculator      = csiCalc;
-        syncBridge.anomalyDetector   = anomalyDet;
-
-        // ── Start subsystems ─────────────────────────────────────────────────
-        telemetry.startPolling(pollInterval);
+        // The port opens first; until every step below has finished the server answers
+        // 503 except on /api/health and /api/ready. Steps run on the startup pool, each
+        // once the steps it names have finished, and wire their piece into the server.
+        Startup startup                  = new Startup(startupThreads);
+        HttpApiServer apiServer          = new HttpApiServer(httpPort, HttpApiServer.Config.from(props));
+        apiServer.cycleMs                = cycleMs;
+        apiServer.startup                = startup;
+        if (fleet.enabled()) {
+            apiServer.fleet = new FleetAggregator(fleet);
+            System.out.println("[AgentMain] Federating " + fleet.peers.size() + " peer agent(s) on /api/fleet");
+        }
         apiServer.start();
 
-        Thread syncThread = new Thread(syncBridge, "sync-bridge");
-        syncThread.setDaemon(true);
-        syncThread.start();
+        Startup.Step<String> identity = startup.add("identity", () -> {
+            String id = DeviceIdentity.getDeviceId();
+            System.out.println("[AgentMain] Device: " + id.substring(0, Math.min(16, id.length())) + "...");
+            DeviceIdentity.verifyInBackground();
+            return id;
+        });
+        Startup.Step<LocalDataStore> store = startup.add("store", () ->
+            apiServer.dataStore = new LocalDataStore(DATA_DIR, storeMaxRows));
+        Startup.Step<DatabaseManager> db = startup.add("database", () ->
+            apiServer.databaseManager = new DatabaseManager());
+        Startup.Step<SecurityEngine> security = startup.add("security", () ->
+            apiServer.securityEngine = new SecurityEngine(props.getProperty("server.secret", "")));
+        Startup.Step<TokenCache> auth = startup.add("auth", () ->
+            apiServer.tokenCache = new TokenCache(db.get(), security.get(), authCacheSize), db, security);
+        Startup.Step<AnomalyDetector> anomalies = startup.add("anomaly", () ->
+            apiServer.anomalyDetector = new AnomalyDetector(anomalyRetention));
+        Startup.Step<StatsEngine> statsStep = startup.add("stats", () ->
+            apiServer.statsEngine = new StatsEngine());
+        startup.add("backfill", () ->
+            apiServer.historyBackfill = new HistoryBackfill(store.get()), store);
+        startup.add("stream", () ->
+            apiServer.streamHub = new EventStreamHub(streamClients, 2));
+        Startup.Step<TelemetryCollector> telemetryStep = startup.add("telemetry", () -> {
+            TelemetryCollector t = new TelemetryCollector();
+            if (cdsTraining) {
+                // no OS commands or replay while recording the archive
+            } else if (replay.isEmpty()) {
+                t.startPolling(pollInterval);
+            } else {
+                t.startReplay(java.nio.file.Path.of(replay), pollInterval);
+            }
+            return apiServer.telemetryCollector = t;
+        });
+        Startup.Step<SelfMonitor> selfMonitor = startup.add("monitor", () -> {
+            SelfMonitor m = new SelfMonitor(budget);
+            m.telemetry = telemetryStep.get();
+            m.tokenCache = auth.get();
+            if (!cdsTraining) m.start();
+            return apiServer.selfMonitor = m;
+        }, telemetryStep, auth);
+        Startup.Step<ApiSyncBridge> sync = startup.add("sync", () -> {
+            String apiToken = props.getProperty("api.token", DeviceIdentity.generateToken());
+            ApiSyncBridge bridge = new ApiSyncBridge(remoteUrl, apiToken,
+                ApiSyncBridge.Config.from(props), java.nio.file.Path.of(DATA_DIR, "sync"));
+            bridge.anomalyDetector = anomalies.get();
+            if (!cdsTraining) {
+                Thread syncThread = new Thread(bridge, "sync-bridge");
+                syncThread.setDaemon(true);
+                syncThread.start();
+            }
+            return bridge;
+        }, identity, anomalies);
+
+        CSICalculator csiCalc            = new CSICalculator();
+        PredictiveEngine predictor       = new PredictiveEngine(cycleMs);
+        apiServer.csiCalculator          = csiCalc;
 
-        // ── Main compute loop (every 3 seconds) ──────────────────────────────
-        System.out.println("[AgentMain] Starting compute loop (3s cycle)...");
+        try {
+            startup.awaitAll();
+        } catch (Exception e) {
+            System.err.println("[AgentMain] Startup failed: " + e);
+            apiServer.stop();
+            System.exit(1);
+        }
+        System.out.println("[AgentMain] Ready in " + startup.readyMs() + " ms");
+        if (cdsTraining) {
+            touchApi(apiServer.boundPort());
+            apiServer.stop();
+            System.exit(0);
+        }
+
+        TelemetryCollector telemetry = telemetryStep.get();
+        LocalDataStore dataStore     = store.get();
+        AnomalyDetector anomalyDet   = anomalies.get();
+        StatsEngine stats            = statsStep.get();
+        ApiSyncBridge syncBridge     = sync.get();
+        SelfMonitor monitor          = selfMonitor.get();
+
+        // ── Main compute loop (every cycleMs) ────────────────────────────────
+        System.out.println("[AgentMain] Starting compute loop (" + cycleMs + " ms cycle)...");
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("[AgentMain] Shutting down...");
             telemetry.stop();
+            monitor.stop();
             syncBridge.stop();
             apiServer.stop();
         }));
 
+        long cycle = 0;
         while (true) {
+            long cycleStart = System.nanoTime();
             try {
                 TelemetryCollector.TelemetrySnapshot snap = telemetry.getLatest();
 
                 // Compute CSI
+                long t = System.nanoTime();
                 CSICalculator.CSIResult csi = csiCalc.compute(snap);
-                apiServer.latestCSI  = csi;
-                apiServer.latestTelemetry = snap;
-                syncBridge.latestCSI = csi;
+                Instrumentation.COMPUTE.since(t);
+                stats.record(snap, csi);
 
                 // Anomaly detection
-                anomalyDet.analyze(csi);
-                apiServer.bayesianConfidence = anomalyDet.getBayesianConfidence();
+                t = System.nanoTime();
+                anomalyDet.analyze(csi, snap);
+                Instrumentation.ANALYZE.since(t);
 
                 // Predictive forecast
                 predictor.addSample(csi.gcs);
                 PredictiveEngine.Forecast forecast = predictor.forecast();
-                // Wrap forecast into proxy object for API server
-                apiServer.latestForecast = new PredictiveEngine.Forecast();
-                apiServer.latestForecast.nextCSI = forecast.nextCSI;
-                apiServer.latestForecast.trend = forecast.trend;
-                apiServer.latestForecast.decayLambda = forecast.decayLambda;
-                apiServer.latestForecast.timeToThreshold = forecast.timeToThreshold;
 
                 // Persist snapshot to JSON lines
                 String jsonLine = buildSnapshotJson(snap, csi);
                 dataStore.append(jsonLine);
 
+                // Publish the cycle as one immutable unit
+                CycleState state = new CycleState(++cycle, snap, csi,
+                    anomalyDet.getBayesianConfidence(), forecast, jsonLine);
+                apiServer.publishCycle(state);
+                syncBridge.record(state);
+
                 System.out.printf("[CFA] GCS=%.1f | WiFi=%.1f BT=%.1f Net=%.1f Sys=%.1f | Trend=%s%n",
                     csi.gcs, csi.wifiCSI, csi.btCSI, csi.netCSI, csi.sysCSI, forecast.trend);
 
             } catch (Exception e) {
+                Instrumentation.CYCLE_ERRORS.inc();
                 System.err.println("[AgentMain] Compute cycle error: " + e.getMessage());
             }
-            Thread.sleep(3000);
+            Instrumentation.CYCLE.since(cycleStart);
+            Thread.sleep(cycleMs);
         }
     }
 
-    private static String buildSnapshotJson(TelemetryCollector.TelemetrySnapshot snap,
-                                             CSICalculator.CSIResult csi) {
-        return String.format(
-            "{\"ts\":%d,\"gcs\":%.1f,\"wifiCSI\":%.1f,\"btCSI\":%.1f,\"netCSI\":%.1f,\"sysCSI\":%.1f," +
-            "\"rssi\":%.1f,\"latency\":%.1f,\"packetLoss\":%.3f,\"cpu\":%.1f,\"mem\":%.1f,\"btCount\":%d}",
-            snap.timestamp, csi.gcs, csi.wifiCSI, csi.btCSI, csi.netCSI, csi.sysCSI,
-            snap.wifiRssi, snap.latencyMs, snap.packetLossRatio,
-            snap.cpuPercent, snap.memPercent, snap.btDeviceCount);
+    static String buildSnapshotJson(TelemetryCollector.TelemetrySnapshot snap,
+                                     CSICalculator.CSIResult csi) {
+        return JsonWriter.local().beginObject()
+            .name("ts").value(snap.timestamp)
+            .name("gcs").value(csi.gcs, 1).name("wifiCSI").value(csi.wifiCSI, 1).name("btCSI").value(csi.btCSI, 1)
+            .name("netCSI").value(csi.netCSI, 1).name("sysCSI").value(csi.sysCSI, 1)
+            .name("rssi").value(snap.wifiRssi, 1).name("latency").value(snap.latencyMs, 1)
+            .name("packetLoss").value(snap.packetLossRatio, 3)
+            .name("cpu").value(snap.cpuPercent, 1).name("mem").value(snap.memPercent, 1)
+            .name("btCount").value(snap.btDeviceCount)
+            .endObject().toString();
+    }
+
+    /** Exercise the request path so its classes land in the archive */
+    private static void touchApi(int port) {
+        for (String path : new String[] { "/api/health", "/api/ready", "/api/status", "/api/metrics", "/api/anomalies" }) {
+            try {
+                java.net.HttpURLConnection c = (java.net.HttpURLConnection)
+                    new java.net.URL("http://127.0.0.1:" + port + path).openConnection();
+                c.setRequestProperty("Authorization", "Bearer cds-training");
+                InputStream in = c.getResponseCode() < 400 ? c.getInputStream() : c.getErrorStream();
+                if (in != null) { in.readAllBytes(); in.close(); }
+            } catch (IOException e) {
+                System.err.println("[AgentMain] " + path + ": " + e.getMessage());
+            }
+        }
     }
 
     private static Properties loadProperties() {
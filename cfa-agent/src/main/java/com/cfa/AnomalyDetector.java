@@ -7,19 +7,26 @@ import java.util.*;
  *  1. Rolling Z-score (|z| > 2.5 triggers alert)
  *  2. Discrete Cosine Transform approximation for oscillation detection
  *  3. Bayesian confidence (Beta distribution) for stability scoring
+ *  4. Per-signal streaming detectors (EWMA, CUSUM, median/MAD) via {@link DetectorBank}
  */
 public class AnomalyDetector {
 
     private static final int Z_WINDOW = 30;
     private static final double Z_THRESHOLD = 2.5;
+    private static final long SPIKE_SUPPRESS_MS = 60_000;
 
     private final Deque<Double> gcsHistory = new ArrayDeque<>();
-    private final List<AnomalyEvent> events = Collections.synchronizedList(new ArrayList<>());
-    private static final int MAX_EVENTS = 200;
+    // Written only by the compute loop; API threads read it without locking
+    private final EventRing<AnomalyEvent> events;
+    static final int DEFAULT_RETENTION = 4096;
+    private final DetectorBank detectors = new DetectorBank();
+    private final java.util.function.Consumer<AnomalyEvent> eventSink = this::addEvent;
+    private final Map<String, Long> spikeLastEmit = new HashMap<>();
 
     public static class AnomalyEvent {
+        public long seq;          // ring sequence, monotonically increasing
         public long timestamp;
-        public String type;       // "Z_SCORE" | "OSCILLATION" | "SPIKE"
+        public String type;       // "Z_SCORE" | "OSCILLATION" | "SPIKE" | "EWMA" | "CUSUM" | "MAD"
         public String component;
         public double zScore;
         public double value;
@@ -34,13 +41,26 @@ public class AnomalyDetector {
         }
     }
 
+    public AnomalyDetector() { this(DEFAULT_RETENTION); }
+
+    /** @param retention number of events kept for the API (rounded up to a power of two) */
+    public AnomalyDetector(int retention) {
+        this.events = new EventRing<>(retention);
+    }
+
     public void analyze(CSICalculator.CSIResult csi) {
+        analyze(csi, null);
+    }
+
+    /** Full analysis; {@code snap} feeds the raw-signal detectors and may be null */
+    public void analyze(CSICalculator.CSIResult csi, TelemetryCollector.TelemetrySnapshot snap) {
         pushHistory(csi.gcs);
         checkZScore("GCS", csi.gcs);
         checkOscillation();
         checkSpike("WiFi", csi.wifiCSI);
         checkSpike("Network", csi.netCSI);
         checkSpike("System", csi.sysCSI);
+        detectors.update(csi, snap, eventSink);
     }
 
     private void checkZScore(String component, double value) {
@@ -76,7 +96,12 @@ public class AnomalyDetector {
     }
 
     private void checkSpike(String component, double csiValue) {
-        if (csiValue < 20.0) {
+        if (csiValue >= 20.0) { spikeLastEmit.remove(component); return; }
+        // A sustained outage is reported once per suppression window, not every cycle
+        long now = System.currentTimeMillis();
+        Long last = spikeLastEmit.get(component);
+        if (last == null || now - last >= SPIKE_SUPPRESS_MS) {
+            spikeLastEmit.put(component, now);
             addEvent(new AnomalyEvent("SPIKE", component, 0, csiValue, "HIGH",
                 String.format("%s CSI critical: %.1f/100", component, csiValue)));
         }
@@ -93,19 +118,26 @@ public class AnomalyDetector {
     }
 
     public List<AnomalyEvent> getRecentEvents(int n) {
-        synchronized (events) {
-            int from = Math.max(0, events.size() - n);
-            return new ArrayList<>(events.subList(from, events.size()));
-        }
+        return events.last(n);
     }
 
+    /** Events with seq greater than {@code afterSeq}, oldest first */
+    public List<AnomalyEvent> getEventsSince(long afterSeq, int limit) {
+        return events.since(afterSeq, limit);
+    }
+
+    /** Visit events with seq below {@code beforeSeq}, newest first, until the visitor returns false */
+    public void walkEventsBack(long beforeSeq, java.util.function.Predicate<AnomalyEvent> visitor) {
+        events.walkBack(beforeSeq, visitor);
+    }
+
+    public long getLastSequence() { return events.lastSequence(); }
+
     // ── Helpers ──────────────────────────────────────────────────────────────
 
     private void addEvent(AnomalyEvent e) {
-        synchronized (events) {
-            events.add(e);
-            if (events.size() > MAX_EVENTS) events.remove(0);
-        }
+        e.seq = events.nextSequence();
+        events.publish(e);
         System.out.printf("[Anomaly] [%s] %s%n", e.severity, e.message);
     }
 
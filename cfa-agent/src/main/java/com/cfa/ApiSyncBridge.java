@@ -1,81 +1,297 @@
 package com.cfa;
 
 import java.io.*;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 /**
- * Secure heartbeat bridge to remote website (configurable via cfa.properties).
- * Sends GZIP-compressed JSON every 60 seconds.
- * Skips gracefully if remote URL is not configured.
+ * Secure sync bridge to remote website (configurable via cfa.properties).
+ *
+ * Every cycle's CSI and any new anomaly events are queued in a disk-backed
+ * {@link SyncOutbox}; this thread ships them as GZIP-compressed JSON batches,
+ * as soon as a batch fills or at least every flush interval. Uploads go
+ * through one shared HttpClient (HTTP/2 where the remote supports it, pooled
+ * keep-alive connections otherwise) with up to sync.max.inflight batches
+ * outstanding, so a backlog drains at link speed rather than one round trip
+ * at a time. Batches are acknowledged in the outbox in order, each after its
+ * 2xx response. Any failure rewinds to the first unacknowledged batch and
+ * retries with exponential backoff and jitter; a restart resumes from the
+ * last acknowledged record. Skips gracefully if remote URL is not configured.
+ *
+ * Request: POST {remote}/api/cfa/sync
+ *   {"deviceId":..., "offset":<outbox offset of the first record>, "records":[...]}
+ * Records are {"kind":"csi", ...} or {"kind":"anomaly", ...}. A batch may be
+ * delivered more than once after a failure; the receiver can drop repeats by
+ * (deviceId, offset).
+ *
+ * With sync.format=auto the bridge switches to the compact {@link SyncCodec}
+ * frames once a 2xx response lists "delta1" in X-CFA-Sync-Formats, and back to
+ * JSON for good if a frame is refused with 415. A 409 means the remote lost
+ * the delta session; a new one is started and the batch resent.
  */
 public class ApiSyncBridge implements Runnable {
 
+    /** Batching and retry settings, read from cfa.properties */
+    public static class Config {
+        public int batchRecords = 500;               // records per request
+        public int batchBytes = 256 * 1024;          // uncompressed bytes per request
+        public long flushMs = 60_000;                // longest a record waits for a batch to fill
+        public long backoffMinMs = 1_000;            // first retry delay, doubled per failure
+        public long backoffMaxMs = 300_000;
+        public long outboxMaxBytes = 64L << 20;      // oldest records are dropped past this
+        public int maxInFlight = 4;                  // batches uploading at once
+        public long requestTimeoutMs = 30_000;       // per upload, connect to response
+        public String format = "auto";               // "auto" | "json" | "delta"
+
+        public static Config from(Properties p) {
+            Config c = new Config();
+            c.batchRecords   = Integer.parseInt(p.getProperty("sync.batch.max.records", String.valueOf(c.batchRecords)));
+            c.batchBytes     = Integer.parseInt(p.getProperty("sync.batch.max.bytes", String.valueOf(c.batchBytes)));
+            c.flushMs        = Long.parseLong(p.getProperty("sync.flush.ms", String.valueOf(c.flushMs)));
+            c.backoffMinMs   = Long.parseLong(p.getProperty("sync.backoff.min.ms", String.valueOf(c.backoffMinMs)));
+            c.backoffMaxMs   = Long.parseLong(p.getProperty("sync.backoff.max.ms", String.valueOf(c.backoffMaxMs)));
+            c.outboxMaxBytes = Long.parseLong(p.getProperty("sync.outbox.max.bytes", String.valueOf(c.outboxMaxBytes)));
+            c.maxInFlight    = Integer.parseInt(p.getProperty("sync.max.inflight", String.valueOf(c.maxInFlight)));
+            c.requestTimeoutMs = Long.parseLong(p.getProperty("sync.request.timeout.ms", String.valueOf(c.requestTimeoutMs)));
+            c.format         = p.getProperty("sync.format", c.format).trim().toLowerCase();
+            return c;
+        }
+    }
+
     private final String remoteUrl;
     private final String apiToken;
     private final String deviceId;
+    private final Config config;
+    private final SyncOutbox outbox;   // null when sync is disabled
+    private final HttpClient client;
+    private final URI syncUri;
+    private final SyncCodec.Encoder encoder;
     private volatile boolean running = true;
 
+    // Sync thread only: whether batches currently go out as SyncCodec frames, and whether the remote refused them
+    private boolean compact;
+    private boolean compactRefused;
+
+    private static final Instrumentation.Histogram UPLOAD = Instrumentation.histogram(
+        "cfa_sync_upload_seconds", "Time from sending a sync batch to its response", "");
+    private static final Instrumentation.Counter RECORDS_SENT = Instrumentation.counter(
+        "cfa_sync_records_total", "Sync records acknowledged by the remote", "");
+    private static final Instrumentation.Counter BYTES_SENT = Instrumentation.counter(
+        "cfa_sync_bytes_total", "Compressed sync payload bytes acknowledged by the remote", "");
+    private static final Instrumentation.Counter FAILURES = Instrumentation.counter(
+        "cfa_sync_failures_total", "Sync uploads that failed or got a non-2xx response", "");
+
+    /** One uploading batch */
+    private static final class Upload {
+        final SyncOutbox.Batch batch;
+        final int bytes;
+        final boolean compact;
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<HttpResponse<Void>> status;
+        Upload(SyncOutbox.Batch batch, int bytes, boolean compact, CompletableFuture<HttpResponse<Void>> status) {
+            this.batch = batch; this.bytes = bytes; this.compact = compact; this.status = status;
+        }
+    }
+
+    // Newest anomaly already queued; touched only by the cycle thread
+    private long lastAnomalySeq = 0;
+
     // State references
-    volatile CSICalculator.CSIResult latestCSI;
     volatile AnomalyDetector anomalyDetector;
 
-    public ApiSyncBridge(String remoteUrl, String apiToken) {
+    public ApiSyncBridge(String remoteUrl, String apiToken, Config config, Path outboxDir) throws IOException {
         this.remoteUrl = remoteUrl;
         this.apiToken  = apiToken;
         this.deviceId  = DeviceIdentity.getDeviceId();
+        this.config    = config;
+        this.outbox    = enabled() ? new SyncOutbox(outboxDir, config.outboxMaxBytes) : null;
+        this.syncUri   = enabled() ? URI.create(remoteUrl + "/api/cfa/sync") : null;
+        this.client    = enabled() ? HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build() : null;
+        this.encoder   = new SyncCodec.Encoder(deviceId.substring(0, 16));
+        this.compact   = "delta".equals(config.format);
+    }
+
+    private boolean enabled() {
+        return remoteUrl != null && !remoteUrl.isEmpty() && !remoteUrl.equals("YOUR_REMOTE_URL");
+    }
+
+    /** Queue this cycle's CSI and the anomalies raised since the last call; cycle thread only */
+    void record(CycleState state) {
+        if (outbox == null || state.csi == null) return;
+        CSICalculator.CSIResult r = state.csi;
+        List<String> records = new ArrayList<>();
+        records.add(JsonWriter.local().beginObject()
+            .name("kind").value("csi").name("timestamp").value(r.timestamp)
+            .name("gcs").value(r.gcs, 1).name("wifiCSI").value(r.wifiCSI, 1).name("btCSI").value(r.btCSI, 1)
+            .name("netCSI").value(r.netCSI, 1).name("sysCSI").value(r.sysCSI, 1)
+            .endObject().toString());
+        AnomalyDetector ad = anomalyDetector;
+        if (ad != null) {
+            for (AnomalyDetector.AnomalyEvent e : ad.getEventsSince(lastAnomalySeq, 1000)) {
+                records.add(JsonWriter.local().beginObject()
+                    .name("kind").value("anomaly").name("seq").value(e.seq).name("timestamp").value(e.timestamp)
+                    .name("type").value(e.type).name("component").value(e.component)
+                    .name("zScore").value(e.zScore, 2).name("value").value(e.value, 1)
+                    .name("severity").value(e.severity).name("message").value(e.message)
+                    .endObject().toString());
+                lastAnomalySeq = e.seq;
+            }
+        }
+        try {
+            outbox.append(records);
+        } catch (IOException e) {
+            System.err.println("[SyncBridge] Outbox write failed: " + e.getMessage());
+        }
     }
 
     @Override
     public void run() {
-        if (remoteUrl == null || remoteUrl.isEmpty() || remoteUrl.equals("YOUR_REMOTE_URL")) {
+        if (outbox == null) {
             System.out.println("[SyncBridge] Remote URL not configured — sync disabled.");
             return;
         }
-        System.out.println("[SyncBridge] Starting heartbeat sync → " + remoteUrl);
+        System.out.printf("[SyncBridge] Starting batched sync → %s (%d records pending, %d in flight max)%n",
+            remoteUrl, outbox.pendingRecords(), config.maxInFlight);
+        Deque<Upload> window = new ArrayDeque<>();
+        long next = outbox.ackedOffset();   // first byte not yet handed to an upload
+        long lastFlush = 0;
+        long backoff = 0;
         while (running) {
             try {
-                Thread.sleep(60_000);
-                sync();
+                // Retire finished uploads in order; the outbox is only acked up to a contiguous prefix
+                String failure = null;
+                while (!window.isEmpty() && window.peekFirst().status.isDone()) {
+                    Upload u = window.pollFirst();
+                    failure = complete(u);
+                    if (failure != null) break;
+                    backoff = 0;
+                }
+                if (failure != null) {
+                    // Let the rest settle, then resend everything after the last ack
+                    for (Upload u : window) u.status.handle((c, e) -> null).join();
+                    window.clear();
+                    encoder.rewind();
+                    next = outbox.ackedOffset();
+                    backoff = backoff == 0 ? config.backoffMinMs : Math.min(config.backoffMaxMs, backoff * 2);
+                    // Full jitter over the upper half keeps a fleet from retrying in lockstep
+                    long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                    System.err.printf("[SyncBridge] Sync failed (%s); %d records pending, retry in %d ms%n",
+                        failure, outbox.pendingRecords(), delay);
+                    Thread.sleep(delay);
+                    continue;
+                }
+
+                long wait = config.flushMs;
+                if (window.size() < config.maxInFlight) {
+                    SyncOutbox.Batch b = outbox.peek(next, config.batchRecords, config.batchBytes);
+                    if (!b.records.isEmpty()) {
+                        wait = b.full ? 0 : lastFlush + config.flushMs - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            window.addLast(send(b));
+                            next = b.end;
+                            lastFlush = System.currentTimeMillis();
+                            continue;
+                        }
+                    }
+                }
+                // Nothing to send yet: wait for the oldest upload or for more records
+                if (!window.isEmpty()) {
+                    try {
+                        window.peekFirst().status.get(Math.max(1, Math.min(wait, config.requestTimeoutMs)), TimeUnit.MILLISECONDS);
+                    } catch (ExecutionException | TimeoutException e) {
+                        // Examined when the upload is retired
+                    }
+                } else {
+                    outbox.awaitPending(config.batchRecords, Math.max(1, wait));
+                }
             } catch (InterruptedException e) {
                 break;
             } catch (Exception e) {
-                System.err.println("[SyncBridge] Sync error: " + e.getMessage());
+                System.err.println("[SyncBridge] Outbox error: " + e.getMessage());
+                try {
+                    Thread.sleep(config.backoffMinMs);
+                } catch (InterruptedException ie) {
+                    break;
+                }
             }
         }
     }
 
-    private void sync() throws Exception {
-        CSICalculator.CSIResult r = latestCSI;
-        if (r == null) return;
-
-        String payload = buildPayload(r);
-        byte[] compressed = gzip(payload.getBytes(StandardCharsets.UTF_8));
-
-        URL url = new URL(remoteUrl + "/api/cfa/sync");
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setConnectTimeout(10_000);
-        conn.setReadTimeout(10_000);
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setRequestProperty("Content-Encoding", "gzip");
-        conn.setRequestProperty("X-CFA-Device-Id", deviceId.substring(0, 16));
-        conn.setRequestProperty("X-CFA-Token", apiToken);
-
-        try (OutputStream os = conn.getOutputStream()) { os.write(compressed); }
+    private Upload send(SyncOutbox.Batch b) throws IOException {
+        HttpRequest.Builder req = HttpRequest.newBuilder(syncUri)
+            .timeout(Duration.ofMillis(config.requestTimeoutMs))
+            .header("X-CFA-Device-Id", deviceId.substring(0, 16))
+            .header("X-CFA-Token", apiToken);
+        byte[] body;
+        if (compact) {
+            body = encoder.encode(b);
+            req.header("Content-Type", SyncCodec.CONTENT_TYPE);
+        } else {
+            body = gzip(buildPayload(b));
+            req.header("Content-Type", "application/json").header("Content-Encoding", "gzip");
+        }
+        CompletableFuture<HttpResponse<Void>> status = client.sendAsync(
+            req.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(), HttpResponse.BodyHandlers.discarding());
+        return new Upload(b, body.length, compact, status);
+    }
 
-        int code = conn.getResponseCode();
-        System.out.printf("[SyncBridge] Heartbeat sent → HTTP %d%n", code);
+    /** Ack a finished upload; returns null on success or a description of the failure */
+    private String complete(Upload u) throws IOException {
+        HttpResponse<Void> resp;
+        try {
+            resp = u.status.join();
+        } catch (CompletionException e) {
+            FAILURES.inc();
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return cause.getClass().getSimpleName() + (cause.getMessage() != null ? ": " + cause.getMessage() : "");
+        }
+        UPLOAD.since(u.startNanos);
+        int code = resp.statusCode();
+        if (code / 100 != 2) {
+            FAILURES.inc();
+            if (u.compact && code == 415) {
+                compact = false;
+                compactRefused = true;
+                return "HTTP 415, remote does not accept " + SyncCodec.FORMAT + "; falling back to JSON";
+            }
+            if (u.compact && code == 409) {
+                encoder.reset();
+                return "HTTP 409, remote lost the " + SyncCodec.FORMAT + " session; starting a new one";
+            }
+            return "HTTP " + code;
+        }
+        outbox.ack(u.batch.end);
+        if (u.compact) {
+            encoder.acked(u.batch.end);
+        } else if (!compact && !compactRefused && "auto".equals(config.format)
+                && resp.headers().firstValue(SyncCodec.FORMATS_HEADER).orElse("").contains(SyncCodec.FORMAT)) {
+            compact = true;
+            System.out.println("[SyncBridge] Remote accepts " + SyncCodec.FORMAT + "; sending compact frames");
+        }
+        RECORDS_SENT.add(u.batch.records.size());
+        BYTES_SENT.add(u.bytes);
+        long micros = Math.max(1, (System.nanoTime() - u.startNanos) / 1000);
+        System.out.printf("[SyncBridge] Delivered %d records (%d bytes) in %d ms → HTTP %d (%d pending)%n",
+            u.batch.records.size(), u.bytes, micros / 1000, code, outbox.pendingRecords());
+        return null;
     }
 
-    private String buildPayload(CSICalculator.CSIResult r) {
-        return String.format(
-            "{\"deviceId\":\"%s\",\"timestamp\":%d,\"gcs\":%.1f," +
-            "\"wifiCSI\":%.1f,\"btCSI\":%.1f,\"netCSI\":%.1f,\"sysCSI\":%.1f}",
-            deviceId.substring(0, 16), r.timestamp, r.gcs,
-            r.wifiCSI, r.btCSI, r.netCSI, r.sysCSI);
+    byte[] buildPayload(SyncOutbox.Batch b) {
+        JsonWriter w = new JsonWriter(64 + (int) Math.min(Integer.MAX_VALUE - 64, (long) b.records.size() * 200));
+        w.beginObject()
+            .name("deviceId").value(deviceId.substring(0, 16))
+            .name("offset").value(b.start)
+            .name("records").beginArray();
+        for (String r : b.records) w.raw(r);
+        return w.endArray().endObject().toBytes();
     }
 
     private byte[] gzip(byte[] data) throws IOException {
@@ -84,5 +300,10 @@ public class ApiSyncBridge implements Runnable {
         return baos.toByteArray();
     }
 
+    /** Queued records not yet acknowledged by the remote, or 0 when sync is disabled */
+    public long pendingRecords() {
+        return outbox != null ? outbox.pendingRecords() : 0;
+    }
+
     public void stop() { running = false; }
 }
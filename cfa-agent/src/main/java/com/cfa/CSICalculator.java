@@ -20,15 +20,14 @@ public class CSICalculator {
     private final Deque<Double> netWindow    = new ArrayDeque<>();
     private final Deque<Double> sysWindow    = new ArrayDeque<>();
 
-    // Adaptive weights updated by Python AI
-    private volatile double wWifi   = 0.30;
-    private volatile double wBt     = 0.15;
-    private volatile double wNet    = 0.35;
-    private volatile double wSys    = 0.20;
+    // Adaptive weights updated by Python AI: {wifi, bt, net, sys}, replaced whole on update, never modified
+    private volatile double[] weights = { 0.30, 0.15, 0.35, 0.20 };
 
     public static class CSIResult {
         public double wifiCSI, btCSI, netCSI, sysCSI, gcs;
         public long timestamp = System.currentTimeMillis();
+        /** The weights gcs was blended with; shared, do not modify */
+        public double[] weights;
     }
 
     /** Push a new telemetry sample and compute all CSI values */
@@ -52,14 +51,22 @@ public class CSICalculator {
         r.btCSI   = csi(btWindow,    0.0,                   0.0);
         r.netCSI  = csi(netWindow,   snap.packetLossRatio,  snap.latencyMs);
         r.sysCSI  = csi(sysWindow,   0.0,                   0.0);
-        r.gcs     = wWifi * r.wifiCSI + wBt * r.btCSI + wNet * r.netCSI + wSys * r.sysCSI;
 
-        // Scale GCS to 0-100
-        r.gcs = Math.min(100.0, r.gcs * 100.0);
+        // Scale to 0-100
         r.wifiCSI *= 100.0; r.btCSI *= 100.0; r.netCSI *= 100.0; r.sysCSI *= 100.0;
+        r.weights = weights;
+        r.gcs = blend(r.weights, r.wifiCSI, r.btCSI, r.netCSI, r.sysCSI);
         return r;
     }
 
+    /**
+     * GCS = Σ (Wi × CSIi) over component CSIs already scaled to 0-100.
+     * Shared by the live loop and the history backfill so both score identically.
+     */
+    public static double blend(double[] w, double wifiCSI, double btCSI, double netCSI, double sysCSI) {
+        return Math.min(100.0, w[0] * wifiCSI + w[1] * btCSI + w[2] * netCSI + w[3] * sysCSI);
+    }
+
     /**
      * Core CSI formula for a given window:
      *   CSI = (SignalStrength × StabilityFactor × TimeConsistency) / (Noise + Entropy + Variance + ε)
@@ -136,13 +143,10 @@ public class CSICalculator {
     public void updateWeights(double wifi, double bt, double net, double sys) {
         double sum = wifi + bt + net + sys;
         if (sum == 0) return;
-        this.wWifi = wifi / sum;
-        this.wBt   = bt   / sum;
-        this.wNet  = net  / sum;
-        this.wSys  = sys  / sum;
-        System.out.printf("[CSI] Weights updated → WiFi=%.2f BT=%.2f Net=%.2f Sys=%.2f%n",
-            this.wWifi, this.wBt, this.wNet, this.wSys);
+        double[] w = { wifi / sum, bt / sum, net / sum, sys / sum };
+        this.weights = w;
+        System.out.printf("[CSI] Weights updated → WiFi=%.2f BT=%.2f Net=%.2f Sys=%.2f%n", w[0], w[1], w[2], w[3]);
     }
 
-    public double[] getWeights() { return new double[]{ wWifi, wBt, wNet, wSys }; }
+    public double[] getWeights() { return weights.clone(); }
 }
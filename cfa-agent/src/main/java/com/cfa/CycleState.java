@@ -0,0 +1,37 @@
+package com.cfa;
+
+/**
+ * Everything one compute cycle produced, published to readers as a unit.
+ *
+ * The compute loop builds one per cycle and hands the same instance to the
+ * API server and the sync bridge, which swap it in with a single reference
+ * write. A reader that takes the reference once sees telemetry, scores,
+ * weights, Bayesian confidence and forecast from the same cycle, without
+ * locks. Neither the state nor the objects it points to are modified after
+ * publication: snapshots, results and forecasts are allocated fresh by
+ * their producers every cycle.
+ */
+final class CycleState {
+
+    /** Before the first cycle completes */
+    static final CycleState EMPTY = new CycleState(0, null, null, 0.5, null, null);
+
+    final long cycle;                                   // 1 for the first cycle, 0 for EMPTY
+    final TelemetryCollector.TelemetrySnapshot telemetry;
+    final CSICalculator.CSIResult csi;                  // csi.weights: what gcs was blended with
+    final double bayesian;
+    final PredictiveEngine.Forecast forecast;
+    final String metricRow;                             // the row persisted to the data store
+
+    CycleState(long cycle, TelemetryCollector.TelemetrySnapshot telemetry, CSICalculator.CSIResult csi,
+               double bayesian, PredictiveEngine.Forecast forecast, String metricRow) {
+        this.cycle = cycle;
+        this.telemetry = telemetry;
+        this.csi = csi;
+        this.bayesian = bayesian;
+        this.forecast = forecast;
+        this.metricRow = metricRow;
+    }
+
+    boolean isEmpty() { return csi == null || telemetry == null; }
+}
@@ -3,6 +3,7 @@ package com.cfa;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * DatabaseManager — Persistence Layer
@@ -10,11 +11,17 @@ import java.nio.file.*;
  * Designed to mirror SQLite behavior in a dependency-free environment.
  */
 public class DatabaseManager {
-    private final Path dbPath = Paths.get("cfa-data");
-    private final Path deviceFile = dbPath.resolve("devices.jsonl");
-    private final Path keysFile = dbPath.resolve("api_keys.jsonl");
+    private final Path dbPath;
+    private final Path deviceFile;
+    private final Path keysFile;
+    private final CopyOnWriteArrayList<Runnable> keyListeners = new CopyOnWriteArrayList<>();
 
-    public DatabaseManager() {
+    public DatabaseManager() { this(Paths.get("cfa-data")); }
+
+    DatabaseManager(Path dbPath) {
+        this.dbPath = dbPath;
+        this.deviceFile = dbPath.resolve("devices.jsonl");
+        this.keysFile = dbPath.resolve("api_keys.jsonl");
         try {
             if (!Files.exists(dbPath)) Files.createDirectories(dbPath);
             if (!Files.exists(deviceFile)) Files.createFile(deviceFile);
@@ -24,16 +31,63 @@ public class DatabaseManager {
         }
     }
 
+    /** One device's registration plus its issued key, for {@link #saveEnrollments} */
+    public static class Enrollment {
+        public final String deviceId, fingerprint, dcs, meta, hashedKey;
+        public final long expiry;
+
+        public Enrollment(String deviceId, String fingerprint, String dcs, String meta, String hashedKey, long expiry) {
+            this.deviceId = deviceId; this.fingerprint = fingerprint; this.dcs = dcs;
+            this.meta = meta; this.hashedKey = hashedKey; this.expiry = expiry;
+        }
+    }
+
     public synchronized void registerDevice(String deviceId, String fingerprint, String dcs, String meta) {
-        String record = String.format("{\"deviceId\":\"%s\", \"fingerprint\":\"%s\", \"dcs\":\"%s\", \"meta\":%s, \"ts\":%d}\n",
-            deviceId, fingerprint, dcs, meta, System.currentTimeMillis());
-        appendToFile(deviceFile, record);
+        appendToFile(deviceFile, deviceRecord(deviceId, fingerprint, dcs, meta, System.currentTimeMillis()));
     }
 
     public synchronized void saveKey(String deviceId, String hashedKey, long expiry) {
-        String record = String.format("{\"deviceId\":\"%s\", \"key\":\"%s\", \"expiry\":%d}\n",
-            deviceId, hashedKey, expiry);
-        appendToFile(keysFile, record);
+        appendToFile(keysFile, keyRecord(deviceId, hashedKey, expiry));
+        fireKeysChanged();
+    }
+
+    /** Persist many enrollments with a single append to each file */
+    public synchronized void saveEnrollments(java.util.List<Enrollment> batch) {
+        if (batch.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        StringBuilder devices = new StringBuilder(batch.size() * 256);
+        StringBuilder keys = new StringBuilder(batch.size() * 128);
+        for (Enrollment e : batch) {
+            devices.append(deviceRecord(e.deviceId, e.fingerprint, e.dcs, e.meta, now));
+            keys.append(keyRecord(e.deviceId, e.hashedKey, e.expiry));
+        }
+        appendToFile(deviceFile, devices.toString());
+        appendToFile(keysFile, keys.toString());
+        fireKeysChanged();
+    }
+
+    /** One line of devices.jsonl; {@code meta} must already be compact JSON (JsonReader.nextCompact) */
+    private static String deviceRecord(String deviceId, String fingerprint, String dcs, String meta, long ts) {
+        return String.format("{\"deviceId\":%s, \"fingerprint\":%s, \"dcs\":%s, \"meta\":%s, \"ts\":%d}\n",
+            JsonWriter.quote(deviceId), JsonWriter.quote(fingerprint), JsonWriter.quote(dcs), meta, ts);
+    }
+
+    private static String keyRecord(String deviceId, String hashedKey, long expiry) {
+        return String.format("{\"deviceId\":%s, \"key\":%s, \"expiry\":%d}\n",
+            JsonWriter.quote(deviceId), JsonWriter.quote(hashedKey), expiry);
+    }
+
+    /** Revoke a key by appending a zero-expiry record; the newest record for a key wins */
+    public synchronized void revokeKey(String hashedKey) {
+        appendToFile(keysFile, String.format("{\"key\":%s, \"expiry\":0, \"revoked\":true}\n", JsonWriter.quote(hashedKey)));
+        fireKeysChanged();
+    }
+
+    /** Called after any key is issued or revoked, e.g. to drop cached verifications */
+    public void addKeyListener(Runnable listener) { keyListeners.add(listener); }
+
+    private void fireKeysChanged() {
+        for (Runnable r : keyListeners) r.run();
     }
 
     public boolean isDeviceRegistered(String deviceId) {
@@ -41,15 +95,31 @@ public class DatabaseManager {
     }
 
     public boolean isValidKey(String hashedKey) {
-        String match = findInFile(keysFile, "\"key\":\"" + hashedKey + "\"");
-        if (match == null) return false;
-        
-        // Basic check for expiry (parsing manually for simplicity in pure Java)
+        return System.currentTimeMillis() < getKeyExpiry(hashedKey);
+    }
+
+    /** Expiry of the newest record for this key, or 0 if unknown or revoked */
+    public long getKeyExpiry(String hashedKey) {
+        String match = findLastInFile(keysFile, "\"key\":\"" + hashedKey + "\"");
+        if (match == null) return 0;
+
+        // Read the record's own expiry field, not the first "expiry": text on the line
         try {
-            long expiry = Long.parseLong(match.split("\"expiry\":")[1].split("}")[0].trim());
-            return System.currentTimeMillis() < expiry;
-        } catch (Exception e) {
-            return false;
+            JsonReader r = new JsonReader(match);
+            long expiry = 0;
+            String key = null;
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "key":    key    = r.nextString(); break;
+                    case "expiry": expiry = r.nextLong();   break;
+                    default:       r.skipValue();
+                }
+            }
+            r.endObject();
+            return hashedKey.equals(key) ? expiry : 0;
+        } catch (RuntimeException e) {
+            return 0;
         }
     }
 
@@ -71,13 +141,14 @@ public class DatabaseManager {
         return false;
     }
 
-    private String findInFile(Path path, String query) {
+    private String findLastInFile(Path path, String query) {
+        String last = null;
         try (BufferedReader reader = Files.newBufferedReader(path)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (line.contains(query)) return line;
+                if (line.contains(query)) last = line;
             }
         } catch (IOException e) {}
-        return null;
+        return last;
     }
 }
@@ -0,0 +1,178 @@
+package com.cfa;
+
+import java.util.function.Consumer;
+
+/**
+ * Streaming per-signal detectors run on every component CSI and raw signal:
+ *  1. EWMA control band   — |x - μ| beyond L·σ of an exponentially weighted baseline
+ *  2. CUSUM drift         — two-sided cumulative sum of standardized deviations
+ *  3. Robust median/MAD   — stochastic-approximation median and MAD, robust z-score
+ *
+ * Every update is O(1) with no allocation. Each detector keeps its own
+ * thresholds and a suppression window, so a sustained alarm is reported at
+ * most once per window instead of once per cycle.
+ */
+public class DetectorBank {
+
+    private static final long SUPPRESS_MS = 60_000;
+
+    /** One detector watching one signal */
+    static abstract class Detector {
+        final String type;
+        final String component;
+        final double threshold;
+        final double sigmaFloor;
+        final long suppressMs;
+        final int warmup;       // samples before the baseline is trusted
+        long samples;
+        long lastEmit = Long.MIN_VALUE / 2;
+        double lastScore;   // signed score of the latest sample
+
+        Detector(String type, String component, double threshold, double sigmaFloor, long suppressMs, int warmup) {
+            this.type = type; this.component = component;
+            this.threshold = threshold; this.sigmaFloor = sigmaFloor;
+            this.suppressMs = suppressMs; this.warmup = warmup;
+        }
+
+        /** Feed a sample; returns true if the detector is in alarm for it */
+        abstract boolean update(double x);
+
+        /** Dedup: at most one event per suppression window */
+        boolean shouldEmit(boolean alarm, long now) {
+            if (!alarm || now - lastEmit < suppressMs) return false;
+            lastEmit = now;
+            return true;
+        }
+
+        String severity() {
+            double s = Math.abs(lastScore);
+            return s >= 2.0 * threshold ? "HIGH" : s >= 1.5 * threshold ? "MEDIUM" : "LOW";
+        }
+    }
+
+    /** Exponentially weighted mean/variance with an L-sigma band */
+    static class Ewma extends Detector {
+        private final double alpha;
+        private double mean, var;
+
+        Ewma(String component, double alpha, double l, double sigmaFloor) {
+            super("EWMA", component, l, sigmaFloor, SUPPRESS_MS, 10);
+            this.alpha = alpha;
+        }
+
+        @Override
+        boolean update(double x) {
+            if (samples++ == 0) { mean = x; return false; }
+            double diff = x - mean;
+            lastScore = diff / Math.max(Math.sqrt(var), sigmaFloor);
+            mean += alpha * diff;
+            var = (1 - alpha) * (var + alpha * diff * diff);
+            return samples > warmup && Math.abs(lastScore) > threshold;
+        }
+    }
+
+    /** Two-sided CUSUM over deviations from a slow baseline; resets after each alarm */
+    static class Cusum extends Detector {
+        private final double alpha, slack;
+        private double mean, var, hi, lo;
+
+        Cusum(String component, double alpha, double slack, double h, double sigmaFloor) {
+            super("CUSUM", component, h, sigmaFloor, SUPPRESS_MS, (int) Math.ceil(1.0 / alpha));
+            this.alpha = alpha; this.slack = slack;
+        }
+
+        @Override
+        boolean update(double x) {
+            if (samples++ == 0) { mean = x; return false; }
+            double diff = x - mean;
+            double z = diff / Math.max(Math.sqrt(var), sigmaFloor);
+            mean += alpha * diff;
+            var = (1 - alpha) * (var + alpha * diff * diff);
+            if (samples <= warmup) return false;
+            hi = Math.max(0, hi + z - slack);
+            lo = Math.max(0, lo - z - slack);
+            lastScore = hi >= lo ? hi : -lo;
+            if (Math.max(hi, lo) > threshold) {
+                hi = 0; lo = 0;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** Frugal streaming median and MAD; robust z = |x - median| / (1.4826·MAD) */
+    static class Mad extends Detector {
+        private final double step;
+        private double median, mad;
+
+        Mad(String component, double step, double threshold, double sigmaFloor) {
+            super("MAD", component, threshold, sigmaFloor, SUPPRESS_MS, 20);
+            this.step = step;
+        }
+
+        @Override
+        boolean update(double x) {
+            if (samples++ == 0) { median = x; mad = sigmaFloor; return false; }
+            double scale = Math.max(mad, sigmaFloor);
+            lastScore = (x - median) / (1.4826 * scale);
+            double dev = Math.abs(x - median);
+            median += step * scale * Math.signum(x - median);
+            mad    += step * scale * (dev > mad ? 1 : -1);
+            if (mad < 0) mad = 0;
+            return samples > warmup && Math.abs(lastScore) > threshold;
+        }
+    }
+
+    /** The detectors for one named signal */
+    private static class Channel {
+        final Detector[] detectors;
+        Channel(String component, double sigmaFloor) {
+            detectors = new Detector[] {
+                new Ewma(component, 0.10, 4.0, sigmaFloor),
+                new Cusum(component, 0.02, 0.5, 8.0, sigmaFloor),
+                new Mad(component, 0.05, 5.0, sigmaFloor)
+            };
+        }
+    }
+
+    // Channel order matches the value order passed to update()
+    private final Channel[] channels = {
+        new Channel("WiFi",       1.0),
+        new Channel("Bluetooth",  1.0),
+        new Channel("Network",    1.0),
+        new Channel("System",     1.0),
+        new Channel("Latency",    2.0),
+        new Channel("PacketLoss", 0.01),
+        new Channel("CPU",        2.0),
+        new Channel("Memory",     1.0),
+        new Channel("RSSI",       2.0)
+    };
+
+    /** Run every detector for one cycle and hand any new alarms to {@code sink} */
+    public void update(CSICalculator.CSIResult csi, TelemetryCollector.TelemetrySnapshot snap,
+                       Consumer<AnomalyDetector.AnomalyEvent> sink) {
+        long now = csi.timestamp;
+        feed(0, csi.wifiCSI, now, sink);
+        feed(1, csi.btCSI, now, sink);
+        feed(2, csi.netCSI, now, sink);
+        feed(3, csi.sysCSI, now, sink);
+        if (snap == null) return;
+        feed(4, snap.latencyMs, now, sink);
+        feed(5, snap.packetLossRatio, now, sink);
+        feed(6, snap.cpuPercent, now, sink);
+        feed(7, snap.memPercent, now, sink);
+        feed(8, snap.wifiRssi, now, sink);
+    }
+
+    private void feed(int ch, double x, long now, Consumer<AnomalyDetector.AnomalyEvent> sink) {
+        if (Double.isNaN(x)) return;
+        for (Detector d : channels[ch].detectors) {
+            boolean alarm = d.update(x);
+            if (d.shouldEmit(alarm, now)) {
+                sink.accept(new AnomalyDetector.AnomalyEvent(d.type, d.component, d.lastScore, x, d.severity(),
+                    String.format("%s %s %s (score=%.2f, value=%.2f)", d.component, d.type,
+                        d.lastScore >= 0 ? "rise" : "drop", d.lastScore, x)));
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.cfa;
 
+import java.io.IOException;
 import java.net.NetworkInterface;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.security.MessageDigest;
 import java.util.Enumeration;
 import java.util.Properties;
@@ -9,13 +12,77 @@ import java.util.Properties;
 /**
  * Generates a stable SHA-256 device fingerprint from system properties.
  * Used for device binding and API token generation.
+ *
+ * Deriving it resolves the local host name and enumerates interfaces, which
+ * can block for seconds on a misconfigured resolver, so the result is kept in
+ * cfa-data/device.id and read from there on later starts. verifyInBackground
+ * re-derives it off the startup path and updates the file if the host changed.
  */
 public class DeviceIdentity {
 
-    private static String cached = null;
+    private static final Path CACHE_FILE = Paths.get("cfa-data", "device.id");
+
+    private static volatile String cached = null;
+    private static boolean fromCache;
 
     public static String getDeviceId() {
-        if (cached != null) return cached;
+        String id = cached;
+        if (id != null) return id;
+        synchronized (DeviceIdentity.class) {
+            if (cached != null) return cached;
+            id = readCache();
+            fromCache = id != null;
+            if (id == null) {
+                id = derive();
+                writeCache(id);
+            }
+            cached = id;
+            return id;
+        }
+    }
+
+    /**
+     * If the id came from the cache file, derive it again on a daemon thread and
+     * rewrite the file when it differs. The running agent keeps its id; the new
+     * one takes effect on the next start.
+     */
+    public static void verifyInBackground() {
+        getDeviceId();
+        synchronized (DeviceIdentity.class) {
+            if (!fromCache) return;
+        }
+        Thread t = new Thread(() -> {
+            String fresh = derive();
+            if (fresh.startsWith("cfa-device-fallback-") || fresh.equals(cached)) return;
+            System.out.println("[DeviceIdentity] Host fingerprint changed; device.id updated for the next start");
+            writeCache(fresh);
+        }, "device-identity");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static String readCache() {
+        try {
+            if (!Files.exists(CACHE_FILE)) return null;
+            String id = Files.readString(CACHE_FILE, StandardCharsets.UTF_8).trim();
+            return id.isEmpty() ? null : id;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeCache(String id) {
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            Path tmp = CACHE_FILE.resolveSibling("device.id.tmp");
+            Files.writeString(tmp, id + "\n", StandardCharsets.UTF_8);
+            Files.move(tmp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[DeviceIdentity] Could not cache device id: " + e.getMessage());
+        }
+    }
+
+    private static String derive() {
         try {
             Properties props = System.getProperties();
             StringBuilder raw = new StringBuilder();
@@ -40,11 +107,10 @@ public class DeviceIdentity {
             byte[] hash = md.digest(raw.toString().getBytes("UTF-8"));
             StringBuilder hex = new StringBuilder();
             for (byte b : hash) hex.append(String.format("%02x", b));
-            cached = hex.toString();
+            return hex.toString();
         } catch (Exception e) {
-            cached = "cfa-device-fallback-" + System.currentTimeMillis();
+            return "cfa-device-fallback-" + System.currentTimeMillis();
         }
-        return cached;
     }
 
     /** Generate a simple API token from device ID + timestamp rotation */
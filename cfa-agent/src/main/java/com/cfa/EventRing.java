@@ -0,0 +1,91 @@
+package com.cfa;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Single-writer, multi-reader ring buffer with monotonically increasing
+ * sequence numbers (the first item is seq 1).
+ *
+ * The writer stores the slot and then bumps a volatile cursor; readers take
+ * the cursor and walk backwards or forwards from it without locking. An item
+ * overwritten while a reader is walking is detected by its sequence number
+ * and skipped, so readers never block the writer and never see torn data.
+ */
+public class EventRing<T> {
+
+    private static final class Entry<T> {
+        final long seq;
+        final T value;
+        Entry(long seq, T value) { this.seq = seq; this.value = value; }
+    }
+
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final int mask;
+    private volatile long cursor = 0;   // seq of the newest published item
+
+    /** @param capacity rounded up to a power of two */
+    public EventRing(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(cap);
+        this.mask = cap - 1;
+    }
+
+    /** Sequence the next {@link #publish} will assign; writer thread only */
+    public long nextSequence() { return cursor + 1; }
+
+    /** Append an item; must only be called from the single writer thread */
+    public long publish(T value) {
+        long seq = cursor + 1;
+        slots.set((int) (seq & mask), new Entry<>(seq, value));
+        cursor = seq;
+        return seq;
+    }
+
+    public long lastSequence() { return cursor; }
+
+    public int capacity() { return mask + 1; }
+
+    /** Up to {@code limit} items with seq > {@code after}, oldest first */
+    public List<T> since(long after, int limit) {
+        long head = cursor;
+        if (after >= head) return new ArrayList<>();   // also keeps after + 1 from overflowing
+        long from = Math.max(Math.max(after + 1, 1), head - mask);
+        long to = Math.min(head, from + Math.max(0, limit) - 1);
+        return collect(from, to);
+    }
+
+    /** The newest {@code n} items, oldest first */
+    public List<T> last(int n) {
+        long head = cursor;
+        long from = Math.max(1, Math.max(head - n + 1, head - mask));
+        return collect(from, head);
+    }
+
+    /**
+     * Hand items with seq < {@code before} to {@code visitor}, newest first,
+     * until it returns false or the oldest retained item has been visited.
+     * Starts directly at the slot for {@code before}, so the cost depends on
+     * how many items are visited rather than how far back they are.
+     */
+    public void walkBack(long before, Predicate<T> visitor) {
+        long head = cursor;
+        long floor = Math.max(1, head - mask);
+        for (long s = Math.min(head, before - 1); s >= floor; s--) {
+            Entry<T> e = slots.get((int) (s & mask));
+            if (e == null || e.seq != s) continue;
+            if (!visitor.test(e.value)) return;
+        }
+    }
+
+    private List<T> collect(long from, long to) {
+        if (to < from) return Collections.emptyList();
+        List<T> out = new ArrayList<>((int) (to - from + 1));
+        for (long s = from; s <= to; s++) {
+            Entry<T> e = slots.get((int) (s & mask));
+            if (e != null && e.seq == s) out.add(e.value);
+        }
+        return out;
+    }
+}
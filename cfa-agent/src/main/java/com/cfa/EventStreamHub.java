@@ -0,0 +1,211 @@
+package com.cfa;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+/**
+ * Server-Sent Events fan-out for /api/stream.
+ *
+ * A subscriber's exchange is kept open after its handler returns, so no HTTP
+ * thread is parked per client. Each cycle's frame is encoded once and handed
+ * to every subscriber as a single pending slot: if the previous frame has not
+ * been written yet it is replaced (coalesced). A small shared dispatcher pool
+ * drains pending frames; clients that stall a write or fall too far behind are
+ * dropped so they cannot hold up the others. Only dispatcher threads write to
+ * or close a subscriber's exchange.
+ */
+public class EventStreamHub {
+
+    private static final long STALL_MS = 10_000;     // a single write blocked this long → drop
+    private static final int MAX_COALESCED = 20;     // consecutive frames skipped → drop
+
+    private final int maxSubscribers;
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService dispatcher;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private class Subscriber implements Runnable {
+        final HttpExchange ex;
+        final OutputStream out;
+        final AtomicReference<byte[]> pending = new AtomicReference<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile long writeStartedAt;     // 0 while idle
+        volatile int coalesced;
+        volatile boolean closed;
+        private Thread writer;            // dispatcher thread inside write(), guarded by this
+
+        Subscriber(HttpExchange ex) {
+            this.ex = ex;
+            this.out = ex.getResponseBody();
+        }
+
+        void offer(byte[] frame) {
+            if (pending.getAndSet(frame) != null && ++coalesced > MAX_COALESCED) {
+                drop(this, "too slow");
+                return;
+            }
+            if (draining.compareAndSet(false, true)) dispatcher.execute(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (closed) {
+                    finish();
+                    return;
+                }
+                byte[] frame = pending.getAndSet(null);
+                if (frame == null) {
+                    draining.set(false);
+                    // A frame or a drop may have landed between the poll and the flag reset
+                    if ((pending.get() != null || closed) && draining.compareAndSet(false, true)) continue;
+                    return;
+                }
+                if (!write(frame)) drop(this, "disconnected");
+            }
+        }
+
+        private boolean write(byte[] frame) {
+            synchronized (this) { writer = Thread.currentThread(); }
+            try {
+                writeStartedAt = System.currentTimeMillis();
+                out.write(frame);
+                out.flush();
+                coalesced = 0;
+                return true;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                writeStartedAt = 0;
+                // Clear an abort that raced the end of the write, so it cannot hit the next subscriber
+                synchronized (this) {
+                    writer = null;
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Break a write in progress without touching the socket from this thread:
+         * the exchange's channel is interruptible, so the blocked write fails and
+         * the connection is torn down without the final chunk being sent.
+         */
+        synchronized void abortWrite() {
+            if (writer != null) writer.interrupt();
+        }
+
+        /** On a dispatcher thread only: the one place the exchange is closed */
+        private void finish() {
+            if (finished.compareAndSet(false, true)) ex.close();
+        }
+    }
+
+    public EventStreamHub(int maxSubscribers, int dispatchThreads) {
+        this.maxSubscribers = maxSubscribers;
+        this.dispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), r -> {
+            Thread t = new Thread(r, "sse-dispatch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Take over an authenticated exchange as a stream; CORS headers are the
+     * caller's job. The exchange stays open after this returns.
+     */
+    public boolean subscribe(HttpExchange ex, Supplier<byte[]> latestFrame) throws IOException {
+        if (subscribers.size() >= maxSubscribers) return false;
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        ex.getResponseHeaders().set("Cache-Control", "no-cache");
+        ex.getResponseHeaders().set("X-Accel-Buffering", "no");
+        ex.sendResponseHeaders(200, 0);
+        Subscriber s = new Subscriber(ex);
+        subscribers.add(s);
+        byte[] first = "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8);
+        // Read the latest frame only after add() so no cycle falls between the two
+        byte[] initialFrame = latestFrame.get();
+        if (initialFrame != null) {
+            int n = first.length;
+            first = java.util.Arrays.copyOf(first, n + initialFrame.length);
+            System.arraycopy(initialFrame, 0, first, n, initialFrame.length);
+        }
+        // A cycle published since add() is newer than the initial frame; keep it instead
+        if (s.pending.compareAndSet(null, first) && s.draining.compareAndSet(false, true)) {
+            dispatcher.execute(s);
+        }
+        System.out.println("[Stream] Subscriber connected (" + subscribers.size() + " active)");
+        return true;
+    }
+
+    /** Encode one SSE frame; {@code data} must be a single line of JSON */
+    public static byte[] frame(String event, long id, String data) {
+        return frame(event, id, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Encode one SSE frame around already-encoded UTF-8 JSON */
+    public static byte[] frame(String event, long id, byte[] data) {
+        byte[] head = ("event: " + event + "\nid: " + id + "\ndata: ").getBytes(StandardCharsets.UTF_8);
+        byte[] out = java.util.Arrays.copyOf(head, head.length + data.length + 2);
+        System.arraycopy(data, 0, out, head.length, data.length);
+        out[out.length - 2] = '\n';
+        out[out.length - 1] = '\n';
+        return out;
+    }
+
+    /** Hand a frame to every subscriber; never blocks on a client */
+    public void publish(byte[] frame) {
+        long now = System.currentTimeMillis();
+        for (Subscriber s : subscribers) {
+            long started = s.writeStartedAt;
+            if (started != 0 && now - started > STALL_MS) {
+                drop(s, "write stalled");
+                continue;
+            }
+            s.offer(frame);
+        }
+    }
+
+    public int subscriberCount() { return subscribers.size(); }
+
+    public long droppedCount() { return dropped.get(); }
+
+    public void shutdown() {
+        for (Subscriber s : subscribers) drop(s, "shutdown");
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(1, TimeUnit.SECONDS)) dispatcher.shutdownNow();
+        } catch (InterruptedException e) {
+            dispatcher.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop feeding a subscriber. Safe on any thread, including the compute loop
+     * via publish(): it only flags the subscriber and aborts a blocked write, and
+     * leaves closing the exchange to the dispatcher.
+     */
+    private void drop(Subscriber s, String reason) {
+        synchronized (s) {
+            if (s.closed) return;
+            s.closed = true;
+        }
+        if (subscribers.remove(s)) {
+            dropped.incrementAndGet();
+            System.out.println("[Stream] Subscriber dropped: " + reason);
+        }
+        s.abortWrite();
+        if (s.draining.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(s);
+            } catch (RejectedExecutionException e) {
+                // Dispatcher already stopped; the server's own shutdown closes the connection
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.cfa;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Scatter-gather queries over peer agents for /api/fleet/status and
+ * /api/fleet/metrics.
+ *
+ * Each query fans out to every peer at once over one shared HttpClient, with
+ * peerTimeoutMs per request. Every peer's last good answer for each resource
+ * is kept, and a fleet request waits at most waitMs for fresh ones before
+ * answering from what it has; a slow peer's request keeps running and fills
+ * the cache for the next caller, and a peer is asked again no more often than
+ * every cacheMs however many dashboards poll. Each peer is listed with its
+ * state (ok, stale, error or pending) and the age of the data used.
+ *
+ * Fleet GCS percentiles are taken over the devices' current GCS; the metrics
+ * view merges each peer's {@link QuantileSketch} (fetched with
+ * /api/stats?format=sketch), so fleet percentiles carry sketch error rather
+ * than an average of per-device percentiles.
+ */
+public class FleetAggregator {
+
+    public static class Config {
+        public final List<Peer> peers = new ArrayList<>();
+        public boolean includeLocal = true;      // this agent's own device counts as a member
+        public long peerTimeoutMs = 2_000;       // per peer request, connect to response
+        public long waitMs = 750;                // longest a fleet request waits for fresh peer data
+        public long cacheMs = 2_000;             // a peer answer younger than this is reused as is
+
+        /** fleet.peers: comma-separated "url" or "url token" entries; fleet.token is the default token */
+        public static Config from(Properties p) {
+            Config c = new Config();
+            String token = p.getProperty("fleet.token", "").trim();
+            for (String entry : p.getProperty("fleet.peers", "").split(",")) {
+                String[] parts = entry.trim().split("\\s+");
+                if (parts[0].isEmpty()) continue;
+                String url = parts[0].endsWith("/") ? parts[0].substring(0, parts[0].length() - 1) : parts[0];
+                c.peers.add(new Peer(url, parts.length > 1 ? parts[1] : token));
+            }
+            c.includeLocal  = Boolean.parseBoolean(p.getProperty("fleet.include.local", String.valueOf(c.includeLocal)));
+            c.peerTimeoutMs = Long.parseLong(p.getProperty("fleet.peer.timeout.ms", String.valueOf(c.peerTimeoutMs)));
+            c.waitMs        = Long.parseLong(p.getProperty("fleet.wait.ms", String.valueOf(c.waitMs)));
+            c.cacheMs       = Long.parseLong(p.getProperty("fleet.cache.ms", String.valueOf(c.cacheMs)));
+            return c;
+        }
+
+        public boolean enabled() { return !peers.isEmpty(); }
+    }
+
+    public static final class Peer {
+        final String url, token;
+        Peer(String url, String token) { this.url = url; this.token = token; }
+    }
+
+    /** One peer's /api/status, reduced to what the fleet view uses */
+    static final class DeviceStatus {
+        String deviceId;
+        double gcs = Double.NaN, wifiCSI, btCSI, netCSI, sysCSI, latencyMs;
+        long timestamp;
+    }
+
+    /** A peer's sketch of one signal over one horizon */
+    static final class DeviceSketch {
+        String deviceId;
+        QuantileSketch sketch;
+    }
+
+    /** A peer's latest answer for one resource, and the request refreshing it */
+    private static final class Slot<T> {
+        volatile T value;
+        volatile long fetchedAt, latencyMs;      // of the value
+        volatile String error;                   // of the latest attempt, null if it succeeded
+        CompletableFuture<Void> inFlight;        // guarded by this
+    }
+
+    /** What a fleet response knows about one member */
+    private static final class Member<T> {
+        final String peer;
+        final T value;
+        final String state, error;
+        final long ageMs, latencyMs;
+        Member(String peer, T value, String state, String error, long ageMs, long latencyMs) {
+            this.peer = peer; this.value = value; this.state = state; this.error = error;
+            this.ageMs = ageMs; this.latencyMs = latencyMs;
+        }
+    }
+
+    private static final double[] GCS_QUANTILES = { 0.1, 0.5, 0.9 };
+    private static final int WORST = 5;
+    private static final int ANOMALIES_PER_PEER = 20;    // the default /api/anomalies view
+    private static final int ANOMALIES_MERGED = 50;
+
+    private static final Instrumentation.Counter PEER_FAILURES = Instrumentation.counter(
+        "cfa_fleet_peer_failures_total", "Peer requests that failed, timed out or got a non-200 response", "");
+    private static final Instrumentation.Histogram PEER_LATENCY = Instrumentation.histogram(
+        "cfa_fleet_peer_seconds", "Time for one peer request of a fleet query", "");
+
+    private final Config config;
+    private final HttpClient client;
+    private final ConcurrentHashMap<String, Slot<?>> slots = new ConcurrentHashMap<>();
+
+    public FleetAggregator(Config config) {
+        this.config = config;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(config.peerTimeoutMs))
+            .build();
+    }
+
+    // ── Fleet views ──────────────────────────────────────────────────────────
+
+    /**
+     * Body of /api/fleet/status: device counts, GCS percentiles across devices,
+     * the lowest-scoring devices, the newest anomalies fleet-wide and per-peer state.
+     */
+    byte[] status(CycleState local, AnomalyDetector localAnomalies) {
+        long started = System.currentTimeMillis();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        refreshAll("/api/status", FleetAggregator::parseStatus, pending);
+        refreshAll("/api/anomalies", FleetAggregator::parseAnomalies, pending);
+        await(pending);
+        List<Member<DeviceStatus>> devices = members("/api/status");
+        List<Member<List<AnomalyDetector.AnomalyEvent>>> anomalies = members("/api/anomalies");
+        if (config.includeLocal) {
+            devices.add(0, new Member<>("local", localStatus(local), "ok", null, 0, 0));
+            anomalies.add(0, new Member<>("local", localAnomalies != null
+                ? localAnomalies.getRecentEvents(ANOMALIES_PER_PEER) : Collections.emptyList(), "ok", null, 0, 0));
+        }
+
+        List<Member<DeviceStatus>> scored = new ArrayList<>();
+        for (Member<DeviceStatus> m : devices) {
+            if (m.value != null && !Double.isNaN(m.value.gcs)) scored.add(m);
+        }
+        scored.sort(Comparator.comparingDouble(m -> m.value.gcs));
+        int reporting = 0, stale = 0, unreachable = 0;
+        for (Member<DeviceStatus> m : devices) {
+            if (m.value == null) unreachable++;
+            else if ("ok".equals(m.state)) reporting++;
+            else stale++;
+        }
+
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("generatedAt").value(started)
+            .name("devices").beginObject()
+                .name("total").value(devices.size()).name("reporting").value(reporting)
+                .name("stale").value(stale).name("unreachable").value(unreachable)
+            .endObject()
+            .name("gcs").beginObject().name("count").value(scored.size());
+        if (!scored.isEmpty()) {
+            double sum = 0;
+            for (Member<DeviceStatus> m : scored) sum += m.value.gcs;
+            w.name("min").value(scored.get(0).value.gcs, 1).name("mean").value(sum / scored.size(), 1);
+            for (double q : GCS_QUANTILES) {
+                // Nearest rank over the sorted device scores
+                int i = Math.max(0, (int) Math.ceil(q * scored.size()) - 1);
+                w.name(StatsEngine.quantileKey(q)).value(scored.get(i).value.gcs, 1);
+            }
+            w.name("max").value(scored.get(scored.size() - 1).value.gcs, 1);
+        }
+        w.endObject().name("worst").beginArray();
+        for (int i = 0; i < Math.min(WORST, scored.size()); i++) {
+            Member<DeviceStatus> m = scored.get(i);
+            DeviceStatus d = m.value;
+            w.beginObject()
+                .name("peer").value(m.peer).name("deviceId").value(d.deviceId)
+                .name("gcs").value(d.gcs, 1).name("wifiCSI").value(d.wifiCSI, 1).name("btCSI").value(d.btCSI, 1)
+                .name("netCSI").value(d.netCSI, 1).name("sysCSI").value(d.sysCSI, 1)
+                .name("latencyMs").value(d.latencyMs, 1).name("timestamp").value(d.timestamp)
+                .name("state").value(m.state)
+                .endObject();
+        }
+        w.endArray();
+
+        // Newest first across every peer, tagged with where each came from
+        List<Object[]> merged = new ArrayList<>();
+        for (Member<List<AnomalyDetector.AnomalyEvent>> m : anomalies) {
+            if (m.value == null) continue;
+            String device = deviceOf(devices, m.peer);
+            for (AnomalyDetector.AnomalyEvent e : m.value) merged.add(new Object[] { e, m.peer, device });
+        }
+        merged.sort((a, b) -> Long.compare(((AnomalyDetector.AnomalyEvent) b[0]).timestamp,
+                                           ((AnomalyDetector.AnomalyEvent) a[0]).timestamp));
+        w.name("anomalies").beginArray();
+        for (int i = 0; i < Math.min(ANOMALIES_MERGED, merged.size()); i++) {
+            AnomalyDetector.AnomalyEvent e = (AnomalyDetector.AnomalyEvent) merged.get(i)[0];
+            w.beginObject()
+                .name("peer").value((String) merged.get(i)[1]).name("deviceId").value((String) merged.get(i)[2])
+                .name("seq").value(e.seq).name("timestamp").value(e.timestamp)
+                .name("type").value(e.type).name("component").value(e.component)
+                .name("zScore").value(e.zScore, 2).name("value").value(e.value, 1)
+                .name("severity").value(e.severity).name("message").value(e.message)
+                .endObject();
+        }
+        w.endArray();
+        return peers(w, devices).name("tookMs").value(System.currentTimeMillis() - started).endObject().toBytes();
+    }
+
+    /**
+     * Body of /api/fleet/metrics: one signal over one horizon, as the merge of
+     * every member's sketch plus each device's own summary (worst median first).
+     */
+    byte[] metrics(String signal, String horizon, double[] qs, StatsEngine localStats) {
+        long started = System.currentTimeMillis();
+        String path = "/api/stats?format=sketch&signal=" + signal + "&horizon=" + horizon;
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        refreshAll(path, FleetAggregator::parseSketch, pending);
+        await(pending);
+        List<Member<DeviceSketch>> members = members(path);
+        if (config.includeLocal && localStats != null) {
+            DeviceSketch d = new DeviceSketch();
+            d.deviceId = DeviceIdentity.getDeviceId().substring(0, 16);
+            d.sketch = localStats.sketch(signal, horizon);
+            members.add(0, new Member<>("local", d, "ok", null, 0, 0));
+        }
+
+        QuantileSketch fleet = new QuantileSketch(128);
+        List<Member<DeviceSketch>> withData = new ArrayList<>();
+        for (Member<DeviceSketch> m : members) {
+            if (m.value == null || m.value.sketch.count() == 0) continue;
+            fleet.merge(m.value.sketch);
+            withData.add(m);
+        }
+        double[] median = new double[withData.size()];
+        for (int i = 0; i < median.length; i++) median[i] = withData.get(i).value.sketch.quantiles(new double[] { 0.5 })[0];
+        Integer[] order = new Integer[median.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> median[i]));
+
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("generatedAt").value(started)
+            .name("signal").value(signal).name("horizon").value(horizon)
+            .name("fleet");
+        StatsEngine.writeSummary(w, fleet, qs);
+        w.name("devices").beginArray();
+        for (int i : order) {
+            Member<DeviceSketch> m = withData.get(i);
+            w.beginObject().name("peer").value(m.peer).name("deviceId").value(m.value.deviceId).name("state").value(m.state)
+                .name("summary");
+            StatsEngine.writeSummary(w, m.value.sketch, qs);
+            w.endObject();
+        }
+        w.endArray();
+        return peers(w, members).name("tookMs").value(System.currentTimeMillis() - started).endObject().toBytes();
+    }
+
+    private static <T> JsonWriter peers(JsonWriter w, List<Member<T>> members) {
+        w.name("peers").beginArray();
+        for (Member<T> m : members) {
+            w.beginObject().name("peer").value(m.peer).name("state").value(m.state);
+            if (m.value != null) w.name("ageMs").value(m.ageMs).name("latencyMs").value(m.latencyMs);
+            if (m.error != null) w.name("error").value(m.error);
+            w.endObject();
+        }
+        return w.endArray();
+    }
+
+    private static String deviceOf(List<Member<DeviceStatus>> devices, String peer) {
+        for (Member<DeviceStatus> m : devices) {
+            if (m.peer.equals(peer) && m.value != null) return m.value.deviceId;
+        }
+        return null;
+    }
+
+    private static DeviceStatus localStatus(CycleState s) {
+        DeviceStatus d = new DeviceStatus();
+        d.deviceId = DeviceIdentity.getDeviceId().substring(0, 16);
+        if (s != null && !s.isEmpty()) {
+            d.gcs = s.csi.gcs; d.wifiCSI = s.csi.wifiCSI; d.btCSI = s.csi.btCSI;
+            d.netCSI = s.csi.netCSI; d.sysCSI = s.csi.sysCSI;
+            d.latencyMs = s.telemetry.latencyMs; d.timestamp = s.csi.timestamp;
+        }
+        return d;
+    }
+
+    // ── Scatter-gather ───────────────────────────────────────────────────────
+
+    /** Start refreshing {@code path} on every peer whose answer is older than cacheMs; adds the running fetches */
+    private <T> void refreshAll(String path, Function<byte[], T> parse, List<CompletableFuture<Void>> pending) {
+        for (Peer p : config.peers) {
+            CompletableFuture<Void> f = refresh(p, path, this.<T>slot(p, path), parse);
+            if (!f.isDone()) pending.add(f);
+        }
+    }
+
+    /** Wait up to waitMs for the fetches; whatever is still running finishes in the background */
+    private void await(List<CompletableFuture<Void>> pending) {
+        if (pending.isEmpty()) return;
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get(config.waitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // answer from the cache
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // refresh() never completes exceptionally
+        }
+    }
+
+    /** What each peer's slot for {@code path} holds now */
+    private <T> List<Member<T>> members(String path) {
+        long now = System.currentTimeMillis();
+        List<Member<T>> members = new ArrayList<>();
+        for (Peer p : config.peers) {
+            Slot<T> s = slot(p, path);
+            T value;
+            String error, state;
+            long fetchedAt;
+            synchronized (s) { value = s.value; error = s.error; fetchedAt = s.fetchedAt; }
+            // stale: the last attempt failed, or is still running past waitMs
+            if (value == null) state = error != null ? "error" : "pending";
+            else if (error == null && now - fetchedAt <= config.cacheMs + config.waitMs) state = "ok";
+            else state = "stale";
+            members.add(new Member<>(p.url, value, state, error, value != null ? now - fetchedAt : 0, s.latencyMs));
+        }
+        return members;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Slot<T> slot(Peer p, String path) {
+        return (Slot<T>) slots.computeIfAbsent(p.url + path, k -> new Slot<T>());
+    }
+
+    /** Start a fetch unless the slot is fresh or one is already running; completes when it is done */
+    private <T> CompletableFuture<Void> refresh(Peer p, String path, Slot<T> slot, Function<byte[], T> parse) {
+        synchronized (slot) {
+            if (slot.inFlight != null) return slot.inFlight;
+            if (slot.value != null && slot.error == null
+                && System.currentTimeMillis() - slot.fetchedAt < config.cacheMs) {
+                return CompletableFuture.completedFuture(null);
+            }
+            HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(p.url + path))
+                .timeout(Duration.ofMillis(config.peerTimeoutMs)).GET();
+            if (!p.token.isEmpty()) req.header("Authorization", "Bearer " + p.token);
+            long start = System.nanoTime();
+            CompletableFuture<Void> f = client.sendAsync(req.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .handle((resp, failure) -> {
+                    PEER_LATENCY.since(start);
+                    String error = null;
+                    T value = null;
+                    if (failure != null) {
+                        Throwable c = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                        error = c instanceof java.net.http.HttpTimeoutException ? "timed out" : String.valueOf(c.getMessage() != null ? c.getMessage() : c);
+                    } else if (resp.statusCode() != 200) {
+                        error = "HTTP " + resp.statusCode();
+                    } else {
+                        try {
+                            value = parse.apply(resp.body());
+                        } catch (RuntimeException e) {
+                            error = "bad response: " + e.getMessage();
+                        }
+                    }
+                    synchronized (slot) {
+                        if (error == null) {
+                            slot.value = value;
+                            slot.fetchedAt = System.currentTimeMillis();
+                            slot.latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        } else {
+                            PEER_FAILURES.inc();
+                        }
+                        slot.error = error;
+                        slot.inFlight = null;
+                    }
+                    return null;
+                });
+            // A fast failure completes the future before we get here; the callback then already cleared the slot
+            if (!f.isDone()) slot.inFlight = f;
+            return f;
+        }
+    }
+
+    // ── Peer responses ───────────────────────────────────────────────────────
+
+    static DeviceStatus parseStatus(byte[] body) {
+        DeviceStatus d = new DeviceStatus();
+        JsonReader r = new JsonReader(body);
+        boolean scored = false;
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "deviceId":  d.deviceId  = r.nextString(); break;
+                case "gcs":       d.gcs       = r.nextDouble(); break;
+                case "wifiCSI":   d.wifiCSI   = r.nextDouble(); break;
+                case "btCSI":     d.btCSI     = r.nextDouble(); break;
+                case "netCSI":    d.netCSI    = r.nextDouble(); break;
+                case "sysCSI":    d.sysCSI    = r.nextDouble(); break;
+                case "latencyMs": d.latencyMs = r.nextDouble(); break;
+                // Only a status from a completed cycle has a timestamp
+                case "timestamp": d.timestamp = r.nextLong(); scored = true; break;
+                default:          r.skipValue();
+            }
+        }
+        r.endObject();
+        if (!scored) d.gcs = Double.NaN;
+        return d;
+    }
+
+    static List<AnomalyDetector.AnomalyEvent> parseAnomalies(byte[] body) {
+        List<AnomalyDetector.AnomalyEvent> out = new ArrayList<>();
+        JsonReader r = new JsonReader(body);
+        r.beginArray();
+        while (r.hasNext()) {
+            String type = null, component = null, severity = null, message = null;
+            double z = 0, value = 0;
+            long seq = 0, ts = 0;
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "seq":       seq       = r.nextLong();   break;
+                    case "timestamp": ts        = r.nextLong();   break;
+                    case "type":      type      = r.nextString(); break;
+                    case "component": component = r.nextString(); break;
+                    case "zScore":    z         = r.nextDouble(); break;
+                    case "value":     value     = r.nextDouble(); break;
+                    case "severity":  severity  = r.nextString(); break;
+                    case "message":   message   = r.nextString(); break;
+                    default:          r.skipValue();
+                }
+            }
+            r.endObject();
+            AnomalyDetector.AnomalyEvent e = new AnomalyDetector.AnomalyEvent(type, component, z, value, severity, message);
+            e.seq = seq;
+            e.timestamp = ts;
+            out.add(e);
+        }
+        r.endArray();
+        return out;
+    }
+
+    static DeviceSketch parseSketch(byte[] body) {
+        DeviceSketch d = new DeviceSketch();
+        JsonReader r = new JsonReader(body);
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "deviceId": d.deviceId = r.nextString(); break;
+                case "sketch":   d.sketch = QuantileSketch.readJson(r); break;
+                default:         r.skipValue();
+            }
+        }
+        r.endObject();
+        if (d.sketch == null) throw new IllegalArgumentException("no sketch");
+        return d;
+    }
+}
@@ -0,0 +1,144 @@
+package com.cfa;
+
+import java.util.*;
+
+/**
+ * Walk-forward backtest of the forecasting models over stored GCS history.
+ *
+ * Each row is fed to every model in order; the forecast a model makes at
+ * sample i for horizon h is scored against the actual value at i + h.
+ * Reports MAE, RMSE and 95%-interval coverage per model and horizon, plus the
+ * average cost of one update-and-forecast step. Horizons longer than the
+ * stored history are flagged as not scorable, and the Holt-Winters season is
+ * shortened to fit the history so its seasonal path is exercised.
+ */
+public class ForecastBacktest {
+
+    /** The original windowed OLS, refit on every sample as the live loop does */
+    static class OlsWindow implements PredictiveEngine.Model {
+        private final double[] ring;
+        private int size, head;
+        private double a, b;
+        private final double[] window;
+
+        OlsWindow(int window) { ring = new double[window]; this.window = new double[window]; }
+
+        @Override
+        public void update(double y) {
+            ring[head] = y;
+            head = (head + 1) % ring.length;
+            if (size < ring.length) size++;
+            int start = (head - size + ring.length) % ring.length;
+            double[] arr = size == ring.length ? window : new double[size];
+            for (int i = 0; i < size; i++) arr[i] = ring[(start + i) % ring.length];
+            double[] fit = PredictiveEngine.ols(arr);
+            a = fit[0]; b = fit[1];
+        }
+
+        // x = size is the next sample, so h steps ahead is x = size - 1 + h
+        @Override public double predict(int steps) { return a + b * (size - 1 + steps); }
+        @Override public double stdErr(int steps)  { return Double.NaN; }
+        @Override public boolean ready()           { return size >= 3; }
+        @Override public String name()             { return "ols"; }
+    }
+
+    /** Accumulated errors for one model at one horizon */
+    private static class Score {
+        final String label;
+        final int steps;
+        final double[] pending, lo, hi;
+        final long[] target;
+        long n, covered;
+        double absSum, sqSum;
+
+        Score(String label, int steps) {
+            this.label = label; this.steps = steps;
+            pending = new double[steps + 1]; lo = new double[steps + 1]; hi = new double[steps + 1];
+            target = new long[steps + 1];
+            Arrays.fill(target, -1);
+        }
+    }
+
+    public static byte[] run(List<String> rows, long cycleMs) {
+        double[] ys = new double[rows.size()];
+        int samples = 0;
+        for (String row : rows) {
+            double y = LocalDataStore.numberField(row, "gcs");
+            if (!Double.isNaN(y)) ys[samples++] = y;
+        }
+
+        int[] steps = PredictiveEngine.stepsFor(cycleMs);
+        // The live season is an hour of samples, often more than the store keeps. Shrink it so
+        // one season seeds the seasonal indices and the rest of the history scores them.
+        int liveSeason = steps[steps.length - 1];
+        int season = Math.min(liveSeason, samples / 2);
+        PredictiveEngine.Model[] models = {
+            new OlsWindow(20),
+            new RlsForecaster(0.98),
+            new HoltWinters(0.3, 0.05, 0.1, 0.98, season)
+        };
+        Score[][] scores = new Score[models.length][steps.length];
+        long[] nanos = new long[models.length];
+        for (int m = 0; m < models.length; m++) {
+            for (int h = 0; h < steps.length; h++) scores[m][h] = new Score(PredictiveEngine.HORIZON_LABELS[h], steps[h]);
+        }
+
+        for (int i = 0; i < samples; i++) {
+            double y = ys[i];
+            for (int m = 0; m < models.length; m++) {
+                for (Score sc : scores[m]) {
+                    int slot = i % sc.pending.length;
+                    if (sc.target[slot] != i) continue;
+                    double err = y - sc.pending[slot];
+                    sc.n++; sc.absSum += Math.abs(err); sc.sqSum += err * err;
+                    if (y >= sc.lo[slot] && y <= sc.hi[slot]) sc.covered++;
+                }
+
+                long t0 = System.nanoTime();
+                models[m].update(y);
+                boolean ready = models[m].ready();
+                PredictiveEngine.HorizonForecast[] fc = new PredictiveEngine.HorizonForecast[steps.length];
+                if (ready) {
+                    for (int h = 0; h < steps.length; h++) {
+                        fc[h] = PredictiveEngine.horizon(models[m], PredictiveEngine.HORIZON_LABELS[h], steps[h]);
+                    }
+                }
+                nanos[m] += System.nanoTime() - t0;
+
+                if (!ready) continue;
+                for (int h = 0; h < steps.length; h++) {
+                    Score sc = scores[m][h];
+                    int slot = (i + sc.steps) % sc.pending.length;
+                    sc.target[slot] = i + sc.steps;
+                    sc.pending[slot] = fc[h].value;
+                    sc.lo[slot] = fc[h].lower;
+                    sc.hi[slot] = fc[h].upper;
+                }
+            }
+        }
+
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("samples").value(samples).name("cycleMs").value(cycleMs)
+            .name("season").value(season).name("liveSeason").value(liveSeason)
+            .name("models").beginArray();
+        for (int m = 0; m < models.length; m++) {
+            w.beginObject().name("model").value(models[m].name())
+                .name("nsPerUpdate").value(samples > 0 ? (double) nanos[m] / samples : 0.0, 0)
+                .name("horizons").beginArray();
+            for (int h = 0; h < steps.length; h++) {
+                Score sc = scores[m][h];
+                w.beginObject().name("horizon").value(sc.label).name("steps").value(sc.steps).name("n").value(sc.n);
+                // Needs more history than the store holds; n = 0 here says nothing about the model
+                if (sc.steps >= samples) w.name("scorable").value(false);
+                if (sc.n > 0) {
+                    w.name("mae").value(sc.absSum / sc.n, 3).name("rmse").value(Math.sqrt(sc.sqSum / sc.n), 3);
+                    // OLS has no interval, so coverage is meaningless for it
+                    if (!Double.isNaN(models[m].stdErr(1))) w.name("coverage").value((double) sc.covered / sc.n, 3);
+                }
+                w.endObject();
+            }
+            w.endArray().endObject();
+        }
+        return w.endArray().endObject().toBytes();
+    }
+}
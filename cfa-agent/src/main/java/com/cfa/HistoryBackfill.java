@@ -0,0 +1,196 @@
+package com.cfa;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-scores stored history after the CSI weights change.
+ *
+ * Component CSIs do not depend on the weights, so each stored row is replayed
+ * through {@link CSICalculator#blend} and only its GCS is rewritten. Rows are
+ * streamed from a snapshot in batches and each batch is split across a
+ * fork/join pool. The result replaces the history atomically as a new version.
+ */
+public class HistoryBackfill {
+
+    private static final int BATCH = 16_384;   // rows read from disk per round
+    private static final int CHUNK = 512;      // rows per leaf task
+
+    public enum State { IDLE, RUNNING, DONE, CANCELLED, FAILED }
+
+    private final LocalDataStore store;
+    private final ForkJoinPool pool;
+
+    private volatile Job current;
+
+    public HistoryBackfill(LocalDataStore store) {
+        this.store = store;
+        this.pool  = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /** One backfill run; progress fields are read by the API while it executes */
+    private class Job implements Runnable {
+        final double[] weights;
+        Job previous;   // cleared once it has finished, so jobs do not chain up
+        Thread worker;
+        final long startedAt = System.currentTimeMillis();
+        final AtomicLong rowsDone = new AtomicLong();
+        volatile long bytesTotal, bytesDone;
+        volatile long finishedAt, version = -1;
+        volatile State state = State.RUNNING;
+        volatile boolean cancelled;
+        volatile String error;
+
+        Job(double[] weights, Job previous) {
+            this.weights = weights.clone();
+            this.previous = previous;
+        }
+
+        @Override
+        public void run() {
+            Path out = null;
+            LocalDataStore.Snapshot snap = null;
+            try {
+                // A superseded run is already cancelled; let it release its files first
+                if (previous != null) {
+                    previous.worker.join();
+                    previous = null;
+                }
+                snap = store.snapshot();
+                bytesTotal = Files.size(snap.file);
+                out = Files.createTempFile(snap.file.getParent(), "metrics-", ".rewrite");
+                try (BufferedReader in = Files.newBufferedReader(snap.file, StandardCharsets.UTF_8);
+                     BufferedWriter w = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+                    String[] batch = new String[BATCH];
+                    int n;
+                    while ((n = fill(in, batch)) > 0) {
+                        if (cancelled) break;
+                        pool.invoke(new RescoreTask(batch, 0, n, weights, this));
+                        for (int i = 0; i < n; i++) { w.write(batch[i]); w.newLine(); }
+                    }
+                }
+                if (cancelled) {
+                    state = State.CANCELLED;
+                    System.out.println("[Backfill] Cancelled after " + rowsDone.get() + " rows");
+                    return;
+                }
+                version = store.commitRewrite(snap, out);
+                state = State.DONE;
+                System.out.printf("[Backfill] Re-scored %d rows in %d ms → history v%d%n",
+                    rowsDone.get(), System.currentTimeMillis() - startedAt, version);
+            } catch (Exception e) {
+                error = e.getMessage();
+                state = cancelled ? State.CANCELLED : State.FAILED;
+                System.err.println("[Backfill] Failed: " + e.getMessage());
+            } finally {
+                finishedAt = System.currentTimeMillis();
+                try {
+                    if (out != null) Files.deleteIfExists(out);
+                    if (snap != null) Files.deleteIfExists(snap.file);
+                } catch (IOException ignored) {}
+            }
+        }
+
+        private int fill(BufferedReader in, String[] batch) throws IOException {
+            int n = 0;
+            String line;
+            while (n < batch.length && (line = in.readLine()) != null) {
+                bytesDone += line.length() + 1;
+                if (!line.isBlank()) batch[n++] = line;
+            }
+            return n;
+        }
+    }
+
+    /** Splits a batch in halves until it is small enough to re-score in place */
+    private static class RescoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] rows;
+        private final int from, to;
+        private final double[] weights;
+        private final Job job;
+
+        RescoreTask(String[] rows, int from, int to, double[] weights, Job job) {
+            this.rows = rows; this.from = from; this.to = to;
+            this.weights = weights; this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.cancelled) return;
+            if (to - from <= CHUNK) {
+                for (int i = from; i < to; i++) rows[i] = rescore(rows[i], weights);
+                job.rowsDone.addAndGet(to - from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RescoreTask(rows, from, mid, weights, job),
+                      new RescoreTask(rows, mid, to, weights, job));
+        }
+    }
+
+    // ── Public API ───────────────────────────────────────────────────────────
+
+    /** Start re-scoring with the given weights, superseding any run in progress */
+    public synchronized void start(double[] weights) {
+        cancel();
+        Job job = new Job(weights, current);
+        job.worker = new Thread(job, "history-backfill");
+        job.worker.setDaemon(true);
+        current = job;
+        job.worker.start();
+    }
+
+    public synchronized boolean cancel() {
+        Job job = current;
+        if (job == null || job.state != State.RUNNING) return false;
+        job.cancelled = true;
+        return true;
+    }
+
+    public String statusJson() {
+        Job job = current;
+        JsonWriter w = JsonWriter.local().beginObject();
+        if (job == null) {
+            return w.name("state").value(State.IDLE.name())
+                .name("historyVersion").value(store.getHistoryVersion())
+                .endObject().toString();
+        }
+        long end = job.finishedAt > 0 ? job.finishedAt : System.currentTimeMillis();
+        double pct = job.bytesTotal > 0 ? Math.min(100.0, job.bytesDone * 100.0 / job.bytesTotal) : 0.0;
+        if (job.state == State.DONE) pct = 100.0;
+        w.name("state").value(job.state.name()).name("rows").value(job.rowsDone.get())
+            .name("progress").value(pct, 1).name("elapsedMs").value(end - job.startedAt)
+            .name("weights").beginObject()
+                .name("wifi").value(job.weights[0], 3).name("bt").value(job.weights[1], 3)
+                .name("net").value(job.weights[2], 3).name("sys").value(job.weights[3], 3)
+            .endObject()
+            .name("historyVersion").value(store.getHistoryVersion());
+        if (job.error != null) w.name("error").value(job.error);
+        return w.endObject().toString();
+    }
+
+    // ── Row rewrite ──────────────────────────────────────────────────────────
+
+    /** Recompute the "gcs" field of one stored row; rows missing components pass through */
+    static String rescore(String row, double[] w) {
+        double wifi = LocalDataStore.numberField(row, "wifiCSI");
+        double bt   = LocalDataStore.numberField(row, "btCSI");
+        double net  = LocalDataStore.numberField(row, "netCSI");
+        double sys  = LocalDataStore.numberField(row, "sysCSI");
+        if (Double.isNaN(wifi) || Double.isNaN(bt) || Double.isNaN(net) || Double.isNaN(sys)) return row;
+
+        int at = row.indexOf("\"gcs\":");
+        if (at < 0) return row;
+        int start = at + 6;
+        int end = LocalDataStore.numberEnd(row, start);
+        double gcs = CSICalculator.blend(w, wifi, bt, net, sys);
+        // Runs once per stored row, so format through the worker's JsonWriter rather than String.format
+        return row.substring(0, start) + JsonWriter.local().value(gcs, 1) + row.substring(end);
+    }
+}
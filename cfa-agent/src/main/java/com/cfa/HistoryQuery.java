@@ -0,0 +1,227 @@
+package com.cfa;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Server-side filtering and cursor pagination for /api/metrics and /api/anomalies.
+ *
+ * Pages run newest to oldest. Each response carries the page in chronological
+ * order plus, when older matches may exist, an opaque cursor naming the oldest
+ * item returned; passing it back as ?cursor= resumes strictly before that item.
+ * Metric cursors are row timestamps and anomaly cursors are ring sequence
+ * numbers, so a cursor stays valid across appends and history rewrites.
+ *
+ * Query parameters, all optional:
+ *   limit                 items per page
+ *   cursor                from a previous page
+ *   from, to              epoch ms, inclusive
+ *   min.F, max.F          numeric bounds, inclusive; F is a stored metric field
+ *                         (gcs, netCSI, ...) for metrics, value or zScore for anomalies
+ *   severity, type, component   comma lists, anomalies only
+ *
+ * Filters are applied while walking the store or ring; nothing is collected
+ * beyond the page itself. A metrics page gives up after SCAN_BUDGET rows and
+ * returns what it found with a cursor, so a filter that rarely matches cannot
+ * make one request read the whole history.
+ */
+public class HistoryQuery {
+
+    public static final int MAX_LIMIT = 5000;
+    static final int SCAN_BUDGET = 100_000;
+    private static final String[] ANOMALY_FIELDS = { "value", "zScore" };
+
+    /** One page of results, oldest first, and the cursor for the page before it (null at the end) */
+    public static class Page<T> {
+        public final List<T> items;
+        public final String next;
+        Page(List<T> items, String next) { this.items = items; this.next = next; }
+    }
+
+    /** True if the request uses none of the parameters handled here */
+    public static boolean isPlain(Map<String, String> q) {
+        for (String k : q.keySet()) {
+            if (k.equals("limit") || k.equals("cursor") || k.equals("from") || k.equals("to")
+                || k.equals("severity") || k.equals("type") || k.equals("component")
+                || k.startsWith("min.") || k.startsWith("max.")) return false;
+        }
+        return true;
+    }
+
+    // ── Metrics ──────────────────────────────────────────────────────────────
+
+    /** Stored rows as their original JSON text */
+    public static Page<String> metrics(LocalDataStore store, Map<String, String> q, int defaultLimit) throws IOException {
+        int limit = limit(q, defaultLimit);
+        long from = longParam(q, "from", Long.MIN_VALUE);
+        long to = longParam(q, "to", Long.MAX_VALUE);
+        long before = q.containsKey("cursor") ? decodeCursor(q.get("cursor"), 'm') : Long.MAX_VALUE;
+        if (to < Long.MAX_VALUE) before = Math.min(before, to + 1);
+        Bounds bounds = Bounds.from(q, MetricsExporter.FIELDS);
+
+        List<String> page = new ArrayList<>(Math.min(limit, 256));
+        long[] state = { 0, Long.MIN_VALUE };   // rows scanned, ts of the last row scanned
+        boolean[] more = { false };
+        store.scanBackward(before, (ts, row) -> {
+            if (ts < from) return false;
+            state[0]++;
+            state[1] = ts;
+            if (bounds.test(row)) page.add(row);
+            if (page.size() == limit || state[0] == SCAN_BUDGET) {
+                more[0] = true;
+                return false;
+            }
+            return true;
+        });
+        Collections.reverse(page);
+        return new Page<>(page, more[0] ? encodeCursor('m', state[1]) : null);
+    }
+
+    // ── Anomalies ────────────────────────────────────────────────────────────
+
+    public static Page<AnomalyDetector.AnomalyEvent> anomalies(AnomalyDetector ad, Map<String, String> q, int defaultLimit) {
+        int limit = limit(q, defaultLimit);
+        long from = longParam(q, "from", Long.MIN_VALUE);
+        long to = longParam(q, "to", Long.MAX_VALUE);
+        long before = q.containsKey("cursor") ? decodeCursor(q.get("cursor"), 'a') : Long.MAX_VALUE;
+        Set<String> severity = list(q, "severity", true);
+        Set<String> type = list(q, "type", true);
+        Set<String> component = list(q, "component", false);
+        Bounds bounds = Bounds.from(q, ANOMALY_FIELDS);
+
+        List<AnomalyDetector.AnomalyEvent> page = new ArrayList<>(Math.min(limit, 256));
+        long[] oldest = { 0 };
+        boolean[] more = { false };
+        if (ad != null) {
+            ad.walkEventsBack(before, e -> {
+                // Events are published in time order
+                if (e.timestamp < from) return false;
+                if (e.timestamp > to) return true;
+                if (severity != null && !severity.contains(e.severity)) return true;
+                if (type != null && !type.contains(e.type)) return true;
+                if (component != null && !component.contains(e.component)) return true;
+                if (!bounds.test(e.value, e.zScore)) return true;
+                page.add(e);
+                oldest[0] = e.seq;
+                if (page.size() == limit) {
+                    more[0] = true;
+                    return false;
+                }
+                return true;
+            });
+        }
+        Collections.reverse(page);
+        return new Page<>(page, more[0] ? encodeCursor('a', oldest[0]) : null);
+    }
+
+    /** Cursor continuing before the anomaly with this sequence number */
+    public static String anomalyCursor(long seq) {
+        return encodeCursor('a', seq);
+    }
+
+    // ── Parameters ───────────────────────────────────────────────────────────
+
+    /** min./max. bounds over a fixed list of numeric fields; only bounded fields are checked */
+    private static final class Bounds {
+        final String[] fields;
+        final double[] min, max;
+        final int[] active;
+
+        private Bounds(String[] fields, double[] min, double[] max, int[] active) {
+            this.fields = fields; this.min = min; this.max = max; this.active = active;
+        }
+
+        static Bounds from(Map<String, String> q, String[] fields) {
+            double[] min = new double[fields.length], max = new double[fields.length];
+            Arrays.fill(min, Double.NEGATIVE_INFINITY);
+            Arrays.fill(max, Double.POSITIVE_INFINITY);
+            boolean[] bounded = new boolean[fields.length];
+            for (Map.Entry<String, String> p : q.entrySet()) {
+                String k = p.getKey();
+                if (!k.startsWith("min.") && !k.startsWith("max.")) continue;
+                int i = Arrays.asList(fields).indexOf(k.substring(4));
+                if (i < 0) throw new IllegalArgumentException("unknown filter field " + k.substring(4));
+                double v = doubleParam(k, p.getValue());
+                if (k.startsWith("min.")) min[i] = v; else max[i] = v;
+                bounded[i] = true;
+            }
+            int n = 0;
+            int[] active = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) if (bounded[i]) active[n++] = i;
+            return new Bounds(fields, min, max, Arrays.copyOf(active, n));
+        }
+
+        /** A stored metric row; a row lacking a bounded field does not match */
+        boolean test(String row) {
+            for (int i : active) {
+                double v = LocalDataStore.numberField(row, fields[i]);
+                if (!(v >= min[i] && v <= max[i])) return false;
+            }
+            return true;
+        }
+
+        /** Values in the order of the field list */
+        boolean test(double... values) {
+            for (int i : active) {
+                if (!(values[i] >= min[i] && values[i] <= max[i])) return false;
+            }
+            return true;
+        }
+    }
+
+    private static int limit(Map<String, String> q, int defaultLimit) {
+        long n = longParam(q, "limit", defaultLimit);
+        if (n < 1) throw new IllegalArgumentException("limit must be positive");
+        return (int) Math.min(n, MAX_LIMIT);
+    }
+
+    private static long longParam(Map<String, String> q, String name, long def) {
+        String v = q.get(name);
+        if (v == null) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+    }
+
+    private static double doubleParam(String name, String v) {
+        try {
+            double d = Double.parseDouble(v.trim());
+            if (Double.isNaN(d)) throw new NumberFormatException();
+            return d;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    /** Comma list as a set, or null when the parameter is absent */
+    private static Set<String> list(Map<String, String> q, String name, boolean upperCase) {
+        String v = q.get(name);
+        if (v == null) return null;
+        Set<String> out = new HashSet<>();
+        for (String s : v.split(",")) {
+            s = s.trim();
+            if (!s.isEmpty()) out.add(upperCase ? s.toUpperCase(Locale.ROOT) : s);
+        }
+        return out;
+    }
+
+    // ── Cursors ──────────────────────────────────────────────────────────────
+
+    static String encodeCursor(char kind, long position) {
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString((kind + Long.toString(position)).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static long decodeCursor(String cursor, char kind) {
+        try {
+            String s = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            if (s.isEmpty() || s.charAt(0) != kind) throw new IllegalArgumentException();
+            return Long.parseLong(s.substring(1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cursor");
+        }
+    }
+}
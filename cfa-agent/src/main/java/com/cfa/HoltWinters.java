@@ -0,0 +1,78 @@
+package com.cfa;
+
+/**
+ * Additive Holt-Winters exponential smoothing with a damped trend (φ).
+ *
+ * Runs as plain Holt (level + trend) until one full season has been seen,
+ * then seeds the seasonal indices from that season and adds them in.
+ * Prediction intervals use the undamped additive Holt variance
+ *   σ²_h = σ² · [1 + (h-1)·(α² + αβh + β²h(2h-1)/6)]
+ * which is conservative once damping kicks in.
+ * O(1) per sample; the seasonal table costs one double per season slot.
+ */
+public class HoltWinters implements PredictiveEngine.Model {
+
+    private final double alpha, beta, gamma, phi;
+    private final int season;
+    private final double[] seasonal;
+    private double level, trend, errVar;
+    private double seasonSum;
+    private long n;
+    private boolean seasonalReady;
+
+    public HoltWinters(double alpha, double beta, double gamma, double phi, int season) {
+        this.alpha = alpha; this.beta = beta; this.gamma = gamma; this.phi = phi;
+        this.season = Math.max(0, season);
+        this.seasonal = new double[Math.max(1, this.season)];
+    }
+
+    @Override
+    public void update(double y) {
+        int slot = season > 0 ? (int) (n % season) : 0;
+        if (n == 0) {
+            level = y;
+        } else {
+            double s = seasonalReady ? seasonal[slot] : 0.0;
+            double e = y - (level + phi * trend + s);
+            errVar = n == 1 ? e * e : 0.95 * errVar + 0.05 * e * e;
+
+            double prevLevel = level;
+            level = alpha * (y - s) + (1 - alpha) * (level + phi * trend);
+            trend = beta * (level - prevLevel) + (1 - beta) * phi * trend;
+            if (seasonalReady) seasonal[slot] = gamma * (y - level) + (1 - gamma) * s;
+        }
+
+        // First season: remember raw values, then turn them into seasonal offsets
+        if (season > 1 && !seasonalReady) {
+            seasonal[slot] = y;
+            seasonSum += y;
+            if (slot == season - 1) {
+                double mean = seasonSum / season;
+                for (int i = 0; i < season; i++) seasonal[i] -= mean;
+                seasonalReady = true;
+            }
+        }
+        n++;
+    }
+
+    @Override
+    public double predict(int steps) {
+        // Σ φ^i for i = 1..h
+        double damp = phi == 1.0 ? steps : phi * (1 - Math.pow(phi, steps)) / (1 - phi);
+        double f = level + trend * damp;
+        if (seasonalReady) f += seasonal[(int) ((n - 1 + steps) % season)];
+        return f;
+    }
+
+    @Override
+    public double stdErr(int h) {
+        double k = alpha * alpha + alpha * beta * h + beta * beta * h * (2.0 * h - 1) / 6.0;
+        return Math.sqrt(errVar * (1 + (h - 1) * k));
+    }
+
+    @Override
+    public boolean ready() { return n >= 3; }
+
+    @Override
+    public String name() { return seasonalReady ? "holtWinters" : "holt"; }
+}
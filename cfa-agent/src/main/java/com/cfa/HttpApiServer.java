@@ -5,6 +5,8 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 /**
  * Lightweight embedded HTTP REST server (Java HttpServer on port 8765).
@@ -13,142 +15,693 @@ import java.util.*;
 public class HttpApiServer {
 
     private final int port;
+    private final Config config;
     private HttpServer server;
+    private ExecutorService executor;
+    private String executorMode;            // what createExecutor actually built
+    private Semaphore inFlight;
+    private ScheduledExecutorService watchdog;
+    private final RateLimiter enrollLimiter;   // null when disabled (rate <= 0)
+    private final RateLimiter apiLimiter;
+
+    // Executors.newVirtualThreadPerTaskExecutor (Java 21+); null on older JVMs
+    private static final java.lang.reflect.Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    /** Server runtime settings, read from cfa.properties */
+    public static class Config {
+        public String executor = virtualThreadsAvailable() ? "virtual" : "fixed";   // "virtual" | "fixed"
+        public int threads = 4;                // pool size in fixed mode
+        public int backlog = 64;               // TCP accept queue
+        public int maxConcurrent = 64;         // requests in flight before 503
+        public long requestTimeoutMs = 10_000; // time to receive a request
+        public long handlerTimeoutMs = 30_000; // time for a handler to finish
+        public int compressMinBytes = 1024;    // smaller bodies are sent as-is
+        public double enrollPerMinute = 5;     // enrollment attempts per IP / device
+        public int enrollBurst = 5;
+        public double apiPerSecond = 20;       // authenticated requests per IP / token
+        public int apiBurst = 40;
+        public int enrollBatchMax = 5000;      // devices per /api/enroll/batch request
+        public String enrollBatchToken = "";   // bearer for /api/enroll/batch; empty disables it
+
+        public static Config from(Properties p) {
+            Config c = new Config();
+            c.executor         = p.getProperty("http.executor", c.executor).trim().toLowerCase();
+            c.threads          = Integer.parseInt(p.getProperty("http.threads", String.valueOf(c.threads)));
+            c.backlog          = Integer.parseInt(p.getProperty("http.backlog", String.valueOf(c.backlog)));
+            c.maxConcurrent    = Integer.parseInt(p.getProperty("http.max.concurrent", String.valueOf(c.maxConcurrent)));
+            c.requestTimeoutMs = Long.parseLong(p.getProperty("http.request.timeout.ms", String.valueOf(c.requestTimeoutMs)));
+            c.handlerTimeoutMs = Long.parseLong(p.getProperty("http.handler.timeout.ms", String.valueOf(c.handlerTimeoutMs)));
+            c.compressMinBytes = Integer.parseInt(p.getProperty("http.compress.min.bytes", String.valueOf(c.compressMinBytes)));
+            c.enrollPerMinute  = Double.parseDouble(p.getProperty("rate.enroll.per.minute", String.valueOf(c.enrollPerMinute)));
+            c.enrollBurst      = Integer.parseInt(p.getProperty("rate.enroll.burst", String.valueOf(c.enrollBurst)));
+            c.apiPerSecond     = Double.parseDouble(p.getProperty("rate.api.per.second", String.valueOf(c.apiPerSecond)));
+            c.apiBurst         = Integer.parseInt(p.getProperty("rate.api.burst", String.valueOf(c.apiBurst)));
+            c.enrollBatchMax   = Integer.parseInt(p.getProperty("enroll.batch.max", String.valueOf(c.enrollBatchMax)));
+            c.enrollBatchToken = p.getProperty("enroll.batch.token", c.enrollBatchToken).trim();
+            return c;
+        }
+    }
 
     // Shared state references set by AgentMain
     volatile DatabaseManager databaseManager;
     volatile SecurityEngine securityEngine;
-    volatile TelemetryCollector.TelemetrySnapshot latestTelemetry;
-    volatile CSICalculator.CSIResult latestCSI;
-    volatile PredictiveEngine.Forecast latestForecast;
+    volatile TokenCache tokenCache;
     volatile AnomalyDetector anomalyDetector;
     volatile TelemetryCollector telemetryCollector;
     volatile LocalDataStore dataStore;
     volatile CSICalculator csiCalculator;
-    volatile double bayesianConfidence;
+    volatile HistoryBackfill historyBackfill;
+    volatile StatsEngine statsEngine;
+    volatile long cycleMs = 3000;
+    volatile EventStreamHub streamHub;
+    volatile Startup startup;            // null: no readiness gate
+    volatile SelfMonitor selfMonitor;
+    volatile FleetAggregator fleet;      // null unless fleet.peers is set
+
+    // Live stream state, touched only by the compute loop via publishCycle()
+    private long lastStreamedSeq;
+    private volatile byte[] lastFrame;
+
+    // Backtest walks at most this much recent history, whatever the store retention
+    private static final int BACKTEST_ROWS = 20_000;
+
+    // ── Per-cycle response cache ─────────────────────────────────────────
+    /** A resource serialized once, shared by every request until the next cycle */
+    static final class Cached {
+        final byte[] body;
+        final String etag;
+        final long lastSeq;
+        final String nextCursor;   // X-CFA-Next-Cursor, for paged resources
+        // Compressed on first request for each coding; a racing duplicate is harmless
+        private volatile byte[] gzip, deflate;
 
-    public HttpApiServer(int port) { this.port = port; }
+        Cached(byte[] body, String etag, long lastSeq) {
+            this(body, etag, lastSeq, null);
+        }
+
+        Cached(byte[] body, String etag, long lastSeq, String nextCursor) {
+            this.body = body;
+            this.etag = etag;
+            this.lastSeq = lastSeq;
+            this.nextCursor = nextCursor;
+        }
+
+        byte[] encoded(String encoding) throws IOException {
+            if ("gzip".equals(encoding)) {
+                byte[] b = gzip;
+                return b != null ? b : (gzip = compress(body, encoding));
+            }
+            byte[] b = deflate;
+            return b != null ? b : (deflate = compress(body, encoding));
+        }
+    }
+
+    /** One cycle's state and its cacheable resources, swapped in as a unit */
+    private static final class Responses {
+        final CycleState state;
+        final Cached status, prediction, anomalies;
+        Responses(CycleState state, Cached status, Cached prediction, Cached anomalies) {
+            this.state = state; this.status = status; this.prediction = prediction; this.anomalies = anomalies;
+        }
+    }
+
+    // Boot stamp in the ETag so a restart's version 1 never matches an old tag
+    private final String etagPrefix = "\"" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    private long responseVersion;
+    private volatile Responses responses;
+
+    public HttpApiServer(int port) { this(port, new Config()); }
+
+    public HttpApiServer(int port, Config config) {
+        this.port = port;
+        this.config = config;
+        this.enrollLimiter = config.enrollPerMinute > 0 ? new RateLimiter(config.enrollPerMinute / 60.0, config.enrollBurst) : null;
+        this.apiLimiter    = config.apiPerSecond > 0 ? new RateLimiter(config.apiPerSecond, config.apiBurst) : null;
+    }
 
     public void start() throws IOException {
-        server = HttpServer.create(new InetSocketAddress(port), 0);
-        server.createContext("/api/status",    this::handleStatus);
-        server.createContext("/api/metrics",   this::handleMetrics);
-        server.createContext("/api/anomalies", this::handleAnomalies);
-        server.createContext("/api/prediction",this::handlePrediction);
-        server.createContext("/api/weights",   this::handleWeights);
-        server.createContext("/api/health",    this::handleHealth);
-        server.createContext("/api/enroll",    this::handleEnroll);
-        server.createContext("/api/raw-telemetry", this::handleRawTelemetry);
-        server.setExecutor(java.util.concurrent.Executors.newFixedThreadPool(4));
+        // Read by the JDK server when its first instance is created
+        System.setProperty("sun.net.httpserver.maxReqTime",
+            String.valueOf(Math.max(1, config.requestTimeoutMs / 1000)));
+        // Headers and body go out as separate writes; with Nagle on, the body waits
+        // for the client's delayed ACK and every keep-alive response stalls ~40 ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        server = HttpServer.create(new InetSocketAddress(port), config.backlog);
+        inFlight = new Semaphore(config.maxConcurrent);
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "http-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        addContext("/api/status",    this::handleStatus);
+        addContext("/api/metrics",   this::handleMetrics);
+        addContext("/api/anomalies", this::handleAnomalies);
+        addContext("/api/prediction",this::handlePrediction);
+        addContext("/api/prediction/backtest", this::handleBacktest);
+        addContext("/api/weights",   this::handleWeights);
+        addContext("/api/health",    this::handleHealth);
+        addContext("/api/ready",     this::handleReady);
+        addContext("/api/enroll",    this::handleEnroll);
+        addContext("/api/enroll/batch", this::handleEnrollBatch);
+        addContext("/api/raw-telemetry", this::handleRawTelemetry);
+        addContext("/api/backfill",  this::handleBackfill);
+        addContext("/api/stats",     this::handleStats);
+        addContext("/api/fleet/status",  this::handleFleetStatus);
+        addContext("/api/fleet/metrics", this::handleFleetMetrics);
+        // Streams outlive their handler, so they skip the handler watchdog
+        server.createContext("/api/stream", guard("/api/stream", this::handleStream, false));
+        server.createContext("/api/metrics/export", guard("/api/metrics/export", this::handleExport, false));
+        addContext("/api/internal/metrics", this::handleInternalMetrics);
+        addContext("/api/internal/self", this::handleInternalSelf);
+        executor = createExecutor();
+        server.setExecutor(executor);
         server.start();
-        System.out.println("[HttpApiServer] Listening on http://0.0.0.0:" + port);
+        System.out.printf("[HttpApiServer] Listening on http://0.0.0.0:%d (executor=%s, backlog=%d, maxConcurrent=%d)%n",
+            port, executorMode, config.backlog, config.maxConcurrent);
+    }
+
+    /** Register a handler behind the concurrency limit and handler watchdog */
+    void addContext(String path, HttpHandler handler) {
+        server.createContext(path, guard(path, handler, true));
+    }
+
+    /** Bound port, useful when started on port 0 */
+    int boundPort() { return server.getAddress().getPort(); }
+
+    private ExecutorService createExecutor() {
+        if ("virtual".equals(config.executor)) {
+            if (VIRTUAL_EXECUTOR != null) {
+                try {
+                    executorMode = "virtual";
+                    return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    System.out.println("[HttpApiServer] Virtual thread executor failed: " + e);
+                }
+            }
+            // Never an unbounded pool: maxConcurrent is only checked once a thread runs the handler
+            System.out.println("[HttpApiServer] Virtual threads unavailable on this JVM — using a fixed pool of "
+                + Math.max(1, config.threads));
+        }
+        executorMode = "fixed";
+        return Executors.newFixedThreadPool(Math.max(1, config.threads));
+    }
+
+    static boolean virtualThreadsAvailable() { return VIRTUAL_EXECUTOR != null; }
+
+    private static java.lang.reflect.Method virtualExecutorFactory() {
+        try {
+            // Looked up reflectively so the agent still builds and runs on 17
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sheds load with 503 once maxConcurrent requests are in flight, and closes
+     * the exchange of any handler still running after handlerTimeoutMs.
+     */
+    private HttpHandler guard(String path, HttpHandler handler, boolean timed) {
+        Instrumentation.Histogram latency = Instrumentation.histogram("cfa_http_request_seconds",
+            "HTTP handler time by context", Instrumentation.label("path", path));
+        boolean gated = !path.equals("/api/health") && !path.equals("/api/ready");
+        return ex -> {
+            long start = System.nanoTime();
+            Startup boot = startup;
+            if (gated && boot != null && !boot.isReady()) {
+                // Listening before the subsystems are up; /api/ready says what is still starting
+                ex.getResponseHeaders().add("Retry-After", "1");
+                send(ex, 503, "{\"error\":\"starting\"}");
+                responseCounter(path, 503).inc();
+                return;
+            }
+            if (!inFlight.tryAcquire()) {
+                Instrumentation.HTTP_REJECTED.inc();
+                ex.getResponseHeaders().add("Retry-After", "1");
+                send(ex, 503, "{\"error\":\"server busy\"}");
+                return;
+            }
+            ScheduledFuture<?> timeout = timed
+                ? watchdog.schedule(() -> {
+                      System.err.println("[HttpApiServer] Handler timeout on " + ex.getRequestURI().getPath());
+                      ex.close();
+                  }, config.handlerTimeoutMs, TimeUnit.MILLISECONDS)
+                : null;
+            try {
+                handler.handle(ex);
+            } finally {
+                if (timeout != null) timeout.cancel(false);
+                inFlight.release();
+                latency.since(start);
+                responseCounter(path, ex.getResponseCode()).inc();
+            }
+        };
+    }
+
+    private final ConcurrentHashMap<String, Instrumentation.Counter> responseCounters = new ConcurrentHashMap<>();
+
+    private Instrumentation.Counter responseCounter(String path, int code) {
+        return responseCounters.computeIfAbsent(path + " " + code, k -> Instrumentation.counter(
+            "cfa_http_responses_total", "HTTP responses by context and status code",
+            Instrumentation.label("path", path) + "," + Instrumentation.label("code", String.valueOf(code))));
     }
 
     private void handleStatus(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!checkAuth(ex)) return;
-        CSICalculator.CSIResult r = latestCSI;
-        TelemetryCollector.TelemetrySnapshot t = latestTelemetry;
-        String json;
-        if (r == null || t == null) {
-            json = "{\"gcs\":0,\"wifiCSI\":0,\"btCSI\":0,\"netCSI\":0,\"sysCSI\":0,\"bayesian\":0.5,\"deviceId\":\"" + DeviceIdentity.getDeviceId().substring(0,16) + "\"}";
-        } else {
-            double[] w = csiCalculator.getWeights();
-            json = String.format(
-                "{\"gcs\":%.1f,\"wifiCSI\":%.1f,\"btCSI\":%.1f,\"netCSI\":%.1f,\"sysCSI\":%.1f," +
-                "\"wifiRssi\":%.1f,\"btDeviceCount\":%d,\"latencyMs\":%.1f,\"cpuPercent\":%.1f,\"memPercent\":%.1f," +
-                "\"bayesian\":%.3f,\"weights\":{\"wifi\":%.3f,\"bt\":%.3f,\"net\":%.3f,\"sys\":%.3f}," +
-                "\"deviceId\":\"%s\",\"timestamp\":%d}",
-                r.gcs, r.wifiCSI, r.btCSI, r.netCSI, r.sysCSI,
-                t.wifiRssi, t.btDeviceCount, t.latencyMs, t.cpuPercent, t.memPercent,
-                bayesianConfidence, w[0], w[1], w[2], w[3],
-                DeviceIdentity.getDeviceId().substring(0, 16), r.timestamp);
+        sendCached(ex, responses().status);
+    }
+
+    private static byte[] statusJson(CycleState s) {
+        CSICalculator.CSIResult r = s.csi;
+        TelemetryCollector.TelemetrySnapshot t = s.telemetry;
+        JsonWriter w = JsonWriter.local().beginObject();
+        if (s.isEmpty()) {
+            return w.name("gcs").value(0).name("wifiCSI").value(0).name("btCSI").value(0)
+                .name("netCSI").value(0).name("sysCSI").value(0).name("bayesian").value(0.5, 1)
+                .name("deviceId").value(DeviceIdentity.getDeviceId().substring(0, 16))
+                .endObject().toBytes();
         }
-        send(ex, 200, json);
+        double[] wt = r.weights;
+        return w.name("gcs").value(r.gcs, 1).name("wifiCSI").value(r.wifiCSI, 1).name("btCSI").value(r.btCSI, 1)
+            .name("netCSI").value(r.netCSI, 1).name("sysCSI").value(r.sysCSI, 1)
+            .name("wifiRssi").value(t.wifiRssi, 1).name("btDeviceCount").value(t.btDeviceCount)
+            .name("latencyMs").value(t.latencyMs, 1).name("cpuPercent").value(t.cpuPercent, 1)
+            .name("memPercent").value(t.memPercent, 1).name("bayesian").value(s.bayesian, 3)
+            .name("weights").beginObject()
+                .name("wifi").value(wt[0], 3).name("bt").value(wt[1], 3)
+                .name("net").value(wt[2], 3).name("sys").value(wt[3], 3)
+            .endObject()
+            .name("deviceId").value(DeviceIdentity.getDeviceId().substring(0, 16))
+            .name("timestamp").value(r.timestamp)
+            .endObject().toBytes();
     }
 
     private void handleMetrics(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!checkAuth(ex)) return;
-        List<String> lines = dataStore != null ? dataStore.readLast(60) : Collections.emptyList();
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < lines.size(); i++) {
-            sb.append(lines.get(i));
-            if (i < lines.size() - 1) sb.append(",");
+        // Newest 60 rows by default; paging and filters as described in HistoryQuery
+        HistoryQuery.Page<String> page;
+        try {
+            page = dataStore != null
+                ? HistoryQuery.metrics(dataStore, query(ex), 60)
+                : new HistoryQuery.Page<>(Collections.emptyList(), null);
+        } catch (IllegalArgumentException e) {
+            sendBytes(ex, 400, JsonWriter.local().beginObject().name("error").value(e.getMessage()).endObject().toBytes());
+            return;
         }
-        sb.append("]");
-        send(ex, 200, sb.toString());
+        JsonWriter w = JsonWriter.local().beginArray();
+        for (String row : page.items) w.raw(row);
+        if (page.next != null) ex.getResponseHeaders().add("X-CFA-Next-Cursor", page.next);
+        sendBytes(ex, 200, w.endArray().toBytes());
+    }
+
+    /**
+     * Binary columnar history, streamed chunk by chunk (format in MetricsExporter).
+     * ?from=&to= are epoch ms, ?fields= a comma list, ?chunk= rows per chunk.
+     */
+    private void handleExport(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        if (dataStore == null) { send(ex, 503, "{\"error\":\"history not available\"}"); return; }
+        Map<String, String> q = query(ex);
+        long from, to;
+        int chunk;
+        try {
+            from  = Long.parseLong(q.getOrDefault("from", String.valueOf(Long.MIN_VALUE)));
+            to    = Long.parseLong(q.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+            chunk = Math.max(64, Math.min(65_536, Integer.parseInt(q.getOrDefault("chunk", "4096"))));
+        } catch (NumberFormatException e) {
+            send(ex, 400, "{\"error\":\"from, to and chunk must be integers\"}");
+            return;
+        }
+        String[] fields = MetricsExporter.FIELDS;
+        if (q.containsKey("fields")) {
+            fields = q.get("fields").split(",");
+            for (String f : fields) {
+                if (!Arrays.asList(MetricsExporter.FIELDS).contains(f)) {
+                    send(ex, 400, "{\"error\":\"unknown field\"}");
+                    return;
+                }
+            }
+        }
+        String encoding = negotiateEncoding(ex);
+        ex.getResponseHeaders().add("Content-Type", MetricsExporter.CONTENT_TYPE);
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.getResponseHeaders().add("Vary", "Accept-Encoding");
+        if (encoding != null) ex.getResponseHeaders().add("Content-Encoding", encoding);
+        ex.sendResponseHeaders(200, 0);
+        try (OutputStream os = encoding != null ? compressor(ex.getResponseBody(), encoding) : ex.getResponseBody()) {
+            MetricsExporter.export(dataStore, from, to, fields, chunk, os);
+        } catch (IOException e) {
+            // Client went away mid-export; nothing useful to send back
+            ex.close();
+        }
+    }
+
+    /** The agent's own CPU, memory and GC figures against its budget, and the mitigations in force */
+    private void handleInternalSelf(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        SelfMonitor monitor = selfMonitor;
+        if (monitor == null) { send(ex, 503, "{\"error\":\"self-monitoring not available\"}"); return; }
+        sendBytes(ex, 200, monitor.toJson());
+    }
+
+    /** Prometheus text exposition of Instrumentation counters, histograms and JVM gauges */
+    private void handleInternalMetrics(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        byte[] body = Instrumentation.prometheusText().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(body); }
     }
 
     private void handleAnomalies(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!checkAuth(ex)) return;
-        List<AnomalyDetector.AnomalyEvent> evts = anomalyDetector != null
-            ? anomalyDetector.getRecentEvents(20) : Collections.emptyList();
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < evts.size(); i++) {
-            AnomalyDetector.AnomalyEvent e = evts.get(i);
-            sb.append(String.format(
-                "{\"timestamp\":%d,\"type\":\"%s\",\"component\":\"%s\"," +
-                "\"zScore\":%.2f,\"value\":%.1f,\"severity\":\"%s\",\"message\":\"%s\"}",
-                e.timestamp, e.type, e.component, e.zScore, e.value, e.severity,
-                e.message.replace("\"", "'")));
-            if (i < evts.size() - 1) sb.append(",");
-        }
-        sb.append("]");
-        send(ex, 200, sb.toString());
+        // ?since=<seq> returns only events newer than the cursor (up to ?limit=, default 500)
+        Map<String, String> q = query(ex);
+        List<AnomalyDetector.AnomalyEvent> evts;
+        long lastSeq;   // a client polling with ?since=<this> misses nothing
+        try {
+            if (anomalyDetector == null) {
+                evts = Collections.emptyList();
+                lastSeq = -1;
+            } else if (q.containsKey("since")) {
+                // The page may be truncated by limit: resume after its last event, not the ring's
+                int limit = Integer.parseInt(q.getOrDefault("limit", "500"));
+                long since = Long.parseLong(q.get("since"));
+                // Sequences restart at 1 with the agent: a cursor past the head predates a
+                // restart, so everything in the current ring is new to this client
+                if (since > anomalyDetector.getLastSequence()) since = 0;
+                evts = anomalyDetector.getEventsSince(since, Math.min(limit, 5000));
+                lastSeq = evts.isEmpty() ? since : evts.get(evts.size() - 1).seq;
+            } else if (HistoryQuery.isPlain(q)) {
+                // The default view only changes once per cycle
+                Cached c = responses().anomalies;
+                ex.getResponseHeaders().add("X-CFA-Last-Seq", Long.toString(c.lastSeq));
+                if (c.nextCursor != null) ex.getResponseHeaders().add("X-CFA-Next-Cursor", c.nextCursor);
+                sendCached(ex, c);
+                return;
+            } else {
+                // Backwards paging with ?cursor= and filters, see HistoryQuery. Read the sequence
+                // first so events raised while the page is built are still ahead of it.
+                lastSeq = anomalyDetector.getLastSequence();
+                HistoryQuery.Page<AnomalyDetector.AnomalyEvent> page = HistoryQuery.anomalies(anomalyDetector, q, 20);
+                evts = page.items;
+                if (page.next != null) ex.getResponseHeaders().add("X-CFA-Next-Cursor", page.next);
+            }
+        } catch (NumberFormatException e) {
+            send(ex, 400, "{\"error\":\"since and limit must be integers\"}");
+            return;
+        } catch (IllegalArgumentException e) {
+            sendBytes(ex, 400, JsonWriter.local().beginObject().name("error").value(e.getMessage()).endObject().toBytes());
+            return;
+        }
+        if (lastSeq >= 0) ex.getResponseHeaders().add("X-CFA-Last-Seq", Long.toString(lastSeq));
+        sendBytes(ex, 200, anomaliesJson(JsonWriter.local(), evts).toBytes());
+    }
+
+    private static JsonWriter anomaliesJson(JsonWriter w, List<AnomalyDetector.AnomalyEvent> evts) {
+        w.beginArray();
+        for (AnomalyDetector.AnomalyEvent e : evts) {
+            w.beginObject()
+                .name("seq").value(e.seq).name("timestamp").value(e.timestamp)
+                .name("type").value(e.type).name("component").value(e.component)
+                .name("zScore").value(e.zScore, 2).name("value").value(e.value, 1)
+                .name("severity").value(e.severity).name("message").value(e.message)
+                .endObject();
+        }
+        return w.endArray();
     }
 
     private void handlePrediction(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!checkAuth(ex)) return;
-        PredictiveEngine.Forecast f = latestForecast;
-        String json;
+        sendCached(ex, responses().prediction);
+    }
+
+    private static byte[] predictionJson(CycleState s) {
+        PredictiveEngine.Forecast f = s.forecast;
+        JsonWriter w = JsonWriter.local().beginObject();
         if (f == null) {
-            json = "{\"nextCSI\":50,\"trend\":\"STABLE\",\"decayLambda\":0,\"timeToThreshold\":9999}";
-        } else {
-            json = String.format(
-                "{\"nextCSI\":%.1f,\"trend\":\"%s\",\"decayLambda\":%.4f,\"timeToThreshold\":%.1f}",
-                f.nextCSI, f.trend, f.decayLambda, f.timeToThreshold);
+            return w.name("nextCSI").value(50).name("trend").value("STABLE")
+                .name("decayLambda").value(0).name("timeToThreshold").value(9999)
+                .endObject().toBytes();
         }
-        send(ex, 200, json);
+        w.name("nextCSI").value(f.nextCSI, 1).name("trend").value(f.trend)
+            .name("decayLambda").value(f.decayLambda, 4).name("timeToThreshold").value(f.timeToThreshold, 1)
+            .name("horizons").beginArray();
+        for (PredictiveEngine.HorizonForecast h : f.horizons) {
+            w.beginObject()
+                .name("horizon").value(h.horizon).name("model").value(h.model).name("steps").value(h.steps)
+                .name("value").value(h.value, 1).name("lower").value(h.lower, 1).name("upper").value(h.upper, 1)
+                .endObject();
+        }
+        return w.endArray().endObject().toBytes();
+    }
+
+    private void handleBacktest(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        List<String> rows = dataStore != null ? dataStore.readLast(BACKTEST_ROWS) : Collections.emptyList();
+        sendBytes(ex, 200, ForecastBacktest.run(rows, cycleMs));
     }
 
     private void handleWeights(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!"POST".equals(ex.getRequestMethod())) { send(ex, 405, "{\"error\":\"POST only\"}"); return; }
-        String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-        // Simple JSON parse: {"wifi":0.3,"bt":0.15,"net":0.35,"sys":0.2}
+        if (!checkAuth(ex)) return;
+        // {"wifi":0.3,"bt":0.15,"net":0.35,"sys":0.2}
         try {
-            double wifi = extractDouble(body, "wifi");
-            double bt   = extractDouble(body, "bt");
-            double net  = extractDouble(body, "net");
-            double sys  = extractDouble(body, "sys");
-            if (csiCalculator != null) csiCalculator.updateWeights(wifi, bt, net, sys);
+            double wifi = Double.NaN, bt = Double.NaN, net = Double.NaN, sys = Double.NaN;
+            JsonReader r = new JsonReader(ex.getRequestBody().readAllBytes());
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "wifi": wifi = r.nextDouble(); break;
+                    case "bt":   bt   = r.nextDouble(); break;
+                    case "net":  net  = r.nextDouble(); break;
+                    case "sys":  sys  = r.nextDouble(); break;
+                    default:     r.skipValue();
+                }
+            }
+            r.endObject();
+            if (Double.isNaN(wifi) || Double.isNaN(bt) || Double.isNaN(net) || Double.isNaN(sys)) {
+                throw new IllegalArgumentException("missing weight");
+            }
+            CSICalculator calc = csiCalculator;
+            if (calc != null) {
+                double[] before = calc.getWeights();
+                calc.updateWeights(wifi, bt, net, sys);
+                double[] after = calc.getWeights();
+                // Re-score stored history so charts don't jump at the weight change; a repeat
+                // of the weights in effect would only rewrite the same history again
+                if (historyBackfill != null && !Arrays.equals(before, after)) historyBackfill.start(after);
+            }
             send(ex, 200, "{\"status\":\"ok\"}");
         } catch (Exception e) {
             send(ex, 400, "{\"error\":\"invalid weights payload\"}");
         }
     }
 
+    private void handleBackfill(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        if (historyBackfill == null || csiCalculator == null) { send(ex, 503, "{\"error\":\"backfill not available\"}"); return; }
+        String method = ex.getRequestMethod();
+        if ("DELETE".equals(method)) {
+            historyBackfill.cancel();
+        } else if ("POST".equals(method)) {
+            // Manual re-run with the weights currently in effect
+            historyBackfill.start(csiCalculator.getWeights());
+        }
+        send(ex, 200, historyBackfill.statusJson());
+    }
+
+    private void handleStats(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        if (statsEngine == null) { send(ex, 503, "{\"error\":\"stats not available\"}"); return; }
+        // ?signal=latency&horizon=24h&q=0.5,0.99 — all optional; &format=sketch returns the sketch itself
+        Map<String, String> q = query(ex);
+        String signal  = q.get("signal");
+        String horizon = q.get("horizon");
+        if (signal != null && !Arrays.asList(StatsEngine.SIGNALS).contains(signal)) {
+            send(ex, 400, "{\"error\":\"unknown signal\"}"); return;
+        }
+        if (horizon != null && !"all".equals(horizon) && !Arrays.asList(StatsEngine.HORIZONS).contains(horizon)) {
+            send(ex, 400, "{\"error\":\"unknown horizon\"}"); return;
+        }
+        if ("sketch".equals(q.get("format"))) {
+            // The mergeable sketch itself, for /api/fleet/metrics on another agent
+            String sig = signal != null ? signal : "gcs", hz = horizon != null ? horizon : "1h";
+            JsonWriter w = JsonWriter.local().beginObject()
+                .name("deviceId").value(DeviceIdentity.getDeviceId().substring(0, 16))
+                .name("signal").value(sig).name("horizon").value(hz).name("sketch");
+            sendBytes(ex, 200, statsEngine.sketch(sig, hz).writeJson(w).endObject().toBytes());
+            return;
+        }
+        double[] qs = quantiles(ex, q);
+        if (qs == null) return;
+        sendBytes(ex, 200, statsEngine.toJson(signal, horizon, qs));
+    }
+
+    /** ?q=0.5,0.99, or the defaults; answers 400 and returns null if the list is invalid */
+    private double[] quantiles(HttpExchange ex, Map<String, String> q) throws IOException {
+        if (!q.containsKey("q")) return StatsEngine.DEFAULT_QUANTILES;
+        double[] qs;
+        try {
+            qs = Arrays.stream(q.get("q").split(",")).mapToDouble(Double::parseDouble).toArray();
+        } catch (NumberFormatException e) {
+            send(ex, 400, "{\"error\":\"invalid quantile list\"}"); return null;
+        }
+        for (double v : qs) {
+            if (v < 0 || v > 1) { send(ex, 400, "{\"error\":\"quantiles must be in [0,1]\"}"); return null; }
+        }
+        return qs;
+    }
+
+    // ── Fleet (federation over fleet.peers) ─────────────────────────────────
+
+    private void handleFleetStatus(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        FleetAggregator f = fleet;
+        if (f == null) { send(ex, 404, "{\"error\":\"federation not configured (fleet.peers)\"}"); return; }
+        sendBytes(ex, 200, f.status(cycleState(), anomalyDetector));
+    }
+
+    private void handleFleetMetrics(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex)) return;
+        FleetAggregator f = fleet;
+        if (f == null) { send(ex, 404, "{\"error\":\"federation not configured (fleet.peers)\"}"); return; }
+        // ?signal=gcs&horizon=1h&q=0.5,0.9,0.99 — all optional
+        Map<String, String> q = query(ex);
+        String signal  = q.getOrDefault("signal", "gcs");
+        String horizon = q.getOrDefault("horizon", "1h");
+        if (!Arrays.asList(StatsEngine.SIGNALS).contains(signal)) {
+            send(ex, 400, "{\"error\":\"unknown signal\"}"); return;
+        }
+        if (!"all".equals(horizon) && !Arrays.asList(StatsEngine.HORIZONS).contains(horizon)) {
+            send(ex, 400, "{\"error\":\"unknown horizon\"}"); return;
+        }
+        double[] qs = quantiles(ex, q);
+        if (qs == null) return;
+        sendBytes(ex, 200, f.metrics(signal, horizon, qs, statsEngine));
+    }
+
+    /**
+     * SSE push of every compute cycle. EventSource cannot set headers, so the
+     * token may also be passed as ?token=.
+     */
+    private void handleStream(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!checkAuth(ex, true)) return;
+        EventStreamHub hub = streamHub;
+        if (hub == null) { send(ex, 503, "{\"error\":\"stream not available\"}"); return; }
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        if (!hub.subscribe(ex, () -> lastFrame)) {
+            send(ex, 503, "{\"error\":\"too many stream subscribers\"}");
+        }
+    }
+
+    /**
+     * Make {@code state} the current cycle for every endpoint, then encode it once and
+     * push it to every stream subscriber: status, the stored metric row, anomalies raised
+     * since the last push and the forecast. Called from the compute loop after the
+     * snapshot is persisted.
+     */
+    void publishCycle(CycleState state) {
+        Responses r = refreshResponses(state);
+        EventStreamHub hub = streamHub;
+        if (hub == null) return;
+        long cycle = state.cycle;
+        List<AnomalyDetector.AnomalyEvent> fresh = anomalyDetector != null
+            ? anomalyDetector.getEventsSince(lastStreamedSeq, 500) : Collections.emptyList();
+        if (!fresh.isEmpty()) lastStreamedSeq = fresh.get(fresh.size() - 1).seq;
+        // lastSeq lets a client that missed a coalesced frame catch up via /api/anomalies?since=
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("cycle").value(cycle)
+            .name("status").raw(r.status.body)
+            .name("metric").raw(state.metricRow)
+            .name("anomalies");
+        anomaliesJson(w, fresh)
+            .name("lastSeq").value(lastStreamedSeq)
+            .name("forecast").raw(r.prediction.body)
+            .endObject();
+        byte[] frame = EventStreamHub.frame("cycle", cycle, w.toBytes());
+        lastFrame = frame;
+        if (hub.subscriberCount() > 0) hub.publish(frame);
+    }
+
+    /** Serialize the cacheable resources of {@code state} under a new version and publish them */
+    private synchronized Responses refreshResponses(CycleState state) {
+        // A request building the pre-first-cycle set must not replace a cycle published meanwhile
+        Responses cur = responses;
+        if (cur != null && cur.state.cycle > state.cycle) return cur;
+        long v = ++responseVersion;
+        String etag = etagPrefix + v + "\"";
+        AnomalyDetector ad = anomalyDetector;
+        List<AnomalyDetector.AnomalyEvent> recent = ad != null ? ad.getRecentEvents(20) : Collections.emptyList();
+        String next = recent.size() == 20 && recent.get(0).seq > 1 ? HistoryQuery.anomalyCursor(recent.get(0).seq) : null;
+        Responses r = new Responses(state,
+            new Cached(statusJson(state), etag, 0),
+            new Cached(predictionJson(state), etag, 0),
+            new Cached(anomaliesJson(JsonWriter.local(), recent).toBytes(), etag,
+                recent.isEmpty() ? 0 : recent.get(recent.size() - 1).seq, next));
+        responses = r;
+        return r;
+    }
+
+    /** The current cycle's resources; built on demand before the first cycle completes */
+    private Responses responses() {
+        Responses r = responses;
+        return r != null ? r : refreshResponses(CycleState.EMPTY);
+    }
+
+    /** The most recently published cycle, or {@link CycleState#EMPTY} */
+    CycleState cycleState() {
+        Responses r = responses;
+        return r != null ? r.state : CycleState.EMPTY;
+    }
+
     private void handleEnroll(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if ("DELETE".equals(ex.getRequestMethod())) { handleRevoke(ex); return; }
         if (!"POST".equals(ex.getRequestMethod())) { send(ex, 405, "{\"error\":\"POST required\"}"); return; }
         
-        String ip = ex.getRemoteAddress().getAddress().getHostAddress();
-        if (securityEngine.isRateLimited(ip)) {
-            send(ex, 429, "{\"error\":\"Too many attempts. Rate limit exceeded.\"}");
-            return;
-        }
+        if (!allow(ex, enrollLimiter, "ip:" + clientIp(ex))) return;
 
         try {
-            String body = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-            String deviceId = extractString(body, "deviceId");
-            String dcs      = extractString(body, "dcs");
-            String fp       = extractString(body, "fingerprint");
-            double entropy  = extractDouble(body, "entropy");
-            long ts         = Long.parseLong(extractString(body, "timestamp"));
-            String meta     = extractString(body, "meta");
+            String deviceId = null, dcs = null, fp = null, meta = null;
+            double entropy = Double.NaN;
+            long ts = 0;
+            JsonReader r = new JsonReader(ex.getRequestBody().readAllBytes());
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "deviceId":    deviceId = r.nextString(); break;
+                    case "dcs":         dcs      = r.nextString(); break;
+                    case "fingerprint": fp       = r.nextString(); break;
+                    case "entropy":     entropy  = r.nextDouble(); break;
+                    case "timestamp":   ts       = r.nextLong();   break;
+                    // Kept as JSON text, re-encoded on one line for the device record
+                    case "meta":        meta     = r.nextCompact(); break;
+                    default:            r.skipValue();
+                }
+            }
+            r.endObject();
+            if (deviceId == null || dcs == null || fp == null || meta == null || Double.isNaN(entropy) || ts == 0) {
+                throw new IllegalArgumentException("missing handshake field");
+            }
+            if (!isSafeDeviceId(deviceId)) throw new IllegalArgumentException("invalid deviceId");
+            if (!allow(ex, enrollLimiter, "dev:" + deviceId)) return;
 
             // Zero-Trust Validation
             if (!securityEngine.validateDCS(dcs, fp, entropy, ts)) {
@@ -165,86 +718,370 @@ public class HttpApiServer {
             databaseManager.registerDevice(deviceId, fp, dcs, meta);
             databaseManager.saveKey(deviceId, hashed, expiry);
 
-            String json = String.format(
-                "{\"status\":\"enrolled\",\"apiKey\":\"%s\",\"expiresAt\":%d}",
-                apiKey, expiry
-            );
-            send(ex, 200, json);
+            sendBytes(ex, 200, JsonWriter.local().beginObject()
+                .name("status").value("enrolled").name("apiKey").value(apiKey).name("expiresAt").value(expiry)
+                .endObject().toBytes());
         } catch (Exception e) {
-            send(ex, 400, "{\"error\":\"Handshake failed: " + e.getMessage().replace("\"", "'") + "\"}");
+            sendBytes(ex, 400, JsonWriter.local().beginObject()
+                .name("error").value("Handshake failed: " + e.getMessage())
+                .endObject().toBytes());
         }
     }
 
+    /** One device of a batch enrollment: the parsed handshake, then its outcome */
+    private static final class BatchItem {
+        String deviceId, dcs, fp, meta;
+        double entropy = Double.NaN;
+        long ts;
+        String error;
+        String apiKey;
+        DatabaseManager.Enrollment record;
+    }
+
+    /**
+     * POST /api/enroll/batch — enroll a fleet in one request.
+     *
+     * Body: {"devices":[handshake, ...]} with the same fields as /api/enroll.
+     * The caller must present enroll.batch.token: a device key would let any
+     * enrolled device mint unlimited fresh keys. Each request takes one per-IP
+     * enrollment permit and each device one per-device permit, the same buckets
+     * /api/enroll draws from; a device over its limit is refused in the results.
+     * Signatures are checked and keys issued
+     * in parallel (SecurityEngine keeps its digest and Mac per thread), then every
+     * accepted device is persisted with one append per file. The response lists
+     * each device in request order with either its key or the reason it was refused.
+     */
+    private void handleEnrollBatch(HttpExchange ex) throws IOException {
+        if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
+        if (!"POST".equals(ex.getRequestMethod())) { send(ex, 405, "{\"error\":\"POST required\"}"); return; }
+        if (!checkBatchToken(ex)) return;
+        if (!allow(ex, enrollLimiter, "ip:" + clientIp(ex))) return;
+
+        List<BatchItem> items = new ArrayList<>();
+        try {
+            JsonReader r = new JsonReader(ex.getRequestBody().readAllBytes());
+            r.beginObject();
+            while (r.hasNext()) {
+                if (!"devices".equals(r.nextName())) { r.skipValue(); continue; }
+                r.beginArray();
+                while (r.hasNext()) {
+                    if (items.size() == config.enrollBatchMax) {
+                        throw new IllegalArgumentException("more than " + config.enrollBatchMax + " devices");
+                    }
+                    items.add(readBatchItem(r));
+                }
+                r.endArray();
+            }
+            r.endObject();
+        } catch (Exception e) {
+            sendBytes(ex, 400, JsonWriter.local().beginObject()
+                .name("error").value("Batch rejected: " + e.getMessage())
+                .endObject().toBytes());
+            return;
+        }
+
+        // A device ID may appear once per batch; later duplicates are refused
+        Set<String> seen = new HashSet<>();
+        for (BatchItem it : items) {
+            if (it.error == null && !seen.add(it.deviceId)) it.error = "duplicate deviceId in batch";
+            else if (it.error == null && enrollLimiter != null && enrollLimiter.tryAcquire("dev:" + it.deviceId) != 0) {
+                it.error = "enrollment rate limit exceeded for this device";
+            }
+        }
+
+        long expiry = System.currentTimeMillis() + (7L * 24 * 3600 * 1000); // 7 days
+        items.parallelStream().forEach(it -> {
+            if (it.error != null) return;
+            if (!securityEngine.validateDCS(it.dcs, it.fp, it.entropy, it.ts)) {
+                it.error = "Invalid Device Signature (DCS)";
+                return;
+            }
+            it.apiKey = securityEngine.generateApiKey(it.deviceId, it.ts);
+            it.record = new DatabaseManager.Enrollment(it.deviceId, it.fp, it.dcs, it.meta,
+                securityEngine.hashKey(it.apiKey), expiry);
+        });
+
+        List<DatabaseManager.Enrollment> accepted = new ArrayList<>(items.size());
+        for (BatchItem it : items) {
+            if (it.record != null) accepted.add(it.record);
+        }
+        databaseManager.saveEnrollments(accepted);
+
+        JsonWriter w = new JsonWriter(64 + items.size() * 128);
+        w.beginObject()
+            .name("enrolled").value(accepted.size())
+            .name("rejected").value(items.size() - accepted.size())
+            .name("expiresAt").value(expiry)
+            .name("results").beginArray();
+        for (BatchItem it : items) {
+            w.beginObject().name("deviceId").value(it.deviceId);
+            if (it.error == null) w.name("status").value("enrolled").name("apiKey").value(it.apiKey);
+            else w.name("status").value("rejected").name("error").value(it.error);
+            w.endObject();
+        }
+        w.endArray().endObject();
+        System.out.printf("[HttpApiServer] Batch enrollment: %d enrolled, %d rejected%n",
+            accepted.size(), items.size() - accepted.size());
+        sendBytes(ex, 200, w.toBytes());
+    }
+
+    /** Parse one handshake object; a missing field marks the item rejected rather than failing the batch */
+    private static BatchItem readBatchItem(JsonReader r) {
+        BatchItem it = new BatchItem();
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "deviceId":    it.deviceId = r.nextString(); break;
+                case "dcs":         it.dcs      = r.nextString(); break;
+                case "fingerprint": it.fp       = r.nextString(); break;
+                case "entropy":     it.entropy  = r.nextDouble(); break;
+                case "timestamp":   it.ts       = r.nextLong();   break;
+                case "meta":        it.meta     = r.nextCompact(); break;
+                default:            r.skipValue();
+            }
+        }
+        r.endObject();
+        if (it.deviceId == null || it.dcs == null || it.fp == null || it.meta == null
+                || Double.isNaN(it.entropy) || it.ts == 0) {
+            it.error = "missing handshake field";
+        } else if (!isSafeDeviceId(it.deviceId)) {
+            it.error = "invalid deviceId";
+        }
+        return it;
+    }
+
+    // Device IDs end up in stored records, limiter keys and log lines; keep them plain
+    private static final java.util.regex.Pattern DEVICE_ID = java.util.regex.Pattern.compile("[A-Za-z0-9._:-]{1,128}");
+
+    static boolean isSafeDeviceId(String deviceId) {
+        return DEVICE_ID.matcher(deviceId).matches();
+    }
+
+    /** DELETE /api/enroll revokes the bearer token the request is made with */
+    private void handleRevoke(HttpExchange ex) throws IOException {
+        if (!checkAuth(ex)) return;
+        String token = ex.getRequestHeaders().getFirst("Authorization").substring(7);
+        databaseManager.revokeKey(securityEngine.hashKey(token));
+        send(ex, 200, "{\"status\":\"revoked\"}");
+    }
+
     private boolean checkAuth(HttpExchange ex) throws IOException {
+        return checkAuth(ex, false);
+    }
+
+    private boolean checkAuth(HttpExchange ex, boolean allowQueryToken) throws IOException {
+        // Per-IP first so token guessing is throttled before any verification work
+        if (!allow(ex, apiLimiter, "ip:" + clientIp(ex))) return false;
         String auth = ex.getRequestHeaders().getFirst("Authorization");
-        if (auth == null || !auth.startsWith("Bearer ")) {
+        String token;
+        if (auth != null && auth.startsWith("Bearer ")) {
+            token = auth.substring(7);
+        } else if (allowQueryToken && query(ex).containsKey("token")) {
+            token = query(ex).get("token");
+        } else {
             send(ex, 401, "{\"error\":\"Missing Authorization Bearer token\"}");
             return false;
         }
-        String token = auth.substring(7);
-        String hashed = securityEngine.hashKey(token);
-        if (!databaseManager.isValidKey(hashed)) {
+        TokenCache cache = tokenCache;
+        boolean valid = cache != null ? cache.verify(token) : databaseManager.isValidKey(securityEngine.hashKey(token));
+        if (!valid) {
             send(ex, 403, "{\"error\":\"Invalid or expired token\"}");
             return false;
         }
+        // A token is issued per enrolled device, so this is the per-device limit
+        return allow(ex, apiLimiter, "tok:" + token);
+    }
+
+    /** Admin bearer for batch enrollment; the endpoint is off while enroll.batch.token is unset */
+    private boolean checkBatchToken(HttpExchange ex) throws IOException {
+        if (!allow(ex, apiLimiter, "ip:" + clientIp(ex))) return false;
+        if (config.enrollBatchToken.isEmpty()) {
+            send(ex, 403, "{\"error\":\"batch enrollment disabled (enroll.batch.token)\"}");
+            return false;
+        }
+        String auth = ex.getRequestHeaders().getFirst("Authorization");
+        if (auth == null || !auth.startsWith("Bearer ")) {
+            send(ex, 401, "{\"error\":\"Missing Authorization Bearer token\"}");
+            return false;
+        }
+        if (!java.security.MessageDigest.isEqual(auth.substring(7).getBytes(StandardCharsets.UTF_8),
+                config.enrollBatchToken.getBytes(StandardCharsets.UTF_8))) {
+            send(ex, 403, "{\"error\":\"Invalid batch enrollment token\"}");
+            return false;
+        }
         return true;
     }
 
+    /** Take a permit from {@code limiter}, or answer 429 with Retry-After and return false */
+    private boolean allow(HttpExchange ex, RateLimiter limiter, String key) throws IOException {
+        if (limiter == null) return true;
+        long waitMs = limiter.tryAcquire(key);
+        if (waitMs == 0) return true;
+        ex.getResponseHeaders().add("Retry-After", Long.toString((waitMs + 999) / 1000));
+        send(ex, 429, "{\"error\":\"Too many requests. Rate limit exceeded.\"}");
+        return false;
+    }
+
+    private static String clientIp(HttpExchange ex) {
+        return ex.getRemoteAddress().getAddress().getHostAddress();
+    }
+
     private void handleRawTelemetry(HttpExchange ex) throws IOException {
         if ("OPTIONS".equals(ex.getRequestMethod())) { cors(ex, ""); return; }
         if (!checkAuth(ex)) return;
         String raw = telemetryCollector != null ? telemetryCollector.getRawTelemetry() : "Telemetry collector not available.";
-        // Escape backslashes first, then quotes, then newlines
-        String escaped = raw.replace("\\", "\\\\")
-                            .replace("\"", "\\\"")
-                            .replace("\n", "\\n")
-                            .replace("\r", "");
-        String json = "{\"raw\":\"" + escaped + "\"}";
-        send(ex, 200, json);
+        JsonWriter w = new JsonWriter(raw.length() + 16);
+        sendBytes(ex, 200, w.beginObject().name("raw").value(raw).endObject().toBytes());
     }
 
     private void handleHealth(HttpExchange ex) throws IOException {
         send(ex, 200, "{\"status\":\"ok\",\"agent\":\"CFA\",\"version\":\"1.0\"}");
     }
 
+    /** Unauthenticated like /api/health: 200 once every subsystem is up, 503 with per-subsystem state before */
+    private void handleReady(HttpExchange ex) throws IOException {
+        Startup boot = startup;
+        if (boot == null) { send(ex, 200, "{\"ready\":true}"); return; }
+        sendBytes(ex, boot.isReady() ? 200 : 503, boot.toJson());
+    }
+
     private void cors(HttpExchange ex, String body) throws IOException {
         ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
-        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization");
+        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
+        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization,If-None-Match");
         ex.getResponseHeaders().add("Access-Control-Allow-Private-Network", "true");
         ex.sendResponseHeaders(204, -1);
     }
 
     private void send(HttpExchange ex, int code, String json) throws IOException {
-        ex.getResponseHeaders().add("Content-Type", "application/json");
-        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,OPTIONS");
-        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization");
-        ex.getResponseHeaders().add("Access-Control-Allow-Private-Network", "true");
-        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
-        ex.sendResponseHeaders(code, bytes.length);
+        sendBytes(ex, code, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Serve a cached resource, or an empty 304 if the client already holds this version */
+    private void sendCached(HttpExchange ex, Cached c) throws IOException {
+        ex.getResponseHeaders().add("ETag", c.etag);
+        ex.getResponseHeaders().add("Cache-Control", "no-cache");
+        if (etagMatches(ex.getRequestHeaders().getFirst("If-None-Match"), c.etag)) {
+            addCommonHeaders(ex);
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        String encoding = c.body.length >= config.compressMinBytes ? negotiateEncoding(ex) : null;
+        if (encoding == null) {
+            sendBytes(ex, 200, c.body);
+            return;
+        }
+        byte[] bytes = c.encoded(encoding);
+        addCommonHeaders(ex);
+        ex.getResponseHeaders().add("Content-Encoding", encoding);
+        ex.sendResponseHeaders(200, bytes.length);
         try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
     }
 
-    private double extractDouble(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*([0-9.eE+\\-]+)";
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile(pattern).matcher(json);
-        if (m.find()) return Double.parseDouble(m.group(1));
-        throw new NumberFormatException("Double key not found: " + key);
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
     }
 
-    private String extractString(String json, String key) {
-        String pattern = "\"" + key + "\"\\s*:\\s*\"([^\"]*)\"";
-        java.util.regex.Matcher m = java.util.regex.Pattern.compile(pattern).matcher(json);
-        if (m.find()) return m.group(1);
-        
-        // Try fallback for numeric timestamp as string
-        pattern = "\"" + key + "\"\\s*:\\s*([0-9]+)";
-        m = java.util.regex.Pattern.compile(pattern).matcher(json);
-        if (m.find()) return m.group(1);
+    private void sendBytes(HttpExchange ex, int code, byte[] bytes) throws IOException {
+        String encoding = bytes.length >= config.compressMinBytes ? negotiateEncoding(ex) : null;
+        addCommonHeaders(ex);
+        if (encoding == null) {
+            ex.sendResponseHeaders(code, bytes.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
+            return;
+        }
+        ex.getResponseHeaders().add("Content-Encoding", encoding);
+        if (bytes.length < STREAM_COMPRESS_BYTES) {
+            byte[] packed = compress(bytes, encoding);
+            ex.sendResponseHeaders(code, packed.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(packed); }
+            return;
+        }
+        // Large bodies: compress straight onto a chunked response, no second full-size buffer
+        ex.sendResponseHeaders(code, 0);
+        try (OutputStream os = compressor(ex.getResponseBody(), encoding)) {
+            for (int off = 0; off < bytes.length; off += COMPRESS_CHUNK) {
+                os.write(bytes, off, Math.min(COMPRESS_CHUNK, bytes.length - off));
+            }
+        }
+    }
+
+    // ── Content-Encoding negotiation ─────────────────────────────────────
+    private static final int STREAM_COMPRESS_BYTES = 64 * 1024;
+    private static final int COMPRESS_CHUNK = 16 * 1024;
+
+    /** Pick gzip or deflate from Accept-Encoding by q-value (gzip wins ties); null for identity */
+    static String negotiateEncoding(HttpExchange ex) {
+        String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) return null;
+        double gzipQ = 0, deflateQ = 0, anyQ = -1;
+        for (String part : accept.split(",")) {
+            String[] f = part.trim().split(";");
+            String coding = f[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < f.length; i++) {
+                String p = f[i].trim();
+                if (p.startsWith("q=")) {
+                    try { q = Double.parseDouble(p.substring(2)); } catch (NumberFormatException e) { q = 0; }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) gzipQ = q;
+            else if (coding.equals("deflate")) deflateQ = q;
+            else if (coding.equals("*")) anyQ = q;
+        }
+        if (anyQ > 0) {
+            if (!accept.contains("gzip")) gzipQ = anyQ;
+            if (!accept.contains("deflate")) deflateQ = anyQ;
+        }
+        if (gzipQ <= 0 && deflateQ <= 0) return null;
+        return gzipQ >= deflateQ ? "gzip" : "deflate";
+    }
+
+    private static OutputStream compressor(OutputStream out, String encoding) throws IOException {
+        // HTTP "deflate" is the zlib-wrapped format, which DeflaterOutputStream writes by default
+        return "gzip".equals(encoding) ? new GZIPOutputStream(out, COMPRESS_CHUNK) : new DeflaterOutputStream(out);
+    }
+
+    static byte[] compress(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (OutputStream os = compressor(baos, encoding)) { os.write(data); }
+        return baos.toByteArray();
+    }
 
-        throw new RuntimeException("String key not found: " + key);
+    private static void addCommonHeaders(HttpExchange ex) {
+        ex.getResponseHeaders().add("Vary", "Accept-Encoding");
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+        ex.getResponseHeaders().add("Access-Control-Allow-Methods", "GET,POST,DELETE,OPTIONS");
+        ex.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type,Authorization,If-None-Match");
+        ex.getResponseHeaders().add("Access-Control-Allow-Private-Network", "true");
+        ex.getResponseHeaders().add("Access-Control-Expose-Headers", "X-CFA-Last-Seq,X-CFA-Next-Cursor,ETag,Retry-After");
     }
 
-    public void stop() { if (server != null) server.stop(0); }
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                       URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    public void stop() {
+        if (streamHub != null) streamHub.shutdown();
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+        if (watchdog != null) watchdog.shutdownNow();
+    }
 }
@@ -0,0 +1,229 @@
+package com.cfa;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide counters and latency histograms, exported in Prometheus text
+ * format by /api/internal/metrics.
+ *
+ * Recording is lock-free: counters and histogram buckets are LongAdders, and a
+ * histogram observation is one short bucket scan plus two adds. Metrics are
+ * registered as static fields or at context creation and never removed. The
+ * registry is keyed by name and labels: registering a series again (a second
+ * HttpApiServer in the same process) returns the existing counter or histogram,
+ * and a gauge registered again reads from its newest supplier, so no series is
+ * ever exported twice.
+ */
+public final class Instrumentation {
+
+    private Instrumentation() {}
+
+    private static final ConcurrentHashMap<String, Metric> METRICS = new ConcurrentHashMap<>();
+
+    // Upper bounds in seconds, shared by every histogram
+    private static final double[] BUCKETS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+    private static final String[] BUCKET_LABELS = new String[BUCKETS.length];
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+            BUCKET_LABELS[i] = java.math.BigDecimal.valueOf(BUCKETS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    // ── Agent hot paths ──────────────────────────────────────────────────────
+    public static final Histogram COLLECT  = histogram("cfa_telemetry_collect_seconds", "Time to collect one telemetry snapshot", "");
+    public static final Histogram COMPUTE  = histogram("cfa_csi_compute_seconds", "Time to compute CSI for one cycle", "");
+    public static final Histogram ANALYZE  = histogram("cfa_anomaly_analyze_seconds", "Time for anomaly analysis of one cycle", "");
+    public static final Histogram APPEND   = histogram("cfa_store_append_seconds", "Time for LocalDataStore.append", "");
+    public static final Histogram CYCLE    = histogram("cfa_cycle_seconds", "Time for one full compute cycle, excluding the sleep", "");
+    public static final Counter CYCLE_ERRORS   = counter("cfa_cycle_errors_total", "Compute cycles that threw", "");
+    public static final Counter COLLECT_ERRORS = counter("cfa_telemetry_collect_errors_total", "Telemetry collections that threw", "");
+    public static final Counter HTTP_REJECTED  = counter("cfa_http_rejected_total", "Requests shed with 503 at the concurrency limit", "");
+
+    // ── Metric types ─────────────────────────────────────────────────────────
+
+    private abstract static class Metric {
+        final String name, help, labels;
+        Metric(String name, String help, String labels) { this.name = name; this.help = help; this.labels = labels; }
+        abstract String type();
+        abstract void render(StringBuilder sb);
+    }
+
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+        Counter(String name, String help, String labels) { super(name, help, labels); }
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+        @Override String type() { return "counter"; }
+        @Override void render(StringBuilder sb) {
+            sb.append(name).append(braces(labels)).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    public static final class Histogram extends Metric {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+        Histogram(String name, String help, String labels) {
+            super(name, help, labels);
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) i++;
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /** Observe the time since {@code startNanos} (a System.nanoTime() reading) */
+        public void since(long startNanos) { observeNanos(System.nanoTime() - startNanos); }
+
+        public long count() {
+            long n = 0;
+            for (LongAdder b : buckets) n += b.sum();
+            return n;
+        }
+
+        @Override String type() { return "histogram"; }
+        @Override void render(StringBuilder sb) {
+            String sep = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                sb.append(name).append("_bucket{").append(sep).append("le=\"").append(BUCKET_LABELS[i]).append("\"} ")
+                  .append(cumulative).append('\n');
+            }
+            cumulative += buckets[BUCKETS.length].sum();
+            sb.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum").append(braces(labels)).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+            sb.append(name).append("_count").append(braces(labels)).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    /** A value read when scraped; {@code type} is "gauge", or "counter" for a running total kept elsewhere */
+    public static final class Gauge extends Metric {
+        private final String type;
+        private final DoubleSupplier value;
+        Gauge(String name, String help, String labels, String type, DoubleSupplier value) {
+            super(name, help, labels);
+            this.type = type;
+            this.value = value;
+        }
+        @Override String type() { return type; }
+        @Override void render(StringBuilder sb) { sample(sb, name, labels, value.getAsDouble()); }
+    }
+
+    /** @param labels Prometheus label pairs without braces, e.g. {@code path="/api/status"}, or "" */
+    public static Histogram histogram(String name, String help, String labels) {
+        return register(name, labels, Histogram.class, () -> new Histogram(name, help, labels));
+    }
+
+    public static Counter counter(String name, String help, String labels) {
+        return register(name, labels, Counter.class, () -> new Counter(name, help, labels));
+    }
+
+    public static Gauge gauge(String name, String help, String labels, DoubleSupplier value) {
+        Gauge g = new Gauge(name, help, labels, "gauge", value);
+        METRICS.put(key(name, labels), g);
+        return g;
+    }
+
+    public static Gauge counterFunction(String name, String help, String labels, DoubleSupplier value) {
+        Gauge g = new Gauge(name, help, labels, "counter", value);
+        METRICS.put(key(name, labels), g);
+        return g;
+    }
+
+    /** The series already registered under name and labels, or a new one */
+    private static <M extends Metric> M register(String name, String labels, Class<M> type, Supplier<M> create) {
+        Metric m = METRICS.computeIfAbsent(key(name, labels), k -> create.get());
+        if (!type.isInstance(m)) throw new IllegalStateException(name + " is already registered as a " + m.type());
+        return type.cast(m);
+    }
+
+    private static String key(String name, String labels) { return name + '{' + labels + '}'; }
+
+    /** Quote a label value per the exposition format */
+    public static String label(String key, String value) {
+        return key + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    // ── Exposition ───────────────────────────────────────────────────────────
+
+    /** Every registered metric plus JVM gauges, in Prometheus text format 0.0.4 */
+    public static String prometheusText() {
+        StringBuilder sb = new StringBuilder(8192);
+        List<Metric> sorted = new ArrayList<>(METRICS.values());
+        sorted.sort(Comparator.<Metric, String>comparing(m -> m.name).thenComparing(m -> m.labels));
+        String last = null;
+        for (Metric m : sorted) {
+            if (!m.name.equals(last)) {
+                header(sb, m.name, m.help, m.type());
+                last = m.name;
+            }
+            m.render(sb);
+        }
+        jvmGauges(sb);
+        return sb.toString();
+    }
+
+    private static void jvmGauges(StringBuilder sb) {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = mem.getHeapMemoryUsage();
+        MemoryUsage nonHeap = mem.getNonHeapMemoryUsage();
+        header(sb, "jvm_memory_used_bytes", "Used JVM memory", "gauge");
+        sample(sb, "jvm_memory_used_bytes", label("area", "heap"), heap.getUsed());
+        sample(sb, "jvm_memory_used_bytes", label("area", "nonheap"), nonHeap.getUsed());
+        header(sb, "jvm_memory_committed_bytes", "Committed JVM memory", "gauge");
+        sample(sb, "jvm_memory_committed_bytes", label("area", "heap"), heap.getCommitted());
+        sample(sb, "jvm_memory_committed_bytes", label("area", "nonheap"), nonHeap.getCommitted());
+        header(sb, "jvm_memory_max_bytes", "Maximum JVM heap", "gauge");
+        sample(sb, "jvm_memory_max_bytes", label("area", "heap"), heap.getMax());
+
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        header(sb, "jvm_gc_collections_total", "GC collections", "counter");
+        for (GarbageCollectorMXBean gc : gcs) {
+            sample(sb, "jvm_gc_collections_total", label("gc", gc.getName()), gc.getCollectionCount());
+        }
+        header(sb, "jvm_gc_collection_seconds_total", "Time spent in GC", "counter");
+        for (GarbageCollectorMXBean gc : gcs) {
+            sample(sb, "jvm_gc_collection_seconds_total", label("gc", gc.getName()), gc.getCollectionTime() / 1000.0);
+        }
+
+        header(sb, "jvm_threads_live", "Live JVM threads", "gauge");
+        sample(sb, "jvm_threads_live", "", ManagementFactory.getThreadMXBean().getThreadCount());
+        header(sb, "process_uptime_seconds", "Agent uptime", "gauge");
+        sample(sb, "process_uptime_seconds", "", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            header(sb, "process_cpu_seconds_total", "CPU time used by the agent", "counter");
+            sample(sb, "process_cpu_seconds_total", "",
+                ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() / 1e9);
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append(braces(labels)).append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) sb.append((long) value);
+        else sb.append(value);
+        sb.append('\n');
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+}
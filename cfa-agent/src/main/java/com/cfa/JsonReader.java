@@ -0,0 +1,263 @@
+package com.cfa;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One-pass pull parser over a UTF-8 JSON document.
+ *
+ * Callers walk the structure they expect (beginObject, hasNext, nextName,
+ * nextDouble, ...) and skipValue whatever they don't care about; nothing is
+ * materialized beyond the values actually read. Commas are tolerated loosely
+ * (a trailing comma is accepted). Malformed input raises
+ * IllegalArgumentException with the byte offset.
+ */
+public final class JsonReader {
+
+    private static final int COPY_MAX_DEPTH = 16;
+    private static final java.util.regex.Pattern JSON_NUMBER =
+        java.util.regex.Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    private final byte[] data;
+    private int pos;
+
+    public JsonReader(byte[] utf8) { this.data = utf8; }
+
+    public JsonReader(String json) { this(json.getBytes(StandardCharsets.UTF_8)); }
+
+    // ── Structure ────────────────────────────────────────────────────────────
+
+    public void beginObject() { expect('{'); }
+    public void endObject()   { skipComma(); expect('}'); }
+    public void beginArray()  { expect('['); }
+    public void endArray()    { skipComma(); expect(']'); }
+
+    /** True while the current object or array has another member */
+    public boolean hasNext() {
+        skipComma();
+        int c = peek();
+        return c != '}' && c != ']' && c != -1;
+    }
+
+    public String nextName() {
+        skipComma();
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    // ── Values ───────────────────────────────────────────────────────────────
+
+    /** A string value; a bare number or literal is returned as its text */
+    public String nextString() {
+        int c = peek();
+        if (c == '"') return readString();
+        if (c == 'n' && literal("null")) return null;
+        int start = pos;
+        skipScalar();
+        return new String(data, start, pos - start, StandardCharsets.US_ASCII);
+    }
+
+    public double nextDouble() {
+        if (peek() == '"') return Double.parseDouble(readString());
+        int start = pos;
+        skipScalar();
+        try {
+            return Double.parseDouble(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw error("number expected", start);
+        }
+    }
+
+    /** A whole number, also accepted as a quoted string of digits */
+    public long nextLong() {
+        int c = peek();
+        if (c == '"') return Long.parseLong(readString());
+        int start = pos;
+        boolean neg = c == '-';
+        if (neg) pos++;
+        int digitsStart = pos;
+        long v = 0;
+        while (pos < data.length && data[pos] >= '0' && data[pos] <= '9') {
+            v = v * 10 + (data[pos++] - '0');
+        }
+        boolean fraction = pos < data.length && (data[pos] == '.' || data[pos] == 'e' || data[pos] == 'E');
+        if (pos == digitsStart || pos - digitsStart > 18 || fraction) {
+            // Rare forms (1e3, 5.0, very long) go through the double parser
+            pos = start;
+            double d = nextDouble();
+            if (d != Math.rint(d)) throw error("integer expected", start);
+            return (long) d;
+        }
+        return neg ? -v : v;
+    }
+
+    public boolean nextBoolean() {
+        int c = peek();
+        if (c == 't' && literal("true")) return true;
+        if (c == 'f' && literal("false")) return false;
+        throw error("boolean expected", pos);
+    }
+
+    /** The next value, whatever its type, as its original JSON text */
+    public String nextRaw() {
+        peek();
+        int start = pos;
+        skipValue();
+        return new String(data, start, pos - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The next value re-encoded as compact JSON. Unlike nextRaw, the value is
+     * checked on the way (strings re-escaped, numbers and literals validated,
+     * whitespace dropped), so the result is always one well-formed line.
+     */
+    public String nextCompact() {
+        return copyValue(new JsonWriter(64), 0).toString();
+    }
+
+    private JsonWriter copyValue(JsonWriter w, int depth) {
+        int c = peek();
+        if (c == '{' || c == '[') {
+            if (depth >= COPY_MAX_DEPTH) throw error("nested too deeply", pos);
+            boolean object = c == '{';
+            if (object) { beginObject(); w.beginObject(); } else { beginArray(); w.beginArray(); }
+            while (hasNext()) {
+                if (object) w.name(nextName());
+                copyValue(w, depth + 1);
+            }
+            if (object) { endObject(); w.endObject(); } else { endArray(); w.endArray(); }
+        } else if (c == '"') {
+            w.value(readString());
+        } else if (c == 't' || c == 'f') {
+            w.value(nextBoolean());
+        } else if (c == 'n') {
+            if (!literal("null")) throw error("value expected", pos);
+            w.value((String) null);
+        } else {
+            int start = pos;
+            skipScalar();
+            String number = new String(data, start, pos - start, StandardCharsets.US_ASCII);
+            if (!JSON_NUMBER.matcher(number).matches()) throw error("number expected", start);
+            w.raw(number);
+        }
+        return w;
+    }
+
+    public void skipValue() {
+        int c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = data[pos];
+                if (c == '"') { skipString(); continue; }
+                if (c == '{' || c == '[') depth++;
+                else if (c == '}' || c == ']') depth--;
+                pos++;
+            } while (depth > 0 && pos < data.length);
+            if (depth > 0) throw error("unterminated container", pos);
+        } else {
+            skipScalar();
+        }
+    }
+
+    // ── Internals ────────────────────────────────────────────────────────────
+
+    private int peek() {
+        while (pos < data.length) {
+            byte b = data[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return b;
+            pos++;
+        }
+        return -1;
+    }
+
+    private void skipComma() {
+        if (peek() == ',') pos++;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("'" + c + "' expected", pos);
+        pos++;
+    }
+
+    private boolean literal(String word) {
+        int n = word.length();
+        if (pos + n > data.length) return false;
+        for (int i = 0; i < n; i++) {
+            if (data[pos + i] != word.charAt(i)) return false;
+        }
+        pos += n;
+        return true;
+    }
+
+    private void skipScalar() {
+        int start = pos;
+        while (pos < data.length) {
+            byte b = data[pos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') break;
+            pos++;
+        }
+        if (pos == start) throw error("value expected", start);
+    }
+
+    private void skipString() {
+        pos++;
+        while (pos < data.length) {
+            byte b = data[pos++];
+            if (b == '\\') pos++;
+            else if (b == '"') return;
+        }
+        throw error("unterminated string", pos);
+    }
+
+    private String readString() {
+        expect('"');
+        int start = pos;
+        // Fast path: no escapes, decode the slice directly
+        while (pos < data.length) {
+            byte b = data[pos];
+            if (b == '"') {
+                pos++;
+                return new String(data, start, pos - 1 - start, StandardCharsets.UTF_8);
+            }
+            if (b == '\\') break;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(new String(data, start, pos - start, StandardCharsets.UTF_8));
+        int runStart = pos;
+        while (pos < data.length) {
+            byte b = data[pos];
+            if (b == '"') {
+                sb.append(new String(data, runStart, pos - runStart, StandardCharsets.UTF_8));
+                pos++;
+                return sb.toString();
+            }
+            if (b != '\\') { pos++; continue; }
+            sb.append(new String(data, runStart, pos - runStart, StandardCharsets.UTF_8));
+            if (pos + 1 >= data.length) break;
+            char e = (char) data[pos + 1];
+            pos += 2;
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > data.length) throw error("bad \\u escape", pos);
+                    sb.append((char) Integer.parseInt(new String(data, pos, 4, StandardCharsets.US_ASCII), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(e);   // \" \\ \/
+            }
+            runStart = pos;
+        }
+        throw error("unterminated string", start);
+    }
+
+    private IllegalArgumentException error(String what, int at) {
+        return new IllegalArgumentException("Malformed JSON: " + what + " at offset " + at);
+    }
+}
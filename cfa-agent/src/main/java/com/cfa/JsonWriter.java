@@ -0,0 +1,256 @@
+package com.cfa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer that encodes UTF-8 straight into a reusable byte buffer.
+ *
+ * Commas and colons are inserted automatically, numbers are written digit by
+ * digit without String.format (and therefore without locale surprises), and
+ * pre-encoded JSON can be spliced in with {@link #raw}. One writer per thread
+ * is available through {@link #local()}; callers must take the result with
+ * {@link #toBytes()} or {@link #toString()} before anything else on the same
+ * thread reuses it.
+ */
+public final class JsonWriter {
+
+    private static final int MAX_DEPTH = 32;
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL  = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE  = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final ThreadLocal<JsonWriter> LOCAL = ThreadLocal.withInitial(() -> new JsonWriter(1024));
+    // Per-thread buffers past this are dropped on reset; lowered by SelfMonitor over the memory budget
+    private static volatile int retainBytes = 1 << 20;
+
+    private byte[] buf;
+    private int len;
+    private final boolean[] hasItems = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /** This thread's writer, reset and ready for a new document */
+    public static JsonWriter local() {
+        return LOCAL.get().reset();
+    }
+
+    public JsonWriter reset() {
+        len = 0;
+        depth = 0;
+        afterName = false;
+        // Don't let one huge document pin a large buffer on a pooled thread
+        if (buf.length > retainBytes) buf = new byte[1024];
+        return this;
+    }
+
+    /** Largest buffer a thread's {@link #local()} writer keeps between documents */
+    static void retainLimit(int bytes) { retainBytes = Math.max(1024, bytes); }
+
+    // ── Structure ────────────────────────────────────────────────────────────
+
+    public JsonWriter beginObject() { return open('{'); }
+    public JsonWriter endObject()   { return close('}'); }
+    public JsonWriter beginArray()  { return open('['); }
+    public JsonWriter endArray()    { return close(']'); }
+
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    // ── Values ───────────────────────────────────────────────────────────────
+
+    public JsonWriter value(String s) {
+        separate();
+        if (s == null) { put(NULL, 0, 4); return this; }
+        string(s);
+        return this;
+    }
+
+    public JsonWriter value(long v) {
+        separate();
+        digits(v);
+        return this;
+    }
+
+    public JsonWriter value(boolean b) {
+        separate();
+        if (b) put(TRUE, 0, 4);
+        else   put(FALSE, 0, 5);
+        return this;
+    }
+
+    /** A double rounded half-up to a fixed number of decimals (0–9), like %.Nf; NaN/Inf become null */
+    public JsonWriter value(double v, int decimals) {
+        separate();
+        if (Double.isNaN(v) || Double.isInfinite(v)) { put(NULL, 0, 4); return this; }
+        long scale = POW10[decimals];
+        double abs = Math.abs(v);
+        if (abs * scale >= 9e15) {
+            // Beyond exact long range; precision is already coarser than requested
+            ascii(Double.toString(v));
+            return this;
+        }
+        long r = (long) (abs * scale + 0.5);
+        if (v < 0 && r != 0) put((byte) '-');
+        digits(r / scale);
+        if (decimals > 0) {
+            put((byte) '.');
+            long frac = r % scale;
+            for (int i = decimals - 1; i >= 0; i--) {
+                put((byte) ('0' + (frac / POW10[i]) % 10));
+            }
+        }
+        return this;
+    }
+
+    /** A double in shortest round-trip form */
+    public JsonWriter value(double v) {
+        separate();
+        if (Double.isNaN(v) || Double.isInfinite(v)) { put(NULL, 0, 4); return this; }
+        if (v == (long) v && Math.abs(v) < 1e15) { digits((long) v); return this; }
+        ascii(Double.toString(v));
+        return this;
+    }
+
+    /** Splice in an already-encoded JSON value */
+    public JsonWriter raw(String json) {
+        separate();
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        put(b, 0, b.length);
+        return this;
+    }
+
+    /** Splice in an already-encoded UTF-8 JSON value */
+    public JsonWriter raw(byte[] json) {
+        separate();
+        put(json, 0, json.length);
+        return this;
+    }
+
+    // ── Output ───────────────────────────────────────────────────────────────
+
+    public int size() { return len; }
+
+    public byte[] toBytes() { return Arrays.copyOf(buf, len); }
+
+    @Override
+    public String toString() { return new String(buf, 0, len, StandardCharsets.UTF_8); }
+
+    public void writeTo(OutputStream out) throws IOException { out.write(buf, 0, len); }
+
+    /** Quote and escape a string as a JSON literal */
+    public static String quote(String s) {
+        return new JsonWriter(s.length() + 8).value(s).toString();
+    }
+
+    // ── Internals ────────────────────────────────────────────────────────────
+
+    private JsonWriter open(char c) {
+        separate();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("JSON nesting deeper than " + MAX_DEPTH);
+        hasItems[depth++] = false;
+        put((byte) c);
+        return this;
+    }
+
+    private JsonWriter close(char c) {
+        if (depth == 0) throw new IllegalStateException("Unbalanced " + c);
+        depth--;
+        put((byte) c);
+        return this;
+    }
+
+    /** Comma before every element but the first of its container; nothing right after a name */
+    private void separate() {
+        if (afterName) { afterName = false; return; }
+        if (depth > 0) {
+            if (hasItems[depth - 1]) put((byte) ',');
+            hasItems[depth - 1] = true;
+        }
+    }
+
+    private void string(String s) {
+        put((byte) '"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                put((byte) c);
+            } else if (c == '"' || c == '\\') {
+                put((byte) '\\'); put((byte) c);
+            } else if (c == '\n') {
+                put((byte) '\\'); put((byte) 'n');
+            } else if (c == '\r') {
+                put((byte) '\\'); put((byte) 'r');
+            } else if (c == '\t') {
+                put((byte) '\\'); put((byte) 't');
+            } else if (c < 0x20) {
+                put((byte) '\\'); put((byte) 'u'); put((byte) '0'); put((byte) '0');
+                put(HEX[c >> 4]); put(HEX[c & 0xf]);
+            } else if (c < 0x800) {
+                put((byte) (0xc0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put((byte) (0xf0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                put((byte) '?');   // unpaired surrogate, as String.getBytes would
+            } else {
+                put((byte) (0xe0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+        put((byte) '"');
+    }
+
+    private void digits(long v) {
+        if (v == Long.MIN_VALUE) { ascii(Long.toString(v)); return; }
+        if (v < 0) { put((byte) '-'); v = -v; }
+        ensure(20);
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i]; buf[i] = buf[j]; buf[j] = t;
+        }
+    }
+
+    private void ascii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void put(byte b) {
+        if (len == buf.length) ensure(1);
+        buf[len++] = b;
+    }
+
+    private void put(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, buf, len, n);
+        len += n;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+}
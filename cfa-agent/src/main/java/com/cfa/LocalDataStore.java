@@ -1,48 +1,118 @@
 package com.cfa;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 
 /**
- * Flat-file JSON lines store. Maintains rolling buffer of last MAX_LINES records.
+ * Flat-file JSON lines store, oldest row first, keeping roughly the last
+ * maxRows records.
+ *
+ * Appends go to the end of the file; once it is a quarter over the limit the
+ * oldest rows are trimmed in one streamed rewrite, so an append is O(1)
+ * amortized whatever the retention. Rows are assumed to be in timestamp order,
+ * which lets {@link #scan} binary-search the file for a time range.
  */
 public class LocalDataStore {
 
-    private static final int MAX_LINES = 1000;
+    public static final int DEFAULT_MAX_ROWS = 1000;
+    private final int maxRows;
     private final Path dataFile;
+    private final Path versionFile;
     private final Object lock = new Object();
 
+    // Lines currently in the data file
+    private long lineCount;
+    // Lines appended since startup; lets a rewrite find rows written after its snapshot
+    private long appended = 0;
+    // Bumped every time the history is rewritten (e.g. re-scored with new weights)
+    private volatile long historyVersion = 0;
+
+    /** Point-in-time copy of the history file, taken under the store lock */
+    public static class Snapshot {
+        public final Path file;
+        public final long appendedAt;
+        Snapshot(Path file, long appendedAt) { this.file = file; this.appendedAt = appendedAt; }
+    }
+
+    /** Receives the selected fields of each row a {@link #scan} visits; {@code values} is reused */
+    public interface RowSink {
+        void row(long ts, double[] values) throws IOException;
+    }
+
+    /** Receives whole rows from {@link #scanBackward}; return false to stop */
+    public interface LineVisitor {
+        boolean visit(long ts, String row) throws IOException;
+    }
+
     public LocalDataStore(String dataDir) throws IOException {
+        this(dataDir, DEFAULT_MAX_ROWS);
+    }
+
+    public LocalDataStore(String dataDir, int maxRows) throws IOException {
+        this.maxRows = Math.max(1, maxRows);
         Files.createDirectories(Path.of(dataDir));
         this.dataFile = Path.of(dataDir, "metrics.jsonl");
+        this.versionFile = Path.of(dataDir, "metrics.version");
         if (!Files.exists(dataFile)) Files.createFile(dataFile);
+        if (Files.exists(versionFile)) {
+            try {
+                historyVersion = Long.parseLong(Files.readString(versionFile).trim());
+            } catch (NumberFormatException e) {
+                historyVersion = 0;
+            }
+        }
+        lineCount = countLines(dataFile);
+        // Older builds could leave the last row unterminated; appends need a clean line start
+        long size = Files.size(dataFile);
+        if (size > 0) {
+            try (FileChannel ch = FileChannel.open(dataFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                ch.read(last, size - 1);
+                if (last.get(0) != '\n') {
+                    ch.write(ByteBuffer.wrap(new byte[] { '\n' }), size);
+                }
+            }
+        }
     }
 
     /** Append a single JSON object line */
     public void append(String jsonLine) {
+        long start = System.nanoTime();
         synchronized (lock) {
             try {
-                List<String> lines = new ArrayList<>(Files.readAllLines(dataFile));
-                lines.add(jsonLine);
-                // Rolling trim
-                if (lines.size() > MAX_LINES) {
-                    lines = lines.subList(lines.size() - MAX_LINES, lines.size());
+                byte[] row = (jsonLine + "\n").getBytes(StandardCharsets.UTF_8);
+                Files.write(dataFile, row, StandardOpenOption.APPEND);
+                appended++;
+                lineCount++;
+                // Trim in bulk rather than per row
+                if (lineCount > maxRows + Math.max(16, maxRows / 4)) {
+                    trimTo(maxRows);
                 }
-                Files.write(dataFile, lines);
             } catch (IOException e) {
                 System.err.println("[DataStore] Write error: " + e.getMessage());
             }
         }
+        Instrumentation.APPEND.since(start);
     }
 
     /** Read last N records */
     public List<String> readLast(int n) {
         synchronized (lock) {
             try {
-                List<String> lines = Files.readAllLines(dataFile);
-                if (lines.size() <= n) return new ArrayList<>(lines);
-                return new ArrayList<>(lines.subList(lines.size() - n, lines.size()));
+                long size = Files.size(dataFile);
+                long window = (long) n * 256 + 1024;
+                while (true) {
+                    long start = Math.max(0, size - window);
+                    List<String> lines = readLines(start, size);
+                    if (lines.size() >= n || start == 0) {
+                        return lines.size() <= n ? lines : new ArrayList<>(lines.subList(lines.size() - n, lines.size()));
+                    }
+                    window *= 4;
+                }
             } catch (IOException e) {
                 return Collections.emptyList();
             }
@@ -51,6 +121,283 @@ public class LocalDataStore {
 
     /** Read all records */
     public List<String> readAll() {
-        return readLast(MAX_LINES);
+        return readLast(maxRows);
+    }
+
+    public int getMaxRows() { return maxRows; }
+
+    /**
+     * Stream rows with fromTs <= ts <= toTs, handing {@code fields} of each to
+     * the sink (NaN where a row lacks a field). Seeks to fromTs by binary search
+     * and stops at the first row past toTs, so memory use is constant and cost
+     * is proportional to the rows returned. Runs without the store lock: the
+     * file is opened through NIO, which on Windows too lets a concurrent trim
+     * replace it while this keeps reading the old copy.
+     */
+    public long scan(long fromTs, long toTs, String[] fields, RowSink sink) throws IOException {
+        long end;
+        synchronized (lock) { end = Files.size(dataFile); }
+        double[] values = new double[fields.length];
+        long rows = 0;
+        try (FileChannel ch = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            long start = fromTs > Long.MIN_VALUE ? seek(ch, end, fromTs) : 0;
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            byte[] line = new byte[512];
+            int len = 0;
+            long pos = start;
+            scan:
+            while (pos < end) {
+                chunk.clear();
+                if (end - pos < chunk.capacity()) chunk.limit((int) (end - pos));
+                int n = ch.read(chunk, pos);
+                if (n <= 0) break;
+                pos += n;
+                byte[] a = chunk.array();
+                for (int i = 0; i < n; i++) {
+                    if (a[i] != '\n') {
+                        if (len == line.length) line = Arrays.copyOf(line, len * 2);
+                        line[len++] = a[i];
+                        continue;
+                    }
+                    String row = new String(line, 0, len, StandardCharsets.UTF_8);
+                    len = 0;
+                    double ts = numberField(row, "ts");
+                    if (Double.isNaN(ts) || ts < fromTs) continue;
+                    if (ts > toTs) break scan;
+                    for (int f = 0; f < fields.length; f++) values[f] = numberField(row, fields[f]);
+                    sink.row((long) ts, values);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Hand rows with ts < beforeTs to the visitor, newest first, until it
+     * returns false or the oldest row is reached. The start is found by the
+     * same binary search as {@link #scan} and the file is then read backwards
+     * in blocks, so a page deep in the history costs what the newest one does.
+     * Like scan, runs without the store lock.
+     */
+    public void scanBackward(long beforeTs, LineVisitor visitor) throws IOException {
+        long end;
+        synchronized (lock) { end = Files.size(dataFile); }
+        try (FileChannel ch = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            long limit = beforeTs == Long.MAX_VALUE ? end : firstAtOrAfter(ch, end, beforeTs);
+            byte[] block = new byte[64 * 1024];
+            byte[] pending = new byte[0];   // start of a line whose beginning lies in an earlier block
+            long pos = limit;
+            while (pos > 0) {
+                int n = (int) Math.min(block.length, pos);
+                pos -= n;
+                ByteBuffer bb = ByteBuffer.wrap(block, 0, n);
+                while (bb.hasRemaining() && ch.read(bb, pos + bb.position()) > 0) { }
+                int lineEnd = n;
+                for (int i = n - 1; i >= -1; i--) {
+                    if (i >= 0 && block[i] != '\n') continue;
+                    if (i < 0 && pos > 0) break;
+                    int len = lineEnd - (i + 1);
+                    byte[] line = pending.length == 0 ? block : new byte[len + pending.length];
+                    int off = i + 1;
+                    if (line != block) {
+                        System.arraycopy(block, i + 1, line, 0, len);
+                        System.arraycopy(pending, 0, line, len, pending.length);
+                        len += pending.length;
+                        off = 0;
+                        pending = new byte[0];
+                    }
+                    lineEnd = i;
+                    if (len > 0 && line[off + len - 1] == '\r') len--;
+                    if (len == 0) continue;
+                    String row = new String(line, off, len, StandardCharsets.UTF_8);
+                    double ts = numberField(row, "ts");
+                    if (Double.isNaN(ts) || ts >= beforeTs) continue;
+                    if (!visitor.visit((long) ts, row)) return;
+                }
+                if (lineEnd > 0) {
+                    byte[] joined = new byte[lineEnd + pending.length];
+                    System.arraycopy(block, 0, joined, 0, lineEnd);
+                    System.arraycopy(pending, 0, joined, lineEnd, pending.length);
+                    pending = joined;
+                }
+            }
+        }
+    }
+
+    /** Copy the current history aside so it can be streamed without holding the lock */
+    public Snapshot snapshot() throws IOException {
+        synchronized (lock) {
+            Path copy = Files.createTempFile(dataFile.getParent(), "metrics-", ".snap");
+            Files.copy(dataFile, copy, StandardCopyOption.REPLACE_EXISTING);
+            return new Snapshot(copy, appended);
+        }
+    }
+
+    /**
+     * Atomically replace the history with a rewritten copy of {@code snap}.
+     * Rows appended after the snapshot was taken are carried over unchanged.
+     * Both files are streamed, never loaded whole. Returns the new history version.
+     */
+    public long commitRewrite(Snapshot snap, Path rewritten) throws IOException {
+        synchronized (lock) {
+            long newRows = Math.min(lineCount, appended - snap.appendedAt);
+            long rewrittenRows = countLines(rewritten);
+            long drop = Math.max(0, rewrittenRows + newRows - maxRows);
+            Path merged = rewritten.resolveSibling(rewritten.getFileName() + ".merge");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(merged))) {
+                copyLines(rewritten, drop, out);
+                copyLines(dataFile, lineCount - newRows + Math.max(0, drop - rewrittenRows), out);
+            }
+            Files.move(merged, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(rewritten);
+            Files.deleteIfExists(snap.file);
+            lineCount = rewrittenRows + newRows - drop;
+
+            long next = historyVersion + 1;
+            Path tmpVersion = versionFile.resolveSibling(versionFile.getFileName() + ".tmp");
+            Files.writeString(tmpVersion, Long.toString(next));
+            Files.move(tmpVersion, versionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            historyVersion = next;
+            return next;
+        }
+    }
+
+    public long getHistoryVersion() { return historyVersion; }
+
+    // ── File helpers ─────────────────────────────────────────────────────────
+
+    /** Drop the oldest rows so {@code keep} remain; caller holds the lock */
+    private void trimTo(long keep) throws IOException {
+        Path tmp = dataFile.resolveSibling(dataFile.getFileName() + ".trim");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            copyLines(dataFile, lineCount - keep, out);
+        }
+        Files.move(tmp, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lineCount = keep;
+    }
+
+    /** Stream {@code from} to {@code out} minus its first {@code skip} non-blank lines, normalized to \n */
+    private static void copyLines(Path from, long skip, OutputStream out) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(from, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                if (skip > 0) { skip--; continue; }
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static long countLines(Path file) throws IOException {
+        long n = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank()) n++;
+            }
+        }
+        return n;
+    }
+
+    /** Non-blank lines in [start, end); a partial first line is dropped unless start is 0 */
+    private List<String> readLines(long start, long end) throws IOException {
+        byte[] buf = new byte[(int) (end - start)];
+        try (FileChannel ch = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining() && ch.read(bb, start + bb.position()) > 0) { }
+        }
+        List<String> lines = new ArrayList<>();
+        int i = 0;
+        if (start > 0) {
+            while (i < buf.length && buf[i] != '\n') i++;
+            i++;
+        }
+        while (i < buf.length) {
+            int j = i;
+            while (j < buf.length && buf[j] != '\n') j++;
+            int k = j;
+            if (k > i && buf[k - 1] == '\r') k--;
+            if (k > i) {
+                String line = new String(buf, i, k - i, StandardCharsets.UTF_8);
+                if (!line.isBlank()) lines.add(line);
+            }
+            i = j + 1;
+        }
+        return lines;
+    }
+
+    /** Offset of a line start at or before the first row with ts >= fromTs */
+    private static long seek(FileChannel ch, long end, long fromTs) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long lo = 0, hi = end;
+        while (hi - lo > buf.capacity()) {
+            long mid = (lo + hi) >>> 1;
+            long lineStart = nextLineStart(ch, mid, end, buf);
+            if (lineStart < 0 || lineStart >= hi) { hi = mid; continue; }
+            double ts = numberField(lineAt(ch, lineStart, buf), "ts");
+            if (Double.isNaN(ts) || ts < fromTs) lo = lineStart;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Start of the first row with ts >= ts, or end if there is none */
+    private static long firstAtOrAfter(FileChannel ch, long end, long ts) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = seek(ch, end, ts);
+        while (pos >= 0 && pos < end) {
+            double t = numberField(lineAt(ch, pos, buf), "ts");
+            if (!Double.isNaN(t) && t >= ts) return pos;
+            pos = nextLineStart(ch, pos, end, buf);
+        }
+        return end;
+    }
+
+    private static long nextLineStart(FileChannel ch, long pos, long end, ByteBuffer buf) throws IOException {
+        while (pos < end) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) return -1;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return -1;
+    }
+
+    private static String lineAt(FileChannel ch, long pos, ByteBuffer buf) throws IOException {
+        buf.clear();
+        int n = Math.max(0, ch.read(buf, pos));
+        int len = 0;
+        while (len < n && buf.get(len) != '\n') len++;
+        return new String(buf.array(), 0, len, StandardCharsets.UTF_8);
+    }
+
+    // ── Row helpers ──────────────────────────────────────────────────────────
+
+    /** Numeric field of a stored row, e.g. numberField(row, "gcs"); NaN if absent */
+    static double numberField(String row, String field) {
+        String key = "\"" + field + "\":";
+        int at = row.indexOf(key);
+        if (at < 0) return Double.NaN;
+        int start = at + key.length();
+        int end = numberEnd(row, start);
+        try {
+            return Double.parseDouble(row.substring(start, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    static int numberEnd(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E') i++;
+            else break;
+        }
+        return i;
     }
 }
@@ -0,0 +1,102 @@
+package com.cfa;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Column-oriented binary export of stored metric history.
+ *
+ * All integers are big-endian (Java DataOutput order).
+ *
+ *   header  "CFAX"            4 bytes magic
+ *           version           u8   (1)
+ *           fieldCount        u16
+ *           fieldCount ×      u8 nameLength, UTF-8 name, u8 type (1 = float32)
+ *   chunk   rowCount          u32  (0 ends the stream)
+ *           ts column         i64 first timestamp (epoch ms), then rowCount-1
+ *                             zig-zag varint deltas from the previous row
+ *           fieldCount ×      rowCount float32 values, NaN where a row lacks the field
+ *   trailer u32 0, then i64 total rows
+ *
+ * A chunk is buffered as one timestamp array and one float array per field,
+ * so memory use is fixed by the chunk size however many rows are exported.
+ */
+public class MetricsExporter {
+
+    public static final String CONTENT_TYPE = "application/vnd.cfa.columnar";
+    public static final String[] FIELDS = {
+        "gcs", "wifiCSI", "btCSI", "netCSI", "sysCSI",
+        "rssi", "latency", "packetLoss", "cpu", "mem", "btCount"
+    };
+    static final byte[] MAGIC = { 'C', 'F', 'A', 'X' };
+    static final int VERSION = 1;
+    static final int TYPE_FLOAT32 = 1;
+
+    private final DataOutputStream out;
+    private final String[] fields;
+    private final long[] ts;
+    private final float[][] columns;
+    private int rows;
+    private long total;
+
+    private MetricsExporter(OutputStream out, String[] fields, int chunkRows) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.fields = fields;
+        this.ts = new long[chunkRows];
+        this.columns = new float[fields.length][chunkRows];
+    }
+
+    /** Stream rows with fromTs <= ts <= toTs; returns the number of rows written */
+    public static long export(LocalDataStore store, long fromTs, long toTs, String[] fields,
+                              int chunkRows, OutputStream out) throws IOException {
+        MetricsExporter x = new MetricsExporter(out, fields, chunkRows);
+        x.writeHeader();
+        store.scan(fromTs, toTs, fields, x::add);
+        x.flushChunk();
+        x.out.writeInt(0);
+        x.out.writeLong(x.total);
+        x.out.flush();
+        return x.total;
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeShort(fields.length);
+        for (String f : fields) {
+            byte[] name = f.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(name.length);
+            out.write(name);
+            out.writeByte(TYPE_FLOAT32);
+        }
+    }
+
+    private void add(long t, double[] values) throws IOException {
+        ts[rows] = t;
+        for (int f = 0; f < fields.length; f++) columns[f][rows] = (float) values[f];
+        if (++rows == ts.length) flushChunk();
+    }
+
+    private void flushChunk() throws IOException {
+        if (rows == 0) return;
+        out.writeInt(rows);
+        out.writeLong(ts[0]);
+        for (int i = 1; i < rows; i++) writeVarLong(ts[i] - ts[i - 1]);
+        for (float[] col : columns) {
+            for (int i = 0; i < rows; i++) out.writeFloat(col[i]);
+        }
+        total += rows;
+        rows = 0;
+        // Push each chunk to the client rather than buffering the whole export
+        out.flush();
+    }
+
+    private void writeVarLong(long v) throws IOException {
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            out.writeByte((int) ((z & 0x7F) | 0x80));
+            z >>>= 7;
+        }
+        out.writeByte((int) z);
+    }
+}
@@ -6,22 +6,69 @@ import java.util.*;
  * Predictive engine using:
  *  1. Moving window linear regression for next-sample CSI prediction
  *  2. Exponential decay model for signal decay forecast
+ *  3. Incremental multi-horizon models (RLS trend, Holt-Winters) with prediction intervals
  */
 public class PredictiveEngine {
 
     private static final int REGRESSION_WINDOW = 20;
+    private static final double Z95 = 1.96;
+
+    // Forecast horizons: next sample, 1 min, 15 min, 1 h
+    static final String[] HORIZON_LABELS = { "next", "1m", "15m", "1h" };
+    private static final long[] HORIZON_MS = { 0, 60_000L, 15 * 60_000L, 3_600_000L };
+
     private final Deque<Double> history = new ArrayDeque<>();
+    private final int[] horizonSteps;
+    private final Model[] models;
+
+    /** Incrementally updated forecaster; all updates are O(1) */
+    public interface Model {
+        void update(double y);
+        double predict(int steps);
+        double stdErr(int steps);
+        boolean ready();
+        String name();
+    }
 
     public static class Forecast {
         public double nextCSI;
         public double decayLambda;        // decay rate λ
         public double timeToThreshold;    // seconds until CSI drops below 40
         public String trend;              // "STABLE" | "IMPROVING" | "DEGRADING"
+        public HorizonForecast[] horizons = new HorizonForecast[0];
+    }
+
+    /** One model's forecast at one horizon with a 95% prediction interval */
+    public static class HorizonForecast {
+        public String horizon, model;
+        public int steps;
+        public double value, lower, upper;
+    }
+
+    public PredictiveEngine() { this(3000); }
+
+    /** @param cycleMs compute-loop period, used to turn horizons into sample steps */
+    public PredictiveEngine(long cycleMs) {
+        horizonSteps = stepsFor(cycleMs);
+        // Season of one hour of samples for Holt-Winters
+        models = new Model[] {
+            new RlsForecaster(0.98),
+            new HoltWinters(0.3, 0.05, 0.1, 0.98, horizonSteps[horizonSteps.length - 1])
+        };
+    }
+
+    static int[] stepsFor(long cycleMs) {
+        int[] steps = new int[HORIZON_MS.length];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = (int) Math.max(1, (HORIZON_MS[i] + cycleMs - 1) / Math.max(1, cycleMs));
+        }
+        return steps;
     }
 
     public void addSample(double gcs) {
         history.addLast(gcs);
         while (history.size() > REGRESSION_WINDOW) history.pollFirst();
+        for (Model m : models) m.update(gcs);
     }
 
     public Forecast forecast() {
@@ -34,17 +81,12 @@ public class PredictiveEngine {
             f.trend = "STABLE";
             f.decayLambda = 0.0;
             f.timeToThreshold = 9999.0;
+            f.horizons = horizonForecasts();
             return f;
         }
 
-        // Simple OLS linear regression: y = a + b*x
-        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
-        for (int i = 0; i < n; i++) {
-            sumX  += i; sumY  += arr[i];
-            sumXY += i * arr[i]; sumX2 += (double)i * i;
-        }
-        double slope     = (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX + 1e-9);
-        double intercept = (sumY - slope * sumX) / n;
+        double[] fit     = ols(arr);
+        double intercept = fit[0], slope = fit[1];
         f.nextCSI = Math.max(0, Math.min(100, intercept + slope * n));
 
         // Trend classification
@@ -54,7 +96,7 @@ public class PredictiveEngine {
 
         // Exponential decay fit: CSI(t) = CSI0 * e^(-λt)
         // Estimate λ from slope: if degrading, λ ≈ -slope/mean
-        double mean = sumY / n;
+        double mean = fit[2];
         if (slope < 0 && mean > 0) {
             f.decayLambda = -slope / (mean + 1e-9);
             // Time to reach threshold 40: t = ln(CSI0/40) / λ
@@ -69,6 +111,43 @@ public class PredictiveEngine {
             f.timeToThreshold = 9999.0;
         }
 
+        f.horizons = horizonForecasts();
         return f;
     }
+
+    /** Simple OLS linear regression y = a + b*x over x = 0..n-1; returns {a, b, mean(y)} */
+    static double[] ols(double[] arr) {
+        int n = arr.length;
+        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
+        for (int i = 0; i < n; i++) {
+            sumX  += i; sumY  += arr[i];
+            sumXY += i * arr[i]; sumX2 += (double)i * i;
+        }
+        double slope     = (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX + 1e-9);
+        double intercept = (sumY - slope * sumX) / n;
+        return new double[]{ intercept, slope, sumY / n };
+    }
+
+    private HorizonForecast[] horizonForecasts() {
+        List<HorizonForecast> out = new ArrayList<>();
+        for (Model m : models) {
+            if (!m.ready()) continue;
+            for (int i = 0; i < horizonSteps.length; i++) out.add(horizon(m, HORIZON_LABELS[i], horizonSteps[i]));
+        }
+        return out.toArray(new HorizonForecast[0]);
+    }
+
+    static HorizonForecast horizon(Model m, String label, int steps) {
+        HorizonForecast h = new HorizonForecast();
+        h.horizon = label;
+        h.model = m.name();
+        h.steps = steps;
+        double v = m.predict(steps), band = Z95 * m.stdErr(steps);
+        h.value = clamp(v);
+        h.lower = clamp(v - band);
+        h.upper = clamp(v + band);
+        return h;
+    }
+
+    private static double clamp(double v) { return Math.max(0, Math.min(100, v)); }
 }
@@ -0,0 +1,243 @@
+package com.cfa;
+
+import java.util.*;
+
+/**
+ * Mergeable streaming quantile sketch (KLL compactor hierarchy).
+ *
+ * Items live in levels; an item at level h stands for 2^h samples. When the
+ * sketch is over capacity the lowest full level is sorted and every other item
+ * is promoted, so retained size stays around 3k floats no matter how many
+ * samples are added. Rank error is roughly 1.7/k.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+public class QuantileSketch {
+
+    private static final double DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private float[][] levels;
+    private int[] sizes;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum;
+    private long coin = 0x9E3779B97F4A7C15L;   // xorshift state for the compaction offset
+
+    public QuantileSketch(int k) {
+        this.k = Math.max(8, k);
+        clear();
+    }
+
+    public void clear() {
+        levels = new float[1][];
+        levels[0] = new float[Math.min(k, 16)];
+        sizes = new int[1];
+        count = 0; sum = 0;
+        min = Double.POSITIVE_INFINITY; max = Double.NEGATIVE_INFINITY;
+    }
+
+    public void add(double v) {
+        if (Double.isNaN(v)) return;
+        count++; sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+        push(0, (float) v);
+        compress();
+    }
+
+    /** Fold another sketch into this one; the other sketch is left untouched */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) return;
+        while (levels.length < other.levels.length) addLevel();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) push(h, other.levels[h][i]);
+        }
+        count += other.count; sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+    }
+
+    public long count() { return count; }
+    public double min()  { return count > 0 ? min : Double.NaN; }
+    public double max()  { return count > 0 ? max : Double.NaN; }
+    public double mean() { return count > 0 ? sum / count : Double.NaN; }
+
+    /** Estimated values at the given ranks (each in [0,1]); NaN when empty */
+    public double[] quantiles(double[] qs) {
+        double[] out = new double[qs.length];
+        if (count == 0) { Arrays.fill(out, Double.NaN); return out; }
+
+        // k-way merge of the sorted levels, accumulating 2^h weight per item
+        int depth = levels.length;
+        float[][] sorted = new float[depth][];
+        long total = 0;
+        for (int h = 0; h < depth; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+            total += (long) sizes[h] << h;
+        }
+        int[] pos = new int[depth];
+        Integer[] order = new Integer[qs.length];
+        for (int i = 0; i < qs.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(qs[a], qs[b]));
+
+        long cum = 0;
+        int qi = 0;
+        double last = min;
+        while (qi < order.length) {
+            double q = qs[order[qi]];
+            if (q <= 0) { out[order[qi++]] = min; continue; }
+            if (q >= 1) { out[order[qi++]] = max; continue; }
+            long target = (long) Math.ceil(q * total);
+            while (cum < target) {
+                int best = -1;
+                for (int h = 0; h < depth; h++) {
+                    if (pos[h] < sorted[h].length && (best < 0 || sorted[h][pos[h]] < sorted[best][pos[best]])) best = h;
+                }
+                if (best < 0) break;
+                last = sorted[best][pos[best]++];
+                cum += 1L << best;
+            }
+            out[order[qi++]] = Math.max(min, Math.min(max, last));
+        }
+        return out;
+    }
+
+    /** Approximate heap footprint of the retained items */
+    public int retainedBytes() {
+        int bytes = 64;
+        for (float[] lv : levels) bytes += 16 + lv.length * 4;
+        return bytes;
+    }
+
+    // ── Wire form ────────────────────────────────────────────────────────────
+
+    /**
+     * The sketch as JSON, for merging elsewhere (fleet queries):
+     *   {"k":..,"count":..,"min":..,"max":..,"sum":..,"levels":[[..],[..],..]}
+     * where each item of levels[h] stands for 2^h samples.
+     */
+    public JsonWriter writeJson(JsonWriter w) {
+        w.beginObject().name("k").value(k).name("count").value(count);
+        if (count > 0) w.name("min").value(min).name("max").value(max).name("sum").value(sum);
+        w.name("levels").beginArray();
+        for (int h = 0; h < levels.length; h++) {
+            w.beginArray();
+            for (int i = 0; i < sizes[h]; i++) {
+                float v = Math.max(-Float.MAX_VALUE, Math.min(Float.MAX_VALUE, levels[h][i]));
+                w.raw(Float.toString(v));
+            }
+            w.endArray();
+        }
+        return w.endArray().endObject();
+    }
+
+    /** Parse {@link #writeJson} output; rejects a sketch whose level weights don't add up to its count */
+    public static QuantileSketch readJson(JsonReader r) {
+        int k = 0;
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+        List<float[]> lv = new ArrayList<>();
+        r.beginObject();
+        while (r.hasNext()) {
+            switch (r.nextName()) {
+                case "k":     k = (int) r.nextLong(); break;
+                case "count": count = r.nextLong(); break;
+                case "min":   min = r.nextDouble(); break;
+                case "max":   max = r.nextDouble(); break;
+                case "sum":   sum = r.nextDouble(); break;
+                case "levels":
+                    r.beginArray();
+                    while (r.hasNext()) {
+                        float[] items = new float[16];
+                        int n = 0;
+                        r.beginArray();
+                        while (r.hasNext()) {
+                            if (n == items.length) items = Arrays.copyOf(items, n * 2);
+                            items[n++] = (float) r.nextDouble();
+                        }
+                        r.endArray();
+                        lv.add(Arrays.copyOf(items, n));
+                    }
+                    r.endArray();
+                    break;
+                default: r.skipValue();
+            }
+        }
+        r.endObject();
+
+        QuantileSketch s = new QuantileSketch(k);
+        long weight = 0;
+        s.levels = new float[Math.max(1, lv.size())][];
+        s.sizes = new int[s.levels.length];
+        s.levels[0] = new float[4];
+        for (int h = 0; h < lv.size(); h++) {
+            float[] items = lv.get(h);
+            s.levels[h] = items.length > 0 ? items : new float[4];
+            s.sizes[h] = items.length;
+            weight += (long) items.length << h;
+        }
+        if (weight != count) throw new IllegalArgumentException("sketch weight " + weight + " != count " + count);
+        if (count > 0) {
+            s.count = count; s.min = min; s.max = max; s.sum = sum;
+        }
+        return s;
+    }
+
+    // ── Compaction ───────────────────────────────────────────────────────────
+
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+    }
+
+    private void compress() {
+        while (true) {
+            int retained = 0, cap = 0;
+            for (int h = 0; h < levels.length; h++) { retained += sizes[h]; cap += capacity(h); }
+            if (retained < cap) return;
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacity(h)) { compact(h); break; }
+            }
+        }
+    }
+
+    private void compact(int h) {
+        if (h + 1 == levels.length) addLevel();
+        float[] lv = levels[h];
+        int n = sizes[h];
+        Arrays.sort(lv, 0, n);
+        int even = n & ~1;
+        int offset = nextBit();
+        for (int i = offset; i < even; i += 2) push(h + 1, lv[i]);
+        // An odd item out stays behind so weight is conserved
+        if ((n & 1) == 1) { lv[0] = lv[n - 1]; sizes[h] = 1; }
+        else sizes[h] = 0;
+        // Lower levels shrink as the hierarchy deepens; release their old headroom
+        int cap = capacity(h);
+        if (lv.length > 2 * cap + 2) {
+            levels[h] = Arrays.copyOf(lv, cap + 1);
+        }
+    }
+
+    private void push(int h, float v) {
+        float[] lv = levels[h];
+        if (sizes[h] == lv.length) {
+            lv = Arrays.copyOf(lv, Math.max(4, lv.length * 2));
+            levels[h] = lv;
+        }
+        lv[sizes[h]++] = v;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new float[4];
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+    }
+
+    private int nextBit() {
+        coin ^= coin << 13; coin ^= coin >>> 7; coin ^= coin << 17;
+        return (int) (coin & 1);
+    }
+}
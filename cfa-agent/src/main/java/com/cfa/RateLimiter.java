@@ -0,0 +1,90 @@
+package com.cfa;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Token-bucket rate limiter keyed by an arbitrary string (client IP, device ID).
+ *
+ * Buckets live in lock-striped hash maps, so a check is one hash, one
+ * uncontended lock and a few arithmetic operations regardless of traffic.
+ * A bucket idle long enough to have refilled completely is indistinguishable
+ * from a new one, so each stripe drops such buckets lazily, at most once per
+ * refill period, when it is next touched.
+ */
+public class RateLimiter {
+
+    private static final int STRIPES = 64;   // power of two
+
+    private static final class Bucket {
+        double tokens;
+        long lastNanos;
+    }
+
+    private static final class Stripe {
+        final HashMap<String, Bucket> buckets = new HashMap<>();
+        long lastSweep;
+    }
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final long fullRefillNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param permitsPerSecond sustained rate per key
+     * @param burst            bucket size: requests a fresh key may make at once
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.fullRefillNanos = (long) Math.ceil(this.burst / this.permitsPerNano);
+        long now = System.nanoTime();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+            stripes[i].lastSweep = now;
+        }
+    }
+
+    /** Take one permit for {@code key}; returns 0 if granted, else milliseconds until one is available */
+    public long tryAcquire(String key) {
+        int h = key.hashCode();
+        Stripe s = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        long now = System.nanoTime();
+        synchronized (s) {
+            if (now - s.lastSweep > fullRefillNanos) sweep(s, now);
+            Bucket b = s.buckets.get(key);
+            if (b == null) {
+                b = new Bucket();
+                b.tokens = burst;
+                b.lastNanos = now;
+                s.buckets.put(key, b);
+            } else {
+                b.tokens = Math.min(burst, b.tokens + (now - b.lastNanos) * permitsPerNano);
+                b.lastNanos = now;
+            }
+            if (b.tokens >= 1) {
+                b.tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - b.tokens) / permitsPerNano / 1e6));
+        }
+    }
+
+    /** Keys currently tracked, for diagnostics */
+    public int size() {
+        int n = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) { n += s.buckets.size(); }
+        }
+        return n;
+    }
+
+    private void sweep(Stripe s, long now) {
+        s.lastSweep = now;
+        Iterator<Bucket> it = s.buckets.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastNanos >= fullRefillNanos) it.remove();
+        }
+    }
+}
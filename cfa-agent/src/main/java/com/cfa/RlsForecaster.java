@@ -0,0 +1,58 @@
+package com.cfa;
+
+/**
+ * Recursive least squares on a local linear trend  y(τ) = a + b·τ  with an
+ * exponential forgetting factor λ.
+ *
+ * τ is measured from the newest sample, so each step shifts the parameters
+ * (a ← a + b) and the covariance (P ← T·P·Tᵀ) before the update. This keeps
+ * the regressor bounded however long the agent runs. O(1) per sample.
+ */
+public class RlsForecaster implements PredictiveEngine.Model {
+
+    private final double lambda;
+    private double a, b;                       // level at τ=0, slope per step
+    private double p00, p01, p11;              // symmetric 2×2 covariance
+    private double errVar;                     // EWMA of squared one-step errors
+    private long n;
+
+    public RlsForecaster(double lambda) {
+        this.lambda = lambda;
+        p00 = p11 = 1e4; p01 = 0;
+    }
+
+    @Override
+    public void update(double y) {
+        if (n++ == 0) { a = y; return; }
+
+        // Advance one step: a' = a + b, P' = T P Tᵀ with T = [[1,1],[0,1]]
+        a += b;
+        double q00 = p00 + 2 * p01 + p11, q01 = p01 + p11;
+        p00 = q00; p01 = q01;
+
+        // Update with regressor φ = [1, 0]
+        double e = y - a;
+        errVar = n == 2 ? e * e : 0.95 * errVar + 0.05 * e * e;
+        double denom = lambda + p00;
+        double k0 = p00 / denom, k1 = p01 / denom;
+        a += k0 * e;
+        b += k1 * e;
+        double n00 = p00 - k0 * p00, n01 = p01 - k0 * p01, n11 = p11 - k1 * p01;
+        p00 = n00 / lambda; p01 = n01 / lambda; p11 = n11 / lambda;
+    }
+
+    @Override
+    public double predict(int steps) { return a + b * steps; }
+
+    /** Random-walk widening of the one-step error; an approximation for the trend model */
+    @Override
+    public double stdErr(int steps) { return Math.sqrt(errVar * steps); }
+
+    @Override
+    public boolean ready() { return n >= 3; }
+
+    @Override
+    public String name() { return "rls"; }
+
+    public double slope() { return b; }
+}
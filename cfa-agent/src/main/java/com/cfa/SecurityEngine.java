@@ -3,8 +3,6 @@ package com.cfa;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.Base64;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -14,12 +12,30 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class SecurityEngine {
     private final String serverSecret;
-    private final Map<String, Long> rateLimitMap = new ConcurrentHashMap<>();
     private static final long REPLAY_WINDOW_MS = 60_000; // 60 seconds
-    private static final int MAX_ENROLL_PER_MINUTE = 5;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // Digest and MAC instances are not thread-safe; one per HTTP worker avoids the provider lookup per call
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private final ThreadLocal<Mac> hmac;
 
     public SecurityEngine(String secret) {
         this.serverSecret = (secret == null || secret.isEmpty()) ? "CFA_DEFAULT_SECURE_SECRET_2026" : secret;
+        this.hmac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(serverSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                return mac;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     /**
@@ -52,51 +68,24 @@ public class SecurityEngine {
     public String generateApiKey(String deviceId, long timestamp) {
         try {
             String data = deviceId + ":" + timestamp;
-            Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-            SecretKeySpec secret_key = new SecretKeySpec(serverSecret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
-            sha256_HMAC.init(secret_key);
-            
-            byte[] hash = sha256_HMAC.doFinal(data.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = hmac.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
             return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate API key", e);
         }
     }
 
-    /**
-     * Verifies if a request is rate-limited
-     */
-    public boolean isRateLimited(String identifier) {
-        long now = System.currentTimeMillis();
-        rateLimitMap.values().removeIf(ts -> ts < now - 60_000);
-        
-        long count = rateLimitMap.keySet().stream()
-            .filter(k -> k.startsWith(identifier))
-            .count();
-            
-        if (count >= MAX_ENROLL_PER_MINUTE) return true;
-        
-        rateLimitMap.put(identifier + ":" + now, now);
-        return false;
-    }
-
     public String hashKey(String apiKey) {
         return sha256(apiKey);
     }
 
     private String sha256(String base) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(base.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+        byte[] hash = SHA256.get().digest(base.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i]     = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
         }
+        return new String(hex);
     }
 }
@@ -0,0 +1,316 @@
+package com.cfa;
+
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The agent's own footprint, and what it gives up to stay within budget.
+ *
+ * Every sampleMs the monitor reads the JVM management beans (process CPU,
+ * heap after the last collection, allocation rate, GC time) and the CPU
+ * used by the telemetry probe processes, and compares agent plus probe CPU,
+ * as a share of the whole machine, and the live heap against the configured
+ * budgets. A resource over budget for escalateAfter samples in a row takes
+ * the next mitigation step; one under 70% of budget for relaxAfter samples
+ * steps back. CPU steps stretch the telemetry poll interval and then drop
+ * the Bluetooth probe (a PowerShell device scan on Windows); the memory step
+ * shrinks the auth cache and the per-thread JSON buffers.
+ *
+ * Probe CPU comes from /proc/self/stat (reaped children) where it exists, and
+ * otherwise from the process handles as probes finish, which Windows reports
+ * after exit. The latest report is served by /api/internal/self and exported
+ * as gauges on /api/internal/metrics.
+ */
+public class SelfMonitor {
+
+    public static class Config {
+        public double cpuPercent = 5;       // agent + probes, percent of all cores; 0 = no CPU budget
+        public long heapMb = 256;           // heap live after GC; 0 = no memory budget
+        public long sampleMs = 10_000;
+        public int escalateAfter = 3;       // consecutive samples over budget before the next step
+        public int relaxAfter = 6;          // consecutive samples under 70% of budget before stepping back
+
+        public static Config from(Properties p) {
+            Config c = new Config();
+            c.cpuPercent    = Double.parseDouble(p.getProperty("budget.cpu.percent", String.valueOf(c.cpuPercent)));
+            c.heapMb        = Long.parseLong(p.getProperty("budget.heap.mb", String.valueOf(c.heapMb)));
+            c.sampleMs      = Long.parseLong(p.getProperty("budget.sample.ms", String.valueOf(c.sampleMs)));
+            c.escalateAfter = Integer.parseInt(p.getProperty("budget.escalate.samples", String.valueOf(c.escalateAfter)));
+            c.relaxAfter    = Integer.parseInt(p.getProperty("budget.relax.samples", String.valueOf(c.relaxAfter)));
+            return c;
+        }
+    }
+
+    // Mitigations active at each CPU level; level 0 is none
+    private static final String[][] CPU_STEPS = {
+        {},
+        { "probe-interval-x2" },
+        { "probe-interval-x2", "bluetooth-probe-off" },
+        { "probe-interval-x4", "bluetooth-probe-off" },
+    };
+    private static final int[] CPU_INTERVAL_SCALE = { 1, 2, 2, 4 };
+    private static final String[][] MEMORY_STEPS = {
+        {},
+        { "caches-shrunk" },
+    };
+    private static final double RELAX_FRACTION = 0.7;
+    private static final long CLOCK_TICK_NANOS = 10_000_000L;   // USER_HZ is 100 on every mainstream kernel
+
+    /** One sample and the mitigation levels decided from it; immutable */
+    static final class Report {
+        final long atMs;
+        final double agentCpuPercent, probeCpuPercent, gcPercent, allocBytesPerSec;
+        final long liveHeapBytes, heapUsedBytes, heapMaxBytes;
+        final int threads, cpuLevel, memoryLevel;
+        final long cpuSince, memorySince;     // when each level was entered
+
+        Report(long atMs, double agentCpuPercent, double probeCpuPercent, double gcPercent, double allocBytesPerSec,
+               long liveHeapBytes, long heapUsedBytes, long heapMaxBytes, int threads,
+               int cpuLevel, long cpuSince, int memoryLevel, long memorySince) {
+            this.atMs = atMs;
+            this.agentCpuPercent = agentCpuPercent;
+            this.probeCpuPercent = probeCpuPercent;
+            this.gcPercent = gcPercent;
+            this.allocBytesPerSec = allocBytesPerSec;
+            this.liveHeapBytes = liveHeapBytes;
+            this.heapUsedBytes = heapUsedBytes;
+            this.heapMaxBytes = heapMaxBytes;
+            this.threads = threads;
+            this.cpuLevel = cpuLevel;
+            this.cpuSince = cpuSince;
+            this.memoryLevel = memoryLevel;
+            this.memorySince = memorySince;
+        }
+
+        double cpuPercent() { return agentCpuPercent + probeCpuPercent; }
+    }
+
+    private final Config config;
+    private final int cpus = Runtime.getRuntime().availableProcessors();
+    private final com.sun.management.OperatingSystemMXBean os;
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final boolean procStat = Files.isReadable(Path.of("/proc/self/stat"));
+
+    // Mitigation targets, wired by AgentMain
+    volatile TelemetryCollector telemetry;
+    volatile TokenCache tokenCache;
+
+    // Sampler thread only
+    private long lastNanos, lastCpu, lastProbeCpu, lastGcMs;
+    private Map<Long, Long> lastAllocated = new HashMap<>();   // thread id -> bytes allocated
+    private int cpuOver, cpuUnder, memOver, memUnder;
+    private int cpuLevel, memoryLevel;
+    private long cpuSince, memorySince;    // when the current level was entered
+
+    private volatile Report report;
+    private volatile boolean running;
+
+    public SelfMonitor(Config config) {
+        this.config = config;
+        OperatingSystemMXBean o = ManagementFactory.getOperatingSystemMXBean();
+        this.os = o instanceof com.sun.management.OperatingSystemMXBean ? (com.sun.management.OperatingSystemMXBean) o : null;
+        ThreadMXBean t = ManagementFactory.getThreadMXBean();
+        this.threadBean = t instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) t).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) t).isThreadAllocatedMemoryEnabled()
+            ? (com.sun.management.ThreadMXBean) t : null;
+
+        Instrumentation.gauge("cfa_self_cpu_ratio", "Share of all cores used, over the last sample", Instrumentation.label("source", "agent"),
+            () -> current().agentCpuPercent / 100);
+        Instrumentation.gauge("cfa_self_cpu_ratio", "Share of all cores used, over the last sample", Instrumentation.label("source", "probes"),
+            () -> current().probeCpuPercent / 100);
+        Instrumentation.gauge("cfa_self_gc_ratio", "Share of wall time spent in GC, over the last sample", "",
+            () -> current().gcPercent / 100);
+        Instrumentation.gauge("cfa_self_allocation_bytes_per_second", "Heap allocation rate, over the last sample", "",
+            () -> current().allocBytesPerSec);
+        Instrumentation.gauge("cfa_self_live_heap_bytes", "Heap in use after the last collection", "",
+            () -> current().liveHeapBytes);
+        Instrumentation.counterFunction("process_children_cpu_seconds_total", "CPU time used by telemetry probe processes", "",
+            () -> probeCpuNanos() / 1e9);
+        Instrumentation.gauge("cfa_budget_level", "Mitigation step taken to stay within budget (0 = none)", Instrumentation.label("resource", "cpu"),
+            () -> current().cpuLevel);
+        Instrumentation.gauge("cfa_budget_level", "Mitigation step taken to stay within budget (0 = none)", Instrumentation.label("resource", "memory"),
+            () -> current().memoryLevel);
+    }
+
+    public void start() {
+        running = true;
+        sample();   // baseline for the first interval
+        Thread t = new Thread(() -> {
+            while (running) {
+                try { Thread.sleep(config.sampleMs); } catch (InterruptedException ie) { break; }
+                try {
+                    enforce(sample());
+                } catch (Exception e) {
+                    System.err.println("[SelfMonitor] Sample failed: " + e);
+                }
+            }
+        }, "self-monitor");
+        t.setDaemon(true);
+        t.start();
+        System.out.printf("[SelfMonitor] Budget: CPU %s, live heap %s (sampled every %d ms)%n",
+            config.cpuPercent > 0 ? config.cpuPercent + "% of " + cpus + " cores" : "unlimited",
+            config.heapMb > 0 ? config.heapMb + " MB" : "unlimited", config.sampleMs);
+    }
+
+    public void stop() { running = false; }
+
+    /** The latest report; all zeros before the first interval completes */
+    Report current() {
+        Report r = report;
+        return r != null ? r : new Report(System.currentTimeMillis(), 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    // ── Sampling ─────────────────────────────────────────────────────────────
+
+    private Report sample() {
+        long now = System.nanoTime();
+        long cpu = os != null ? os.getProcessCpuTime() : 0;
+        long probeCpu = probeCpuNanos();
+        long gcMs = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMs += Math.max(0, gc.getCollectionTime());
+        }
+        long allocated = allocatedSinceLast();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+        Report r = null;
+        if (lastNanos != 0) {
+            double wall = now - lastNanos;
+            r = new Report(System.currentTimeMillis(),
+                100.0 * (cpu - lastCpu) / (wall * cpus),
+                100.0 * (probeCpu - lastProbeCpu) / (wall * cpus),
+                100.0 * (gcMs - lastGcMs) * 1e6 / wall,
+                allocated * 1e9 / wall,
+                liveHeap(heap.getUsed()), heap.getUsed(), heap.getMax(),
+                ManagementFactory.getThreadMXBean().getThreadCount(), 0, 0, 0, 0);
+        }
+        lastNanos = now;
+        lastCpu = cpu;
+        lastProbeCpu = probeCpu;
+        lastGcMs = gcMs;
+        return r;
+    }
+
+    /**
+     * Bytes allocated since the previous call by the threads alive now. Threads
+     * that ended in between are missed for their last interval, which on this
+     * agent's long-lived pools is a small undercount.
+     */
+    private long allocatedSinceLast() {
+        if (threadBean == null) return 0;
+        long[] ids = threadBean.getAllThreadIds();
+        long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+        Map<Long, Long> now = new HashMap<>(ids.length * 2);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0) continue;
+            now.put(ids[i], bytes[i]);
+            total += bytes[i] - lastAllocated.getOrDefault(ids[i], 0L);
+        }
+        lastAllocated = now;
+        return Math.max(0, total);
+    }
+
+    /** Heap still in use after the most recent collection of each pool; {@code used} before any GC */
+    private static long liveHeap(long used) {
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) continue;
+            MemoryUsage after = pool.getCollectionUsage();
+            if (after != null) live += after.getUsed();
+        }
+        return live > 0 ? live : used;
+    }
+
+    /** CPU time of the agent's child processes so far */
+    private long probeCpuNanos() {
+        if (procStat) {
+            try {
+                // Fields after "pid (comm) ": state is field 3, cutime 16, cstime 17
+                String stat = Files.readString(Path.of("/proc/self/stat"));
+                String[] f = stat.substring(stat.lastIndexOf(')') + 2).trim().split("\\s+");
+                return (Long.parseLong(f[13]) + Long.parseLong(f[14])) * CLOCK_TICK_NANOS;
+            } catch (Exception e) {
+                // fall through to the per-probe total
+            }
+        }
+        return TelemetryCollector.PROBE_CPU_NANOS.sum();
+    }
+
+    // ── Enforcement ──────────────────────────────────────────────────────────
+
+    private void enforce(Report r) {
+        if (r == null) return;
+        int cpu = cpuLevel, mem = memoryLevel;
+        if (config.cpuPercent > 0) {
+            double used = r.cpuPercent();
+            cpuOver  = used > config.cpuPercent ? cpuOver + 1 : 0;
+            cpuUnder = used < config.cpuPercent * RELAX_FRACTION ? cpuUnder + 1 : 0;
+            if (cpuOver >= config.escalateAfter && cpu < CPU_STEPS.length - 1) { cpu++; cpuOver = 0; }
+            else if (cpuUnder >= config.relaxAfter && cpu > 0) { cpu--; cpuUnder = 0; }
+        } else {
+            cpu = 0;
+        }
+        if (config.heapMb > 0) {
+            double usedMb = r.liveHeapBytes / (1024.0 * 1024.0);
+            memOver  = usedMb > config.heapMb ? memOver + 1 : 0;
+            memUnder = usedMb < config.heapMb * RELAX_FRACTION ? memUnder + 1 : 0;
+            if (memOver >= config.escalateAfter && mem < MEMORY_STEPS.length - 1) { mem++; memOver = 0; }
+            else if (memUnder >= config.relaxAfter && mem > 0) { mem--; memUnder = 0; }
+        } else {
+            mem = 0;
+        }
+
+        if (cpu != cpuLevel) {
+            System.out.printf("[SelfMonitor] CPU %.1f%% against budget %.1f%%: level %d -> %d %s%n",
+                r.cpuPercent(), config.cpuPercent, cpuLevel, cpu, Arrays.toString(CPU_STEPS[cpu]));
+            cpuLevel = cpu;
+            cpuSince = r.atMs;
+            TelemetryCollector t = telemetry;
+            if (t != null) t.throttle(CPU_INTERVAL_SCALE[cpu], cpu < 2);
+        }
+        if (mem != memoryLevel) {
+            System.out.printf("[SelfMonitor] Live heap %.1f MB against budget %d MB: level %d -> %d %s%n",
+                r.liveHeapBytes / (1024.0 * 1024.0), config.heapMb, memoryLevel, mem, Arrays.toString(MEMORY_STEPS[mem]));
+            memoryLevel = mem;
+            memorySince = r.atMs;
+            TokenCache c = tokenCache;
+            if (c != null) c.shrink(mem > 0);
+            JsonWriter.retainLimit(mem > 0 ? 64 * 1024 : 1 << 20);
+        }
+        report = new Report(r.atMs, r.agentCpuPercent, r.probeCpuPercent, r.gcPercent, r.allocBytesPerSec,
+            r.liveHeapBytes, r.heapUsedBytes, r.heapMaxBytes, r.threads, cpuLevel, cpuSince, memoryLevel, memorySince);
+    }
+
+    // ── Reporting ────────────────────────────────────────────────────────────
+
+    /** Body of /api/internal/self */
+    byte[] toJson() {
+        Report r = current();
+        double mb = 1024.0 * 1024.0;
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("sampledAt").value(r.atMs).name("sampleMs").value(config.sampleMs)
+            .name("cpu").beginObject()
+                .name("percent").value(r.cpuPercent(), 2).name("agentPercent").value(r.agentCpuPercent, 2)
+                .name("probePercent").value(r.probeCpuPercent, 2).name("cores").value(cpus)
+                .name("budgetPercent").value(config.cpuPercent, 2).name("level").value(r.cpuLevel)
+            .endObject()
+            .name("memory").beginObject()
+                .name("liveHeapMb").value(r.liveHeapBytes / mb, 1).name("heapUsedMb").value(r.heapUsedBytes / mb, 1)
+                .name("heapMaxMb").value(r.heapMaxBytes / mb, 1).name("allocMbPerSec").value(r.allocBytesPerSec / mb, 2)
+                .name("budgetMb").value(config.heapMb).name("level").value(r.memoryLevel)
+            .endObject()
+            .name("gcPercent").value(r.gcPercent, 2)
+            .name("threads").value(r.threads)
+            .name("mitigations").beginArray();
+        for (String m : CPU_STEPS[r.cpuLevel]) {
+            w.beginObject().name("name").value(m).name("resource").value("cpu").name("since").value(r.cpuSince).endObject();
+        }
+        for (String m : MEMORY_STEPS[r.memoryLevel]) {
+            w.beginObject().name("name").value(m).name("resource").value("memory").name("since").value(r.memorySince).endObject();
+        }
+        return w.endArray().endObject().toBytes();
+    }
+}
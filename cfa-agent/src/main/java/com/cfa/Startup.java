@@ -0,0 +1,143 @@
+package com.cfa;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parallel subsystem initialization with dependency ordering.
+ *
+ * Each step names the steps it needs and starts on the pool as soon as they
+ * have completed, so independent file I/O, key setup and identity lookup
+ * overlap instead of running back to back on the main thread. A step whose
+ * dependency failed fails too, without running. State and timings feed
+ * /api/ready.
+ */
+public class Startup {
+
+    public interface Init<T> {
+        T run() throws Exception;
+    }
+
+    /** One subsystem's initialization */
+    public static final class Step<T> {
+        final String name;
+        final List<Step<?>> deps;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        volatile long startNanos, endNanos;
+        volatile Throwable error;
+
+        Step(String name, List<Step<?>> deps) { this.name = name; this.deps = deps; }
+
+        /** The initialized value; blocks until the step has run, throws if it failed */
+        public T get() {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException(name + " failed to initialize", e.getCause());
+            }
+        }
+
+        public boolean isDone() { return future.isDone() && !future.isCompletedExceptionally(); }
+
+        String state() {
+            if (error != null) return "failed";
+            if (future.isDone()) return "ready";
+            return startNanos != 0 ? "starting" : "waiting";
+        }
+    }
+
+    private final long bootNanos = System.nanoTime();
+    private final ExecutorService pool;
+    private final List<Step<?>> steps = new CopyOnWriteArrayList<>();
+    private volatile long readyNanos;
+
+    public Startup(int threads) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private int n;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "startup-" + (++n));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Schedule {@code init} to run once every step in {@code deps} is ready */
+    public <T> Step<T> add(String name, Init<T> init, Step<?>... deps) {
+        Step<T> step = new Step<>(name, List.of(deps));
+        steps.add(step);
+        CompletableFuture<?>[] before = new CompletableFuture<?>[deps.length];
+        for (int i = 0; i < deps.length; i++) before[i] = deps[i].future;
+        CompletableFuture.allOf(before).whenCompleteAsync((ignored, depFailure) -> {
+            if (depFailure != null) {
+                Throwable cause = depFailure instanceof CompletionException && depFailure.getCause() != null
+                    ? depFailure.getCause() : depFailure;
+                step.error = cause;
+                step.future.completeExceptionally(cause);
+                return;
+            }
+            step.startNanos = System.nanoTime();
+            try {
+                T value = init.run();
+                step.endNanos = System.nanoTime();
+                step.future.complete(value);
+            } catch (Throwable t) {
+                step.endNanos = System.nanoTime();
+                step.error = t;
+                System.err.println("[Startup] " + name + " failed: " + t);
+                step.future.completeExceptionally(t);
+            }
+        }, pool);
+        return step;
+    }
+
+    /** Wait for every step; rethrows the first failure. Frees the pool either way. */
+    public void awaitAll() throws Exception {
+        try {
+            for (Step<?> s : steps) {
+                try {
+                    s.future.join();
+                } catch (CompletionException e) {
+                    Throwable c = e.getCause();
+                    if (c instanceof Exception) throw (Exception) c;
+                    throw new IllegalStateException(s.name + " failed to initialize", c);
+                }
+            }
+            readyNanos = System.nanoTime();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public boolean isReady() { return readyNanos != 0; }
+
+    /** Milliseconds from construction to all steps ready, or -1 while starting */
+    public long readyMs() {
+        long r = readyNanos;
+        return r == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(r - bootNanos);
+    }
+
+    /** Body of /api/ready */
+    public byte[] toJson() {
+        JsonWriter w = JsonWriter.local().beginObject()
+            .name("ready").value(isReady())
+            .name("uptimeMs").value(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootNanos));
+        if (isReady()) w.name("readyMs").value(readyMs());
+        w.name("subsystems").beginArray();
+        for (Step<?> s : steps) {
+            w.beginObject().name("name").value(s.name).name("state").value(s.state());
+            if (s.startNanos != 0) {
+                w.name("startedAtMs").value((s.startNanos - bootNanos) / 1e6, 1);
+                if (s.endNanos != 0) w.name("initMs").value((s.endNanos - s.startNanos) / 1e6, 1);
+            }
+            if (!s.deps.isEmpty()) {
+                w.name("after").beginArray();
+                for (Step<?> d : s.deps) w.value(d.name);
+                w.endArray();
+            }
+            if (s.error != null) w.name("error").value(String.valueOf(s.error.getMessage()));
+            w.endObject();
+        }
+        return w.endArray().endObject().toBytes();
+    }
+}
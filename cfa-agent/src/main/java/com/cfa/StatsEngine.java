@@ -0,0 +1,165 @@
+package com.cfa;
+
+import java.util.*;
+
+/**
+ * Distribution statistics per signal and per component CSI.
+ *
+ * Every signal keeps an all-time {@link QuantileSketch} plus three rolling
+ * horizons, each a ring of time-sliced sketches that is merged on query:
+ *   1h  = 4 × 15 min,  24h = 6 × 4 h,  7d = 7 × 1 day
+ * A rolling horizon therefore covers between (slots-1) and slots slices.
+ * Footprint stays under ~20 KB per signal regardless of uptime (see "bytes").
+ */
+public class StatsEngine {
+
+    private static final int SLOT_K = 32;
+    private static final int ALL_TIME_K = 128;
+
+    static final String[] SIGNALS = {
+        "gcs", "wifiCSI", "btCSI", "netCSI", "sysCSI",
+        "latency", "packetLoss", "cpu", "mem", "rssi"
+    };
+    static final String[] HORIZONS = { "1h", "24h", "7d" };
+    private static final long[] SLOT_MS = { 15 * 60_000L, 4 * 3_600_000L, 24 * 3_600_000L };
+    private static final int[] SLOTS    = { 4, 6, 7 };
+
+    public static final double[] DEFAULT_QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /** Ring of sketches, one per time slice */
+    private static class Ring {
+        final long slotMs;
+        final QuantileSketch[] slots;
+        final long[] epoch;
+
+        Ring(long slotMs, int n) {
+            this.slotMs = slotMs;
+            this.slots = new QuantileSketch[n];
+            this.epoch = new long[n];
+            Arrays.fill(epoch, Long.MIN_VALUE);
+        }
+
+        void add(long ts, double v) {
+            long e = ts / slotMs;
+            int i = (int) Math.floorMod(e, (long) slots.length);
+            if (epoch[i] != e) {
+                if (slots[i] == null) slots[i] = new QuantileSketch(SLOT_K);
+                else slots[i].clear();
+                epoch[i] = e;
+            }
+            slots[i].add(v);
+        }
+
+        void mergeInto(QuantileSketch acc, long now) {
+            long e = now / slotMs;
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] != null && epoch[i] > e - slots.length && epoch[i] <= e) acc.merge(slots[i]);
+            }
+        }
+
+        int bytes() {
+            int b = 0;
+            for (QuantileSketch s : slots) if (s != null) b += s.retainedBytes();
+            return b;
+        }
+    }
+
+    private static class SignalStats {
+        final QuantileSketch allTime = new QuantileSketch(ALL_TIME_K);
+        final Ring[] rings = new Ring[HORIZONS.length];
+
+        SignalStats() {
+            for (int i = 0; i < rings.length; i++) rings[i] = new Ring(SLOT_MS[i], SLOTS[i]);
+        }
+
+        void add(long ts, double v) {
+            allTime.add(v);
+            for (Ring r : rings) r.add(ts, v);
+        }
+    }
+
+    private final Map<String, SignalStats> stats = new LinkedHashMap<>();
+
+    public StatsEngine() {
+        for (String s : SIGNALS) stats.put(s, new SignalStats());
+    }
+
+    /** Record one compute cycle */
+    public synchronized void record(TelemetryCollector.TelemetrySnapshot snap, CSICalculator.CSIResult csi) {
+        long ts = csi.timestamp;
+        stats.get("gcs").add(ts, csi.gcs);
+        stats.get("wifiCSI").add(ts, csi.wifiCSI);
+        stats.get("btCSI").add(ts, csi.btCSI);
+        stats.get("netCSI").add(ts, csi.netCSI);
+        stats.get("sysCSI").add(ts, csi.sysCSI);
+        stats.get("latency").add(ts, snap.latencyMs);
+        stats.get("packetLoss").add(ts, snap.packetLossRatio);
+        stats.get("cpu").add(ts, snap.cpuPercent);
+        stats.get("mem").add(ts, snap.memPercent);
+        stats.get("rssi").add(ts, snap.wifiRssi);
+    }
+
+    /**
+     * Merged sketch for one signal over a horizon ("all", "1h", "24h", "7d").
+     * Returns a fresh copy so the caller may query or merge it further.
+     */
+    public synchronized QuantileSketch sketch(String signal, String horizon) {
+        SignalStats s = stats.get(signal);
+        if (s == null) return null;
+        QuantileSketch acc = new QuantileSketch(ALL_TIME_K);
+        if ("all".equals(horizon)) {
+            acc.merge(s.allTime);
+            return acc;
+        }
+        int h = Arrays.asList(HORIZONS).indexOf(horizon);
+        if (h < 0) return null;
+        s.rings[h].mergeInto(acc, System.currentTimeMillis());
+        return acc;
+    }
+
+    /**
+     * JSON summary. {@code signal}/{@code horizon} may be null for all of them.
+     *   {"signals":{"latency":{"all":{"count":..,"min":..,"max":..,"mean":..,"p50":..},"1h":{..}}},"bytes":..}
+     */
+    public byte[] toJson(String signal, String horizon, double[] qs) {
+        List<String> horizons = new ArrayList<>();
+        horizons.add("all");
+        horizons.addAll(Arrays.asList(HORIZONS));
+        if (horizon != null) horizons.retainAll(Collections.singleton(horizon));
+
+        JsonWriter w = JsonWriter.local().beginObject().name("signals").beginObject();
+        for (String name : SIGNALS) {
+            if (signal != null && !signal.equals(name)) continue;
+            w.name(name).beginObject();
+            for (String h : horizons) writeSummary(w.name(h), sketch(name, h), qs);
+            w.endObject();
+        }
+        return w.endObject().name("bytes").value(retainedBytes()).endObject().toBytes();
+    }
+
+    public synchronized int retainedBytes() {
+        int b = 0;
+        for (SignalStats s : stats.values()) {
+            b += s.allTime.retainedBytes();
+            for (Ring r : s.rings) b += r.bytes();
+        }
+        return b;
+    }
+
+    /** {"count":..,"min":..,"max":..,"mean":..,"p50":..} for one sketch; also used by FleetAggregator */
+    static JsonWriter writeSummary(JsonWriter w, QuantileSketch s, double[] qs) {
+        w.beginObject().name("count").value(s.count());
+        if (s.count() > 0) {
+            w.name("min").value(s.min(), 3).name("max").value(s.max(), 3).name("mean").value(s.mean(), 3);
+            double[] v = s.quantiles(qs);
+            for (int i = 0; i < qs.length; i++) w.name(quantileKey(qs[i])).value(v[i], 3);
+        }
+        return w.endObject();
+    }
+
+    /** 0.5 → "p50", 0.999 → "p99.9" */
+    static String quantileKey(double q) {
+        return "p" + java.math.BigDecimal.valueOf(q * 100.0).setScale(4, java.math.RoundingMode.HALF_UP)
+            .stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,389 @@
+package com.cfa;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact "delta1" encoding of sync batches, and a reference decoder for the
+ * receiving side.
+ *
+ * A sync session starts with a schema (device ID, CSI field names) and builds
+ * a string dictionary for anomaly types, components and severities; both are
+ * sent once and then referenced. Numbers are quantized to the precision the
+ * JSON records carry (CSI and anomaly values 0.1, zScore 0.01, timestamps
+ * 1 ms) and sent as zig-zag varint deltas: the first sample of a frame against
+ * the last sample of the newest frame the receiver has acknowledged, later
+ * ones against the sample before. A steady-state CSI record costs about eight
+ * bytes against roughly twenty for gzipped JSON.
+ *
+ * Frame (varint = unsigned LEB128, zvarint = zig-zag varint, str = varint
+ * length + UTF-8 bytes):
+ *
+ *   "CFAD" u8 version (1) u8 flags (bit 0: schema present)
+ *   i64 session
+ *   [schema]  str deviceId, varint fieldCount, fieldCount × str name
+ *   varint offset       outbox offset of the first record (dedupe key, as in JSON)
+ *   varint endOffset    outbox offset after the last record; names this frame as a base
+ *   varint base         endOffset of the frame deltas start from, plus one; 0 = from zero
+ *   varint count        records, each starting with a u8 op:
+ *     0  csi      zvarint dTs, fieldCount × zvarint dValue
+ *     1  csi      u8 null mask (bit i: field i is null), then as op 0 for the others
+ *     2  anomaly  varint seq, zvarint dTs, varint type, varint component,
+ *                 varint severity (dictionary indexes), zvarint zScore×100,
+ *                 zvarint value×10, str message
+ *     3  define   varint index, str value   (dictionary entry; idempotent)
+ *
+ * The receiver answers 409 when it does not know the session or the base
+ * (e.g. it restarted); the sender then starts a new session, which resends
+ * the schema and encodes from zero. Decoded records are the same JSON text
+ * the JSON format carries.
+ */
+public final class SyncCodec {
+
+    public static final String FORMAT = "delta1";
+    public static final String CONTENT_TYPE = "application/vnd.cfa.sync-delta";
+    /** Response header a receiver uses to advertise the formats it accepts */
+    public static final String FORMATS_HEADER = "X-CFA-Sync-Formats";
+
+    static final byte[] MAGIC = { 'C', 'F', 'A', 'D' };
+    static final int VERSION = 1;
+    static final String[] CSI_FIELDS = { "gcs", "wifiCSI", "btCSI", "netCSI", "sysCSI" };
+
+    private static final int OP_CSI = 0, OP_CSI_NULLS = 1, OP_ANOMALY = 2, OP_DEFINE = 3;
+    private static final int FLAG_SCHEMA = 1;
+
+    private SyncCodec() {}
+
+    /** Thrown by the decoder when the frame refers to state it does not have; answer 409 */
+    public static class UnknownSessionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public UnknownSessionException(String msg) { super(msg); }
+    }
+
+    /** Last sample of a frame: the base the next frame's deltas start from */
+    private static final class Sample {
+        final long ts;
+        final long[] values;
+        Sample(long ts, long[] values) { this.ts = ts; this.values = values; }
+    }
+
+    // ── Encoder ──────────────────────────────────────────────────────────────
+
+    /**
+     * Sender side. Not thread-safe: encode and the acknowledgement calls are
+     * made from the sync thread in outbox order.
+     */
+    public static final class Encoder {
+        private final String deviceId;
+        private long session;
+        private boolean schemaAcked;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final Set<Integer> dictionaryAcked = new HashSet<>();
+        private Sample base;            // last sample of the newest acknowledged frame
+        private long baseOffset;        // its endOffset
+        // Per unacknowledged frame (keyed by endOffset): its last sample and new dictionary entries
+        private final Map<Long, Sample> frameSamples = new HashMap<>();
+        private final Map<Long, Set<Integer>> frameDefinitions = new HashMap<>();
+
+        public Encoder(String deviceId) {
+            this.deviceId = deviceId;
+            reset();
+        }
+
+        /** Start a new session: the next frame carries the schema and encodes from zero */
+        public void reset() {
+            session = new Random().nextLong();
+            schemaAcked = false;
+            dictionary.clear();
+            dictionaryAcked.clear();
+            base = null;
+            baseOffset = 0;
+            frameSamples.clear();
+            frameDefinitions.clear();
+        }
+
+        public byte[] encode(SyncOutbox.Batch batch) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + batch.records.size() * 12);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(schemaAcked ? 0 : FLAG_SCHEMA);
+            out.writeLong(session);
+            if (!schemaAcked) {
+                writeString(out, deviceId);
+                writeVarint(out, CSI_FIELDS.length);
+                for (String f : CSI_FIELDS) writeString(out, f);
+            }
+            writeVarint(out, batch.start);
+            writeVarint(out, batch.end);
+            writeVarint(out, base != null ? baseOffset + 1 : 0);
+
+            // Records are encoded into a second buffer so the count can precede them
+            ByteArrayOutputStream body = new ByteArrayOutputStream(batch.records.size() * 10);
+            DataOutputStream rec = new DataOutputStream(body);
+            long prevTs = base != null ? base.ts : 0;
+            long[] prev = base != null ? base.values.clone() : new long[CSI_FIELDS.length];
+            Set<Integer> defined = new HashSet<>();
+            for (String json : batch.records) {
+                JsonReader r = new JsonReader(json);
+                Map<String, String> f = new HashMap<>();
+                r.beginObject();
+                while (r.hasNext()) f.put(r.nextName(), r.nextString());
+                r.endObject();
+                long ts = parseLong(f.get("timestamp"));
+                if ("anomaly".equals(f.get("kind"))) {
+                    int type = index(f.get("type"), rec, defined);
+                    int component = index(f.get("component"), rec, defined);
+                    int severity = index(f.get("severity"), rec, defined);
+                    rec.writeByte(OP_ANOMALY);
+                    writeVarint(rec, parseLong(f.get("seq")));
+                    writeZigzag(rec, ts - prevTs);
+                    writeVarint(rec, type);
+                    writeVarint(rec, component);
+                    writeVarint(rec, severity);
+                    writeZigzag(rec, quantize(f.get("zScore"), 100));
+                    writeZigzag(rec, quantize(f.get("value"), 10));
+                    writeString(rec, f.get("message") != null ? f.get("message") : "");
+                } else {
+                    int nulls = 0;
+                    long[] v = new long[CSI_FIELDS.length];
+                    for (int i = 0; i < v.length; i++) {
+                        String s = f.get(CSI_FIELDS[i]);
+                        if (s == null) { nulls |= 1 << i; v[i] = prev[i]; }
+                        else v[i] = quantize(s, 10);
+                    }
+                    if (nulls == 0) {
+                        rec.writeByte(OP_CSI);
+                    } else {
+                        rec.writeByte(OP_CSI_NULLS);
+                        rec.writeByte(nulls);
+                    }
+                    writeZigzag(rec, ts - prevTs);
+                    for (int i = 0; i < v.length; i++) {
+                        if ((nulls & (1 << i)) == 0) writeZigzag(rec, v[i] - prev[i]);
+                    }
+                    prev = v;
+                }
+                prevTs = ts;
+            }
+            // Define ops count as records
+            writeVarint(out, batch.records.size() + defined.size());
+            body.writeTo(out);
+            out.flush();
+            frameSamples.put(batch.end, new Sample(prevTs, prev));
+            frameDefinitions.put(batch.end, defined);
+            return bytes.toByteArray();
+        }
+
+        /** The frame ending at {@code endOffset} was accepted; later frames may build on it */
+        public void acked(long endOffset) {
+            Sample s = frameSamples.remove(endOffset);
+            Set<Integer> defs = frameDefinitions.remove(endOffset);
+            if (s == null) return;
+            schemaAcked = true;
+            base = s;
+            baseOffset = endOffset;
+            if (defs != null) dictionaryAcked.addAll(defs);
+        }
+
+        /** In-flight frames were abandoned; they will be re-encoded from the acknowledged state */
+        public void rewind() {
+            frameSamples.clear();
+            frameDefinitions.clear();
+        }
+
+        /** Dictionary index of {@code s}, writing a define op unless the receiver is known to have it */
+        private int index(String s, DataOutputStream rec, Set<Integer> defined) throws IOException {
+            if (s == null) s = "";
+            Integer idx = dictionary.get(s);
+            if (idx == null) {
+                idx = dictionary.size();
+                dictionary.put(s, idx);
+            }
+            if (!dictionaryAcked.contains(idx) && defined.add(idx)) {
+                rec.writeByte(OP_DEFINE);
+                writeVarint(rec, idx);
+                writeString(rec, s);
+            }
+            return idx;
+        }
+    }
+
+    // ── Reference decoder ────────────────────────────────────────────────────
+
+    /**
+     * Receiver side: turns frames back into the JSON records of the JSON
+     * format. Keeps per-session schema, dictionary and the last sample of
+     * recent frames; one instance can serve many devices. Thread-safe.
+     */
+    public static final class Decoder {
+        private static final int FRAMES_KEPT = 64;
+
+        private static final class Session {
+            String deviceId;
+            String[] fields;
+            final Map<Integer, String> dictionary = new HashMap<>();
+            final LinkedHashMap<Long, Sample> samples = new LinkedHashMap<Long, Sample>() {
+                @Override protected boolean removeEldestEntry(Map.Entry<Long, Sample> e) { return size() > FRAMES_KEPT; }
+            };
+        }
+
+        /** One decoded frame */
+        public static final class Frame {
+            public final String deviceId;
+            public final long offset, endOffset;
+            public final List<String> records;
+            Frame(String deviceId, long offset, long endOffset, List<String> records) {
+                this.deviceId = deviceId; this.offset = offset; this.endOffset = endOffset; this.records = records;
+            }
+        }
+
+        private final Map<Long, Session> sessions = new HashMap<>();
+
+        public synchronized Frame decode(byte[] frame) throws IOException, UnknownSessionException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a " + FORMAT + " frame");
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("unsupported version " + version);
+            int flags = in.readUnsignedByte();
+            long id = in.readLong();
+            Session s = sessions.get(id);
+            if ((flags & FLAG_SCHEMA) != 0) {
+                if (s == null) {
+                    s = new Session();
+                    sessions.put(id, s);
+                }
+                s.deviceId = readString(in);
+                s.fields = new String[(int) readVarint(in)];
+                for (int i = 0; i < s.fields.length; i++) s.fields[i] = readString(in);
+            }
+            if (s == null) throw new UnknownSessionException("unknown session " + Long.toHexString(id));
+            long offset = readVarint(in);
+            long endOffset = readVarint(in);
+            long baseRef = readVarint(in);
+            long prevTs = 0;
+            long[] prev = new long[s.fields.length];
+            if (baseRef != 0) {
+                Sample b = s.samples.get(baseRef - 1);
+                if (b == null) throw new UnknownSessionException("unknown base " + (baseRef - 1));
+                prevTs = b.ts;
+                prev = b.values.clone();
+            }
+
+            long count = readVarint(in);
+            List<String> records = new ArrayList<>();
+            for (long n = 0; n < count; n++) {
+                int op = in.readUnsignedByte();
+                JsonWriter w = new JsonWriter(128);
+                switch (op) {
+                    case OP_DEFINE: {
+                        int idx = (int) readVarint(in);
+                        s.dictionary.put(idx, readString(in));
+                        continue;
+                    }
+                    case OP_CSI:
+                    case OP_CSI_NULLS: {
+                        int nulls = op == OP_CSI_NULLS ? in.readUnsignedByte() : 0;
+                        prevTs += readZigzag(in);
+                        w.beginObject().name("kind").value("csi").name("timestamp").value(prevTs);
+                        for (int i = 0; i < prev.length; i++) {
+                            w.name(s.fields[i]);
+                            if ((nulls & (1 << i)) != 0) {
+                                w.raw("null");
+                            } else {
+                                prev[i] += readZigzag(in);
+                                w.value(prev[i] / 10.0, 1);
+                            }
+                        }
+                        break;
+                    }
+                    case OP_ANOMALY: {
+                        long seq = readVarint(in);
+                        prevTs += readZigzag(in);
+                        String type = word(s, readVarint(in)), component = word(s, readVarint(in));
+                        String severity = word(s, readVarint(in));
+                        long z = readZigzag(in), v = readZigzag(in);
+                        w.beginObject().name("kind").value("anomaly").name("seq").value(seq)
+                            .name("timestamp").value(prevTs)
+                            .name("type").value(type).name("component").value(component)
+                            .name("zScore").value(z / 100.0, 2).name("value").value(v / 10.0, 1)
+                            .name("severity").value(severity).name("message").value(readString(in));
+                        break;
+                    }
+                    default:
+                        throw new IOException("unknown op " + op);
+                }
+                records.add(w.endObject().toString());
+            }
+            s.samples.put(endOffset, new Sample(prevTs, prev));
+            return new Frame(s.deviceId, offset, endOffset, records);
+        }
+
+        private static String word(Session s, long idx) throws IOException {
+            String w = s.dictionary.get((int) idx);
+            if (w == null) throw new IOException("undefined dictionary entry " + idx);
+            return w;
+        }
+    }
+
+    // ── Primitives ───────────────────────────────────────────────────────────
+
+    private static long quantize(String v, int scale) {
+        if (v == null) return 0;
+        return Math.round(Double.parseDouble(v) * scale);
+    }
+
+    private static long parseLong(String v) {
+        if (v == null) return 0;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            return (long) Double.parseDouble(v);
+        }
+    }
+
+    static void writeVarint(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static void writeZigzag(DataOutput out, long v) throws IOException {
+        writeVarint(out, (v << 1) ^ (v >> 63));
+    }
+
+    static long readVarint(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("varint too long");
+    }
+
+    static long readZigzag(DataInput in) throws IOException {
+        long z = readVarint(in);
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        long n = readVarint(in);
+        if (n > 1 << 20) throw new IOException("string too long");
+        byte[] b = new byte[(int) n];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,343 @@
+package com.cfa;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Disk-backed queue of sync records (one JSON object per line) awaiting
+ * delivery to the remote endpoint.
+ *
+ * Positions are logical byte offsets that only grow. The data file is named
+ * after the offset it starts at (outbox-<base>.jsonl) and outbox.ack holds
+ * the offset acknowledged so far, so after a restart delivery resumes with
+ * the first unacknowledged record. Acknowledged bytes are dropped by copying
+ * the unacknowledged tail to a file named for its new base once they make up
+ * most of the file. When the file outgrows maxBytes the oldest records are
+ * dropped the same way, so an outage of any length costs bounded disk.
+ *
+ * Appends, acks and compactions are forced to the device before they count,
+ * so a queued record survives power loss as well as a crash. Because the base
+ * travels with the data, a crash between a compaction and its ack can only
+ * leave a stale ack behind, which resends records the receiver already
+ * dedupes; it can never shift offsets.
+ */
+public class SyncOutbox {
+
+    private static final long COMPACT_BYTES = 1 << 20;
+    private static final String COMPACT_TMP = "outbox.compact.tmp";   // never matches outbox-*.jsonl
+
+    private final Path dir;
+    private final Path ackFile;
+    private Path file;      // outbox-<base>.jsonl
+    private final long maxBytes;
+
+    private long base;      // logical offset of the first byte in the file
+    private long acked;     // logical offset delivered and acknowledged
+    private long end;       // logical offset after the last complete record
+    private long pending;   // records after acked
+    private long dropped;   // records discarded for space since startup
+
+    /** Records from {@code start} (inclusive) to {@code end} (exclusive), in order */
+    public static class Batch {
+        public final long start, end;
+        public final List<String> records;
+        public final boolean full;   // reached a size limit (there may be more records after it)
+
+        Batch(long start, long end, List<String> records, boolean full) {
+            this.start = start; this.end = end; this.records = records; this.full = full;
+        }
+    }
+
+    public SyncOutbox(Path dir, long maxBytes) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        this.ackFile = dir.resolve("outbox.ack");
+        this.maxBytes = Math.max(COMPACT_BYTES, maxBytes);
+        openDataFile();
+        acked = readAck();
+        long size = dropPartialRecord();
+        end = base + size;
+        if (acked < base || acked > end) acked = base;   // stale or damaged ack: resend, the receiver dedupes by offset
+        pending = countRecords(acked - base);
+    }
+
+    /** Queue records (each a single-line JSON object) with one write */
+    public synchronized void append(List<String> records) throws IOException {
+        if (records.isEmpty()) return;
+        StringBuilder sb = new StringBuilder(records.size() * 160);
+        for (String r : records) sb.append(r).append('\n');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            while (bb.hasRemaining()) ch.write(bb);
+            ch.force(false);
+        }
+        end += bytes.length;
+        pending += records.size();
+        if (end - base > maxBytes) dropOldest();
+        notifyAll();
+    }
+
+    /** Up to maxRecords / maxBytes records starting at the logical offset {@code from} */
+    public synchronized Batch peek(long from, int maxRecords, int maxBatchBytes) throws IOException {
+        from = Math.max(from, acked);
+        List<String> records = new ArrayList<>();
+        if (from >= end) return new Batch(from, from, records, false);
+        long limit = Math.min(end, from + Math.max(maxBatchBytes, 1));
+        byte[] buf = new byte[(int) (limit - from)];
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining() && ch.read(bb, from - base + bb.position()) > 0) { }
+        }
+        int i = 0;
+        while (i < buf.length && records.size() < maxRecords) {
+            int j = i;
+            while (j < buf.length && buf[j] != '\n') j++;
+            if (j == buf.length) {
+                // A record longer than the whole batch still has to go out on its own
+                if (records.isEmpty()) return peekOne(from);
+                break;
+            }
+            records.add(new String(buf, i, j - i, StandardCharsets.UTF_8));
+            i = j + 1;
+        }
+        long batchEnd = from + i;
+        return new Batch(from, batchEnd, records, batchEnd < end || records.size() == maxRecords);
+    }
+
+    /** Mark everything before {@code offset} delivered; persisted before returning */
+    public synchronized void ack(long offset) throws IOException {
+        if (offset <= acked) return;
+        offset = Math.min(offset, end);
+        pending -= countRecordsBetween(acked - base, offset - base);
+        acked = offset;
+        if (acked - base > COMPACT_BYTES && acked - base > (end - base) / 2) compactTo(acked);
+        else writeAck();
+    }
+
+    /** Block until at least {@code n} records are pending or the timeout passes; returns whether they are */
+    public synchronized boolean awaitPending(long n, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (pending < n) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    public synchronized long ackedOffset() { return acked; }
+    public synchronized long endOffset() { return end; }
+    public synchronized long pendingRecords() { return pending; }
+    public synchronized long pendingBytes() { return end - acked; }
+    public synchronized long droppedRecords() { return dropped; }
+
+    // ── Internals ────────────────────────────────────────────────────────────
+
+    /**
+     * Pick up the data file with the highest base. A lower one is left over from a
+     * compaction cut short after its copy was in place, and is deleted.
+     */
+    private void openDataFile() throws IOException {
+        Files.deleteIfExists(dir.resolve(COMPACT_TMP));
+        Path newest = null;
+        long newestBase = -1;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "outbox-*.jsonl")) {
+            for (Path p : ds) {
+                long b = baseOf(p);
+                if (b < 0) continue;
+                if (b > newestBase) {
+                    if (newest != null) Files.delete(newest);
+                    newest = p;
+                    newestBase = b;
+                } else {
+                    Files.delete(p);
+                }
+            }
+        }
+        if (newest == null) {
+            newestBase = 0;
+            newest = dataFile(0);
+            Path legacy = dir.resolve("outbox.jsonl");
+            if (Files.exists(legacy)) {
+                // Written before the base moved into the file name; outbox.ack then held "base acked"
+                newestBase = legacyBase();
+                newest = dataFile(newestBase);
+                Files.move(legacy, newest, StandardCopyOption.ATOMIC_MOVE);
+                syncDir();
+            } else {
+                Files.createFile(newest);
+            }
+        }
+        file = newest;
+        base = newestBase;
+    }
+
+    private Path dataFile(long base) { return dir.resolve("outbox-" + base + ".jsonl"); }
+
+    private static long baseOf(Path p) {
+        String n = p.getFileName().toString();
+        try {
+            return Long.parseLong(n.substring("outbox-".length(), n.length() - ".jsonl".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long legacyBase() {
+        try {
+            if (Files.exists(ackFile)) return Long.parseLong(Files.readString(ackFile).trim().split("\\s+")[0]);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[SyncOutbox] Unreadable legacy ack file: " + e.getMessage());
+        }
+        return 0;
+    }
+
+    /** The acknowledged offset; the last field, so a legacy "base acked" file still reads */
+    private long readAck() {
+        try {
+            if (!Files.exists(ackFile)) return base;
+            String[] parts = Files.readString(ackFile).trim().split("\\s+");
+            return Long.parseLong(parts[parts.length - 1]);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[SyncOutbox] Unreadable ack file, resending from the start: " + e.getMessage());
+            return base;
+        }
+    }
+
+    private void writeAck() throws IOException {
+        Path tmp = ackFile.resolveSibling("outbox.ack.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(ByteBuffer.wrap((acked + "\n").getBytes(StandardCharsets.US_ASCII)));
+            ch.force(false);
+        }
+        Files.move(tmp, ackFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDir();
+    }
+
+    /** Make renames durable; where a directory cannot be opened (Windows) the file system orders them itself */
+    private void syncDir() {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Truncate a record left half-written by a crash; returns the resulting file size */
+    private long dropPartialRecord() throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            long keep = size;
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (keep > 0) {
+                one.clear();
+                ch.read(one, keep - 1);
+                if (one.get(0) == '\n') break;
+                keep--;
+            }
+            if (keep < size) {
+                ch.truncate(keep);
+                System.err.println("[SyncOutbox] Dropped " + (size - keep) + " bytes of an incomplete record");
+            }
+            return keep;
+        }
+    }
+
+    /** Discard the oldest records, delivered or not, down to half of maxBytes */
+    private void dropOldest() throws IOException {
+        long cut = lineStartAtOrAfter(end - base - maxBytes / 2);
+        long cutLogical = base + cut;
+        if (cutLogical > acked) {
+            long lost = countRecordsBetween(acked - base, cut);
+            dropped += lost;
+            pending -= lost;
+            acked = cutLogical;
+            System.err.printf("[SyncOutbox] Outbox over %d bytes; dropped %d undelivered records%n", maxBytes, lost);
+        }
+        compactTo(Math.max(acked, cutLogical));
+    }
+
+    /**
+     * Copy the tail from the logical offset {@code keepFrom} into a file named for
+     * that base, then retire the old file. The new file is complete on disk before
+     * it appears under its name, so whichever file a crash leaves newest is valid.
+     */
+    private void compactTo(long keepFrom) throws IOException {
+        if (keepFrom == base) return;
+        Path tmp = dir.resolve(COMPACT_TMP);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = keepFrom - base, size = end - base;
+            while (pos < size) pos += in.transferTo(pos, size - pos, out);
+            out.force(false);
+        }
+        Path next = dataFile(keepFrom);
+        Files.move(tmp, next, StandardCopyOption.ATOMIC_MOVE);
+        syncDir();
+        Path old = file;
+        file = next;
+        base = keepFrom;
+        Files.delete(old);
+        writeAck();
+    }
+
+    /** Physical offset of the first line starting at or after {@code pos} */
+    private long lineStartAtOrAfter(long pos) throws IOException {
+        if (pos <= 0) return 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            long p = pos - 1;
+            long size = end - base;
+            while (p < size) {
+                buf.clear();
+                int n = ch.read(buf, p);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (buf.get(i) == '\n') return p + i + 1;
+                }
+                p += n;
+            }
+            return size;
+        }
+    }
+
+    private long countRecords(long fromPhysical) throws IOException {
+        return countRecordsBetween(fromPhysical, end - base);
+    }
+
+    private long countRecordsBetween(long from, long to) throws IOException {
+        long n = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long p = from;
+            while (p < to) {
+                buf.clear();
+                if (to - p < buf.capacity()) buf.limit((int) (to - p));
+                int r = ch.read(buf, p);
+                if (r <= 0) break;
+                for (int i = 0; i < r; i++) {
+                    if (buf.get(i) == '\n') n++;
+                }
+                p += r;
+            }
+        }
+        return n;
+    }
+
+    private Batch peekOne(long from) throws IOException {
+        long nl = lineStartAtOrAfter(from - base + 1);
+        byte[] buf = new byte[(int) (nl - (from - base))];
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining() && ch.read(bb, from - base + bb.position()) > 0) { }
+        }
+        String record = new String(buf, 0, Math.max(0, buf.length - 1), StandardCharsets.UTF_8);
+        return new Batch(from, base + nl, new ArrayList<>(List.of(record)), base + nl < end);
+    }
+}
@@ -13,6 +13,13 @@ public class TelemetryCollector {
     private volatile TelemetrySnapshot latest = new TelemetrySnapshot();
     private volatile boolean running = false;
 
+    // Set by SelfMonitor while the agent is over its CPU budget
+    private volatile int intervalScale = 1;
+    private volatile boolean bluetoothProbe = true;
+
+    // CPU time of finished probe processes, where the OS still reports it after exit (Windows)
+    static final java.util.concurrent.atomic.LongAdder PROBE_CPU_NANOS = new java.util.concurrent.atomic.LongAdder();
+
     public static class TelemetrySnapshot {
         public long timestamp = System.currentTimeMillis();
         // WiFi
@@ -34,17 +41,45 @@ public class TelemetryCollector {
     public TelemetrySnapshot getLatest() { return latest; }
 
     public void startPolling(int intervalMs) {
+        startLoop(this::collect, intervalMs);
+    }
+
+    /**
+     * Feed recorded telemetry instead of querying the OS: each tick takes the
+     * next row of {@code file} (the metrics.jsonl row format; rssi, latency,
+     * packetLoss, cpu, mem and btCount are read) and wraps around at the end.
+     * Used for soak tests and demos, where cycles run faster than real polling.
+     */
+    public void startReplay(java.nio.file.Path file, int intervalMs) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (String line : java.nio.file.Files.readAllLines(file)) {
+            if (!line.isBlank()) rows.add(line);
+        }
+        if (rows.isEmpty()) throw new IOException("no rows to replay in " + file);
+        System.out.println("[Telemetry] Replaying " + rows.size() + " rows from " + file);
+        int[] next = { 0 };
+        startLoop(() -> {
+            String row = rows.get(next[0]);
+            next[0] = (next[0] + 1) % rows.size();
+            return fromRow(row);
+        }, intervalMs);
+    }
+
+    private void startLoop(java.util.function.Supplier<TelemetrySnapshot> source, int intervalMs) {
         running = true;
         Thread t = new Thread(() -> {
             while (running) {
+                long start = System.nanoTime();
                 try {
-                    TelemetrySnapshot snap = collect();
+                    TelemetrySnapshot snap = source.get();
                     snap.timestamp = System.currentTimeMillis();
                     latest = snap;
+                    Instrumentation.COLLECT.since(start);
                 } catch (Exception e) {
+                    Instrumentation.COLLECT_ERRORS.inc();
                     System.err.println("[Telemetry] Collection error: " + e.getMessage());
                 }
-                try { Thread.sleep(intervalMs); } catch (InterruptedException ie) { break; }
+                try { Thread.sleep((long) intervalMs * intervalScale); } catch (InterruptedException ie) { break; }
             }
         }, "telemetry-collector");
         t.setDaemon(true);
@@ -53,33 +88,37 @@ public class TelemetryCollector {
 
     public void stop() { running = false; }
 
+    /**
+     * Stretch the poll interval by {@code intervalScale} and optionally skip the
+     * Bluetooth probe (its last reading is carried forward). Takes effect from the
+     * next poll.
+     */
+    public void throttle(int intervalScale, boolean bluetoothProbe) {
+        this.intervalScale = Math.max(1, intervalScale);
+        this.bluetoothProbe = bluetoothProbe;
+    }
+
     private TelemetrySnapshot collect() {
         TelemetrySnapshot snap = new TelemetrySnapshot();
         collectWifi(snap);
         collectSystem(snap);
         collectNetwork(snap);
-        collectBluetooth(snap);
+        if (bluetoothProbe) {
+            collectBluetooth(snap);
+        } else {
+            TelemetrySnapshot prev = latest;
+            snap.btDeviceCount = prev.btDeviceCount;
+            snap.btSignalStrength = prev.btSignalStrength;
+        }
         return snap;
     }
 
     private void collectWifi(TelemetrySnapshot snap) {
         String os = System.getProperty("os.name", "").toLowerCase();
         if (os.contains("win")) {
-            String output = runCommand("netsh", "wlan", "show", "interfaces");
-            // Parse Signal %
-            double signalPct = parseDouble(output, "Signal\\s*:\\s*(\\d+)%", true);
-            if (signalPct > 0) {
-                // Approximate dBm: Signal%/2 - 100
-                snap.wifiRssi = (signalPct / 2.0) - 100.0;
-            } else {
-                snap.wifiRssi = -100.0;
-            }
-            snap.wifiBandwidth = parseDouble(output, "Receive rate.*?:\\s*([\\d.]+)", false);
-            snap.wifiSsid = parseString(output, "SSID\\s*:\\s*(\\S+.*)");
+            parseNetsh(runCommand("netsh", "wlan", "show", "interfaces"), snap);
         } else if (os.contains("linux")) {
-            String output = runCommand("iwconfig", "wlan0");
-            snap.wifiRssi = parseDouble(output, "Signal level=(-?\\d+)", false);
-            snap.wifiBandwidth = parseDouble(output, "Bit Rate=([\\d.]+)", false);
+            parseIwconfig(runCommand("iwconfig", "wlan0"), snap);
         } else if (os.contains("mac")) {
             String output = runCommand("/System/Library/PrivateFrameworks/Apple80211.framework/Versions/Current/Resources/airport", "-I");
             snap.wifiRssi = parseDouble(output, "agrCtlRSSI:\\s*(-?\\d+)", false);
@@ -124,24 +163,7 @@ public class TelemetryCollector {
         String pingTarget = "8.8.8.8";
         String[] pingCmd = os.contains("win") ? new String[]{"ping", "-n", "3", pingTarget} : new String[]{"ping", "-c", "3", pingTarget};
         
-        String pingOut = runCommand(pingCmd);
-        if (os.contains("win")) {
-            Pattern pAvg = Pattern.compile("Average = (\\d+)ms");
-            Matcher mAvg = pAvg.matcher(pingOut);
-            if (mAvg.find()) snap.latencyMs = Double.parseDouble(mAvg.group(1));
-
-            Pattern pLoss = Pattern.compile("(\\d+)% loss");
-            Matcher mLoss = pLoss.matcher(pingOut);
-            if (mLoss.find()) snap.packetLossRatio = Double.parseDouble(mLoss.group(1)) / 100.0;
-        } else {
-            Pattern p = Pattern.compile("/(\\d+\\.\\d+)/");
-            Matcher m = p.matcher(pingOut);
-            if (m.find()) snap.latencyMs = Double.parseDouble(m.group(1));
-
-            Pattern pLoss = Pattern.compile("(\\d+)% packet loss");
-            Matcher mLoss = pLoss.matcher(pingOut);
-            if (mLoss.find()) snap.packetLossRatio = Double.parseDouble(mLoss.group(1)) / 100.0;
-        }
+        parsePing(runCommand(pingCmd), os.contains("win"), snap);
     }
 
     private void collectBluetooth(TelemetrySnapshot snap) {
@@ -182,6 +204,62 @@ public class TelemetryCollector {
         return "Raw telemetry non-implemented for this OS.";
     }
 
+    // ── Parsers ──────────────────────────────────────────────────────────────
+
+    /** Output of {@code netsh wlan show interfaces} */
+    static void parseNetsh(String output, TelemetrySnapshot snap) {
+        // Parse Signal %
+        double signalPct = parseDouble(output, "Signal\\s*:\\s*(\\d+)%", true);
+        if (signalPct > 0) {
+            // Approximate dBm: Signal%/2 - 100
+            snap.wifiRssi = (signalPct / 2.0) - 100.0;
+        } else {
+            snap.wifiRssi = -100.0;
+        }
+        snap.wifiBandwidth = parseDouble(output, "Receive rate.*?:\\s*([\\d.]+)", false);
+        snap.wifiSsid = parseString(output, "SSID\\s*:\\s*(\\S+.*)");
+    }
+
+    /** Output of {@code iwconfig wlan0} */
+    static void parseIwconfig(String output, TelemetrySnapshot snap) {
+        snap.wifiRssi = parseDouble(output, "Signal level=(-?\\d+)", false);
+        snap.wifiBandwidth = parseDouble(output, "Bit Rate=([\\d.]+)", false);
+    }
+
+    /** Summary of {@code ping -n 3} (Windows) or {@code ping -c 3} */
+    static void parsePing(String pingOut, boolean windows, TelemetrySnapshot snap) {
+        if (windows) {
+            Pattern pAvg = Pattern.compile("Average = (\\d+)ms");
+            Matcher mAvg = pAvg.matcher(pingOut);
+            if (mAvg.find()) snap.latencyMs = Double.parseDouble(mAvg.group(1));
+
+            Pattern pLoss = Pattern.compile("(\\d+)% loss");
+            Matcher mLoss = pLoss.matcher(pingOut);
+            if (mLoss.find()) snap.packetLossRatio = Double.parseDouble(mLoss.group(1)) / 100.0;
+        } else {
+            Pattern p = Pattern.compile("/(\\d+\\.\\d+)/");
+            Matcher m = p.matcher(pingOut);
+            if (m.find()) snap.latencyMs = Double.parseDouble(m.group(1));
+
+            Pattern pLoss = Pattern.compile("(\\d+)% packet loss");
+            Matcher mLoss = pLoss.matcher(pingOut);
+            if (mLoss.find()) snap.packetLossRatio = Double.parseDouble(mLoss.group(1)) / 100.0;
+        }
+    }
+
+    /** Snapshot from a stored metric row; fields the row lacks keep their defaults */
+    static TelemetrySnapshot fromRow(String row) {
+        TelemetrySnapshot snap = new TelemetrySnapshot();
+        double v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "rssi")))       snap.wifiRssi = v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "latency")))    snap.latencyMs = v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "packetLoss"))) snap.packetLossRatio = v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "cpu")))        snap.cpuPercent = v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "mem")))        snap.memPercent = v;
+        if (!Double.isNaN(v = LocalDataStore.numberField(row, "btCount")))    snap.btDeviceCount = (int) v;
+        return snap;
+    }
+
     // ── Helpers ──────────────────────────────────────────────────────────────
 
     private String runCommand(String... cmd) {
@@ -194,13 +272,14 @@ public class TelemetryCollector {
             String line;
             while ((line = br.readLine()) != null) sb.append(line).append("\n");
             p.waitFor();
+            p.info().totalCpuDuration().ifPresent(d -> PROBE_CPU_NANOS.add(d.toNanos()));
             return sb.toString();
         } catch (Exception e) {
             return "";
         }
     }
 
-    private double parseDouble(String text, String regex, boolean isPercent) {
+    static double parseDouble(String text, String regex, boolean isPercent) {
         try {
             Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
             Matcher m = p.matcher(text);
@@ -209,7 +288,7 @@ public class TelemetryCollector {
         return isPercent ? 50.0 : 0.0;
     }
 
-    private String parseString(String text, String regex) {
+    static String parseString(String text, String regex) {
         try {
             Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
             Matcher m = p.matcher(text);
@@ -218,7 +297,7 @@ public class TelemetryCollector {
         return "unknown";
     }
 
-    private double parseFirstNumber(String text) {
+    static double parseFirstNumber(String text) {
         try {
             Pattern p = Pattern.compile("(\\d+)");
             Matcher m = p.matcher(text.trim());
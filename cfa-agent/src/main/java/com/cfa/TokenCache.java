@@ -0,0 +1,92 @@
+package com.cfa;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of bearer-token verifications for the HTTP hot path.
+ *
+ * A hit is one map lookup and a clock read; only a miss hashes the token and
+ * scans the key store. Valid tokens are remembered until their key expires
+ * (re-checked at most every POSITIVE_TTL_MS), rejected tokens for
+ * NEGATIVE_TTL_MS so a client retrying a bad token cannot hammer storage.
+ * Any key issue or revoke in DatabaseManager clears the whole cache; a miss
+ * that raced the clear does not keep the entry it looked up.
+ */
+public class TokenCache {
+
+    private static final long POSITIVE_TTL_MS = 5 * 60_000;
+    private static final long NEGATIVE_TTL_MS = 5_000;
+
+    private static final class Entry {
+        final boolean valid;
+        final long until;     // entry is trusted until this time
+        Entry(boolean valid, long until) { this.valid = valid; this.until = until; }
+    }
+
+    private final DatabaseManager db;
+    private final SecurityEngine security;
+    private final int maxEntries;
+    private volatile int limit;           // maxEntries, or a quarter of it while shrunk
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();   // bumped by every invalidateAll
+
+    public TokenCache(DatabaseManager db, SecurityEngine security, int maxEntries) {
+        this.db = db;
+        this.security = security;
+        this.maxEntries = Math.max(16, maxEntries);
+        this.limit = this.maxEntries;
+        db.addKeyListener(this::invalidateAll);
+    }
+
+    public boolean verify(String token) {
+        long now = System.currentTimeMillis();
+        Entry e = entries.get(token);
+        if (e != null && now < e.until) return e.valid;
+
+        long gen = generation.get();
+        long expiry = db.getKeyExpiry(security.hashKey(token));
+        Entry fresh = now < expiry
+            ? new Entry(true, Math.min(expiry, now + POSITIVE_TTL_MS))
+            : new Entry(false, now + NEGATIVE_TTL_MS);
+        if (entries.size() >= limit) evict(now);
+        entries.put(token, fresh);
+        // A revoke between the lookup and the put has already cleared the map; take the
+        // entry back out so the revoked token is looked up again on its next request
+        if (generation.get() != gen) entries.remove(token, fresh);
+        return fresh.valid;
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();   // before clear(): see verify
+        entries.clear();
+    }
+
+    public int size() { return entries.size(); }
+
+    /** Hold at most a quarter of the configured entries (SelfMonitor, over the memory budget) */
+    public void shrink(boolean shrunk) {
+        limit = shrunk ? Math.max(16, maxEntries / 4) : maxEntries;
+        if (entries.size() > limit) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(e -> now >= e.until);
+            Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() > limit && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /** Drop stale entries; if none are stale, drop an arbitrary one to stay bounded */
+    private void evict(long now) {
+        entries.values().removeIf(e -> now >= e.until);
+        if (entries.size() < limit) return;
+        Iterator<String> it = entries.keySet().iterator();
+        if (it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
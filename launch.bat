@@ -5,7 +5,7 @@ echo [CFA] Transitioning to Web-First Unified Perspective...
 :: Start Java Agent in background
 echo [CFA] Starting Cognitive Field Agent (Background)...
 cd cfa-agent
-start /B java -jar cfa-agent.jar > nul 2>&1
+start /B java -XX:SharedArchiveFile=cfa-agent.jsa -jar cfa-agent.jar > nul 2>&1
 cd ..
 
 :: Start Python AI Microservice in background